@@ -43,11 +43,13 @@ import edu.harvard.seas.pl.formulog.db.IndexedFactDb;
 import edu.harvard.seas.pl.formulog.smt.CheckSatAssumingSolver;
 import edu.harvard.seas.pl.formulog.smt.PushPopSolver;
 import edu.harvard.seas.pl.formulog.smt.SmtLibSolver;
+import edu.harvard.seas.pl.formulog.smt.SmtResultCache;
 import edu.harvard.seas.pl.formulog.smt.SmtStatus;
 import edu.harvard.seas.pl.formulog.smt.SmtStrategy;
 import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
 import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
 import edu.harvard.seas.pl.formulog.util.Dataset;
+import edu.harvard.seas.pl.formulog.util.InternTable;
 import edu.harvard.seas.pl.formulog.util.Pair;
 import edu.harvard.seas.pl.formulog.util.Util;
 
@@ -68,6 +70,10 @@ public final class Configuration {
 
 	public static final boolean timeSmt = propIsSet("timeSmt");
 	public static final boolean smtMemoize = propIsSet("smtMemoize", true);
+	public static final int smtMemoSize = getIntProp("smtMemoSize", 0);
+	public static final SmtResultCache.Policy smtMemoPolicy = getSmtMemoPolicy();
+	public static final boolean smtMemoModels = propIsSet("smtMemoModels", true);
+	public static final String smtMemoFile = getStringProp("smtMemoFile", null);
 	private static final Map<SmtLibSolver, Dataset> perProcessSmtEvalStats = new ConcurrentHashMap<>();
 	private static final Dataset smtEvalStats = new Dataset();
 	private static final AtomicLong smtDeclGlobalsTime = new AtomicLong();
@@ -81,6 +87,10 @@ public final class Configuration {
 	private static final AtomicInteger smtNumCallsUnknown = new AtomicInteger();
 	private static final AtomicInteger smtNumCallsDoubleCheck = new AtomicInteger();
 	private static final AtomicInteger smtNumCallsFalseUnknown = new AtomicInteger();
+	private static final AtomicLong smtMemoHits = new AtomicLong();
+	private static final AtomicLong smtMemoMisses = new AtomicLong();
+	private static final AtomicLong smtMemoEvictions = new AtomicLong();
+	private static final AtomicLong smtMemoFileHits = new AtomicLong();
 
 	// XXX I don't think this is being used any more
 	private static final AtomicLong smtTotalTime = new AtomicLong();
@@ -98,13 +108,19 @@ public final class Configuration {
 	public static final boolean simplifyFormulaVars = propIsSet("simplifyFormulaVars", true);
 	public static final boolean debugRounds = propIsSet("debugRounds");
 	public static final boolean debugParallelism = propIsSet("debugParallelism");
+	public static final boolean debugCompile = propIsSet("debugCompile");
 
 	public static final int optimizationSetting = getIntProp("optimize", 0);
+	public static final boolean adaptiveJoins = propIsSet("adaptiveJoins", false);
+	public static final boolean leapfrogJoins = propIsSet("leapfrogJoins", false);
 
 	public static final int taskSize = getIntProp("taskSize", 128);
 
 	public static final int smtTaskSize = getIntProp("smtTaskSize", 8);
 	public static final int smtCacheSize = getIntProp("smtCacheSize", 100);
+	// Retaining as many formulas as the cache can hold would make every clear
+	// rebuild the whole cache, so at most half of it is retained.
+	public static final int smtCacheRetain = Math.min(getIntProp("smtCacheRetain", 0), smtCacheSize / 2);
 	public static final SmtStrategy smtStrategy = getSmtStrategy();
 	public static final String smtSolver;
 	static {
@@ -127,6 +143,7 @@ public final class Configuration {
 	public static final boolean smtUseSingleShotSolver = propIsSet("smtUseSingleShotSolver", false)
 			|| smtSolver.equals("boolector");
 	public static final boolean smtCheckSuccess = propIsSet("smtCheckSuccess", false);
+	public static final boolean smtShareTerms = propIsSet("smtShareTerms", false);
 
 	private static final Dataset pushPopStackSize = new Dataset();
 	private static final Dataset pushPopStackReuse = new Dataset();
@@ -138,18 +155,29 @@ public final class Configuration {
 	private static final Dataset csaCacheSize = new Dataset();
 	private static final Dataset csaCacheHits = new Dataset();
 	private static final Dataset csaCacheMisses = new Dataset();
+	private static final Dataset csaCacheRetainedHits = new Dataset();
 	private static final AtomicInteger csaCacheClears = new AtomicInteger();
+	private static final Dataset csaCacheRetained = new Dataset();
 	private static final Dataset csaEvalStats = new Dataset();
 	private static final Dataset pushPopEvalStats = new Dataset();
 	private static final Dataset otherSolverEvalStats = new Dataset();
 
 	public static final int parallelism = getIntProp("parallelism", 4);
+	public static final boolean parallelStrata = propIsSet("parallelStrata", false);
+
+	public static final boolean smtAsync = propIsSet("smtAsync", false);
+	public static final int smtAsyncThreads = getIntProp("smtAsyncThreads", parallelism);
 
 	public static final boolean useDemandTransformation = propIsSet("useDemandTransformation", true);
 
 	public static final List<String> trackedRelations = getListProp("trackedRelations");
 
 	public static final List<String> factDirs = getListProp("factDirs");
+	public static final boolean fastFactLoading = propIsSet("fastFactLoading", true);
+	public static final List<String> factSnapshots = getListProp("factSnapshots");
+
+	public static final String dumpSnapshot = getStringProp("dumpSnapshot", null);
+	public static final List<String> snapshotRelations = getListProp("snapshotRelations");
 
 	public static final boolean debugMst = propIsSet("debugMst");
 
@@ -169,7 +197,14 @@ public final class Configuration {
 	}
 
 	public static final boolean genComparators = propIsSet("genComparators", true);
+	public static final boolean compileFunctions = propIsSet("compileFunctions", false);
+	public static final boolean compileRules = propIsSet("compileRules", false);
 	public static final boolean minIndex = propIsSet("minIndex", true);
+	public static final boolean packedFactDb = propIsSet("packedFactDb", false);
+	public static final int packedFactDbChunkSize = getIntProp("packedFactDbChunkSize", 64);
+
+	public static final boolean weakTermTables = propIsSet("weakTermTables", false);
+	public static final boolean recordTermTableStats = propIsSet("termTableStats");
 
 	public static final boolean inlineInRules = propIsSet("inlineInRules", true);
 
@@ -206,6 +241,16 @@ public final class Configuration {
 
 			});
 		}
+		if (recordTermTableStats) {
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+
+				@Override
+				public void run() {
+					InternTable.printStats(System.err);
+				}
+
+			});
+		}
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 
 			@Override
@@ -272,6 +317,22 @@ public final class Configuration {
 		smtDeclGlobalsTime.addAndGet(time);
 	}
 
+	public static void recordSmtMemoHit() {
+		smtMemoHits.incrementAndGet();
+	}
+
+	public static void recordSmtMemoMiss() {
+		smtMemoMisses.incrementAndGet();
+	}
+
+	public static void recordSmtMemoEvictions(int n) {
+		smtMemoEvictions.addAndGet(n);
+	}
+
+	public static void recordSmtMemoFileHit() {
+		smtMemoFileHits.incrementAndGet();
+	}
+
 	public static synchronized void printSmtDiagnostics(PrintStream out) {
 		Dataset callsPerSolver = new Dataset();
 		Dataset timePerSolver = new Dataset();
@@ -294,6 +355,16 @@ public final class Configuration {
 		out.println("[SMT NUM CALLS - UNKNOWN] " + smtNumCallsUnknown);
 		out.println("[SMT NUM CALLS - DOUBLE CHECK] " + smtNumCallsDoubleCheck);
 		out.println("[SMT NUM CALLS - FALSE UNKNOWN] " + smtNumCallsFalseUnknown);
+		if (smtMemoize) {
+			out.println("--- MEMO ---");
+			out.println("[SMT MEMO LIMIT] " + (smtMemoSize > 0 ? smtMemoSize : "none"));
+			out.println("[SMT MEMO HITS] " + smtMemoHits);
+			out.println("[SMT MEMO MISSES] " + smtMemoMisses);
+			out.println("[SMT MEMO EVICTIONS] " + smtMemoEvictions);
+		}
+		if (smtMemoFile != null) {
+			out.println("[SMT MEMO FILE HITS] " + smtMemoFileHits);
+		}
 		if (csaEvalStats.size() > 0) {
 			out.println("--- CSA ---");
 			out.printf("[CSA EVAL TIME] %1.1fms%n", csaEvalStats.computeSum() / 1e6);
@@ -305,6 +376,11 @@ public final class Configuration {
 			out.println("[CSA CACHE HIT RATE] " + csaCacheHitRate.getStatsString());
 			out.println("[CSA CACHE USE RATE] " + csaCacheUseRate.getStatsString());
 			out.println("[CSA CACHE CLEARS] " + csaCacheClears.get());
+			if (smtCacheRetain > 0) {
+				out.println("[CSA CACHE RETAIN LIMIT] " + smtCacheRetain);
+				out.println("[CSA CACHE RETAINED PER CLEAR] " + csaCacheRetained.getStatsString());
+				out.println("[CSA CACHE RETAINED HITS] " + csaCacheRetainedHits.getStatsString());
+			}
 		}
 		if (pushPopEvalStats.size() > 0) {
 			out.println("--- PUSH POP ---");
@@ -331,9 +407,10 @@ public final class Configuration {
 		pushPopStackDelta.addDataPoint(pushes - pops);
 	}
 
-	public static void recordCsaCacheStats(int solverId, int hits, int misses, int oldSize) {
+	public static void recordCsaCacheStats(int solverId, int hits, int retainedHits, int misses, int oldSize) {
 		int numAsserts = hits + misses;
 		csaCacheHits.addDataPoint(hits);
+		csaCacheRetainedHits.addDataPoint(retainedHits);
 		csaCacheMisses.addDataPoint(misses);
 		csaCacheHitRate.addDataPoint(numAsserts == 0 ? 1 : (double) hits / numAsserts);
 		csaCacheUseRate.addDataPoint(oldSize == 0 ? 1 : (double) hits / oldSize);
@@ -347,8 +424,9 @@ public final class Configuration {
 		}
 	}
 
-	public static void recordCsaCacheClear(int solverId) {
+	public static void recordCsaCacheClear(int solverId, int retained) {
 		csaCacheClears.incrementAndGet();
+		csaCacheRetained.addDataPoint(retained);
 	}
 
 	public static void recordFuncTime(FunctionSymbol func, long time) {
@@ -494,6 +572,17 @@ public final class Configuration {
 		acc.add(s);
 	}
 
+	private static SmtResultCache.Policy getSmtMemoPolicy() {
+		String val = getStringProp("smtMemoPolicy", "lru");
+		switch (val) {
+		case "lru":
+			return SmtResultCache.Policy.LRU;
+		case "lfu":
+			return SmtResultCache.Policy.LFU;
+		}
+		throw new IllegalArgumentException("Unrecognized SMT memo eviction policy: " + val);
+	}
+
 	private static SmtStrategy getSmtStrategy() {
 		String val = System.getProperty("smtStrategy");
 		if (val == null) {
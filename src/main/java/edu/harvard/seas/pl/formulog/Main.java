@@ -22,9 +22,11 @@ package edu.harvard.seas.pl.formulog;
 
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -35,6 +37,8 @@ import edu.harvard.seas.pl.formulog.ast.BasicRule;
 import edu.harvard.seas.pl.formulog.ast.Program;
 import edu.harvard.seas.pl.formulog.ast.UserPredicate;
 import edu.harvard.seas.pl.formulog.codegen.CodeGen;
+import edu.harvard.seas.pl.formulog.db.FactDbSnapshot;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
 import edu.harvard.seas.pl.formulog.eval.Evaluation;
 import edu.harvard.seas.pl.formulog.eval.EvaluationException;
 import edu.harvard.seas.pl.formulog.eval.EvaluationResult;
@@ -65,7 +69,7 @@ public final class Main {
 	private void go() {
 		Program<UserPredicate, BasicRule> prog = parse();
 		WellTypedProgram typedProg = typeCheck(prog);
-		Evaluation eval = setup(typedProg);
+		SemiNaiveEvaluation eval = setup(typedProg);
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 
 			@Override
@@ -81,6 +85,9 @@ public final class Main {
 		evaluate(eval);
 		interrupted = false;
 		printResults(eval);
+		if (Configuration.dumpSnapshot != null) {
+			dumpSnapshot(eval);
+		}
 	}
 
 	private Program<UserPredicate, BasicRule> parse() {
@@ -124,12 +131,12 @@ public final class Main {
 		}
 	}
 
-	private Evaluation setup(WellTypedProgram prog) {
+	private SemiNaiveEvaluation setup(WellTypedProgram prog) {
 		System.out.println("Rewriting and validating...");
 		clock.reset();
 		clock.start();
 		try {
-			Evaluation eval = SemiNaiveEvaluation.setup(prog, Configuration.parallelism, Configuration.eagerSemiNaive);
+			SemiNaiveEvaluation eval = SemiNaiveEvaluation.setup(prog, Configuration.parallelism, Configuration.eagerSemiNaive);
 			clock.stop();
 			System.out.println("Finished rewriting and validating (" + clock.getTime() / 1000.0 + "s)");
 			return eval;
@@ -152,6 +159,26 @@ public final class Main {
 		}
 	}
 
+	private void dumpSnapshot(SemiNaiveEvaluation eval) {
+		System.out.println("Writing snapshot...");
+		clock.reset();
+		clock.start();
+		SortedIndexedFactDb db = eval.getDb();
+		List<RelationSymbol> syms = new ArrayList<>();
+		for (RelationSymbol sym : db.getSymbols()) {
+			if (Configuration.snapshotRelations.isEmpty() || Configuration.snapshotRelations.contains(sym.toString())) {
+				syms.add(sym);
+			}
+		}
+		try {
+			FactDbSnapshot.write(Paths.get(Configuration.dumpSnapshot), db, syms);
+			clock.stop();
+			System.out.println("Finished writing snapshot (" + clock.getTime() / 1000.0 + "s)");
+		} catch (IOException e) {
+			handleException("Error while writing snapshot!", e);
+		}
+	}
+
 	private void printResults(Evaluation eval) {
 		PrintStream out = System.out;
 		EvaluationResult res = eval.getResult();
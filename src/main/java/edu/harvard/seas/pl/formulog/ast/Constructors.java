@@ -58,7 +58,7 @@ public final class Constructors {
 		throw new AssertionError();
 	}
 
-	private static final Memoizer<Constructor> memo = new Memoizer<>();
+	private static final Memoizer<Constructor> memo = new Memoizer<>("constructors");
 
 	public static Constructor make(ConstructorSymbol sym, Term[] args) {
 		assert sym.getArity() == args.length : sym + " " + Arrays.toString(args);
@@ -263,11 +263,11 @@ public final class Constructors {
 		@Override
 		public void toSmtLib(SmtLibShim shim) {
 			shim.print("(let ((");
-			((SmtLibTerm) args[0]).toSmtLib(shim);
+			shim.print((SmtLibTerm) args[0]);
 			shim.print(" ");
-			((SmtLibTerm) args[1]).toSmtLib(shim);
+			shim.print((SmtLibTerm) args[1]);
 			shim.print(")) ");
-			((SmtLibTerm) args[2]).toSmtLib(shim);
+			shim.print((SmtLibTerm) args[2]);
 			shim.print(")");
 		}
 
@@ -334,7 +334,7 @@ public final class Constructors {
 			if (!pats.isEmpty()) {
 				shim.print("(! ");
 			}
-			((SmtLibTerm) args[1]).toSmtLib(shim);
+			shim.print((SmtLibTerm) args[1]);
 			if (!pats.isEmpty()) {
 				for (List<Term> pat : pats) {
 					shim.print(" :pattern (");
@@ -343,7 +343,7 @@ public final class Constructors {
 						shim.getTypeAnnotation(BuiltInConstructorSymbol.CONS);
 						Constructor wrappedPat = (Constructor) it.next();
 						SmtLibTerm t = (SmtLibTerm) wrappedPat.getArgs()[0];
-						t.toSmtLib(shim);
+						shim.print(t);
 						if (it.hasNext()) {
 							shim.print(" ");
 						}
@@ -621,7 +621,7 @@ public final class Constructors {
 				shim.print("((_ int2bv ");
 				int width = nat(sym.getArgs().get(0));
 				shim.print(width + ") ");
-				((SmtLibTerm) args[0]).toSmtLib(shim);
+				shim.print((SmtLibTerm) args[0]);
 				shim.print(")");
 			}
 		});
@@ -633,7 +633,7 @@ public final class Constructors {
 			public void toSmtLib(SmtLibShim shim) {
 				shim.print("((_ extract ");
 				shim.print(args[2] + " " + args[1] + ") ");
-				((SmtLibTerm) args[0]).toSmtLib(shim);
+				shim.print((SmtLibTerm) args[0]);
 				shim.print(")");
 			}
 		});
@@ -644,7 +644,7 @@ public final class Constructors {
 
 			@Override
 			public void toSmtLib(SmtLibShim shim) {
-				((SmtLibTerm) args[0]).toSmtLib(shim);
+				shim.print((SmtLibTerm) args[0]);
 			}
 
 		});
@@ -661,14 +661,14 @@ public final class Constructors {
 				if (idx1 < idx2) {
 					shim.print("(");
 					shim.print("(_ sign_extend " + (idx2 - idx1) + ") ");
-					t.toSmtLib(shim);
+					shim.print(t);
 					shim.print(")");
 				} else if (idx1 == idx2) {
-					t.toSmtLib(shim);
+					shim.print(t);
 				} else {
 					shim.print("(");
 					shim.print("(_ extract " + (idx2 - 1) + " 0) ");
-					t.toSmtLib(shim);
+					shim.print(t);
 					shim.print(")");
 				}
 			}
@@ -687,14 +687,14 @@ public final class Constructors {
 				if (idx1 < idx2) {
 					shim.print("(");
 					shim.print("(_ zero_extend " + (idx2 - idx1) + ") ");
-					t.toSmtLib(shim);
+					shim.print(t);
 					shim.print(")");
 				} else if (idx1 == idx2) {
-					t.toSmtLib(shim);
+					shim.print(t);
 				} else {
 					shim.print("(");
 					shim.print("(_ extract " + (idx2 - 1) + " 0) ");
-					t.toSmtLib(shim);
+					shim.print(t);
 					shim.print(")");
 				}
 			}
@@ -711,7 +711,7 @@ public final class Constructors {
 				int exponent = nat(sym, 1);
 				int significand = nat(sym, 2);
 				shim.print("((_ to_fp " + exponent + " " + significand + ") RNE ");
-				((SmtLibTerm) args[0]).toSmtLib(shim);
+				shim.print((SmtLibTerm) args[0]);
 				shim.print(")");
 			}
 
@@ -726,7 +726,7 @@ public final class Constructors {
 				int exponent = nat(sym, 2);
 				int significand = nat(sym, 3);
 				shim.print("((_ to_fp " + exponent + " " + significand + ") RNE ");
-				((SmtLibTerm) args[0]).toSmtLib(shim);
+				shim.print((SmtLibTerm) args[0]);
 				shim.print(")");
 			}
 
@@ -741,7 +741,7 @@ public final class Constructors {
 			public void toSmtLib(SmtLibShim shim) {
 				int width = nat(sym, 2);
 				shim.print("((_ " + s + " " + width + ") RNE ");
-				((SmtLibTerm) args[0]).toSmtLib(shim);
+				shim.print((SmtLibTerm) args[0]);
 				shim.print(")");
 			}
 
@@ -913,10 +913,6 @@ public final class Constructors {
 			shim.print(this);
 		}
 
-		public int getId() {
-			return id;
-		}
-
 		@Override
 		public String toString() {
 			if (Configuration.simplifyFormulaVars) {
@@ -944,7 +940,7 @@ public final class Constructors {
 				shim.print("(");
 				shim.print(s);
 				shim.print(" ");
-				((SmtLibTerm) args[0]).toSmtLib(shim);
+				shim.print((SmtLibTerm) args[0]);
 				shim.print(")");
 			}
 
@@ -960,7 +956,7 @@ public final class Constructors {
 				shim.print("(");
 				shim.print(s);
 				shim.print(" ");
-				((SmtLibTerm) args[0]).toSmtLib(shim);
+				shim.print((SmtLibTerm) args[0]);
 				shim.print(")");
 			}
 
@@ -1065,7 +1061,7 @@ public final class Constructors {
 		for (Term t : c.getArgs()) {
 			SmtLibTerm tt = (SmtLibTerm) t;
 			shim.print(" ");
-			tt.toSmtLib(shim);
+			shim.print(tt);
 		}
 		if (sym.getArity() > 0) {
 			shim.print(")");
@@ -23,9 +23,7 @@ package edu.harvard.seas.pl.formulog.ast;
 import java.util.Collections;
 
 
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.pcollections.PMap;
 
@@ -33,11 +31,11 @@ import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
 import edu.harvard.seas.pl.formulog.smt.SmtLibShim;
 import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
 import edu.harvard.seas.pl.formulog.types.Types.Type;
-import edu.harvard.seas.pl.formulog.util.Util;
+import edu.harvard.seas.pl.formulog.util.InternTable;
 
 public class FP32 extends AbstractTerm implements Primitive<Float>, SmtLibTerm {
 
-	private static final Map<Float, FP32> memo = new ConcurrentHashMap<>();
+	private static final InternTable<Float, FP32> memo = new InternTable<>("fp32");
 	private final float val;
 
 	private FP32(float val) {
@@ -45,7 +43,7 @@ public class FP32 extends AbstractTerm implements Primitive<Float>, SmtLibTerm {
 	}
 	
 	public static FP32 make(float val) {
-		return Util.lookupOrCreate(memo, val, () -> new FP32(val));
+		return memo.lookupOrCreate(val, () -> new FP32(val));
 	}
 
 	@Override
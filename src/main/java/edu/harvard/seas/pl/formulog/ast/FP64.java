@@ -23,9 +23,7 @@ package edu.harvard.seas.pl.formulog.ast;
 import java.util.Collections;
 
 
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.pcollections.PMap;
 
@@ -33,11 +31,11 @@ import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
 import edu.harvard.seas.pl.formulog.smt.SmtLibShim;
 import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
 import edu.harvard.seas.pl.formulog.types.Types.Type;
-import edu.harvard.seas.pl.formulog.util.Util;
+import edu.harvard.seas.pl.formulog.util.InternTable;
 
 public class FP64 extends AbstractTerm implements Primitive<Double>, SmtLibTerm {
 
-	private static final Map<Double, FP64> memo = new ConcurrentHashMap<>();
+	private static final InternTable<Double, FP64> memo = new InternTable<>("fp64");
 	private final double val;
 
 	private FP64(double val) {
@@ -45,7 +43,7 @@ public class FP64 extends AbstractTerm implements Primitive<Double>, SmtLibTerm
 	}
 	
 	public static FP64 make(double val) {
-		return Util.lookupOrCreate(memo, val, () -> new FP64(val));
+		return memo.lookupOrCreate(val, () -> new FP64(val));
 	}
 	
 	@Override
@@ -29,9 +29,12 @@ import edu.harvard.seas.pl.formulog.ast.Exprs.ExprVisitor;
 import edu.harvard.seas.pl.formulog.ast.Exprs.ExprVisitorExn;
 import edu.harvard.seas.pl.formulog.ast.FunctionCallFactory.FunctionCall;
 import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import edu.harvard.seas.pl.formulog.functions.AggregateFunctionDef;
+import edu.harvard.seas.pl.formulog.functions.DummyFunctionDef;
 import edu.harvard.seas.pl.formulog.functions.FunctionDef;
 import edu.harvard.seas.pl.formulog.symbols.BuiltInConstructorSymbol;
 import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
+import edu.harvard.seas.pl.formulog.symbols.PredicateFunctionSymbol;
 import edu.harvard.seas.pl.formulog.unification.Substitution;
 
 public class Fold implements Expr {
@@ -93,13 +96,22 @@ public class Fold implements Expr {
 	
 	@Override
 	public Term normalize(Substitution s) throws EvaluationException {
+		FunctionDef def = funCalls.getDefManager().lookup(f);
+		AggregateFunctionDef agg = getAggregate();
+		if (agg != null) {
+			Term[] aggArgs = ((FunctionCall) args[1]).getArgs();
+			Term[] newAggArgs = new Term[aggArgs.length];
+			for (int i = 0; i < aggArgs.length; ++i) {
+				newAggArgs[i] = aggArgs[i].normalize(s);
+			}
+			return agg.fold(def, args[0].normalize(s), newAggArgs);
+		}
 		Term[] newArgs = new Term[args.length];
 		for (int i = 0; i < args.length; ++i) {
 			newArgs[i] = args[i].normalize(s);
 		}
 		Term acc = newArgs[0];
 		Constructor list = (Constructor) newArgs[1];
-		FunctionDef def = funCalls.getDefManager().lookup(f);
 		while (list.getSymbol().equals(BuiltInConstructorSymbol.CONS)) {
 			Term[] consCell = list.getArgs();
 			Term head = consCell[0];
@@ -111,6 +123,24 @@ public class Fold implements Expr {
 		return acc;
 	}
 
+	private AggregateFunctionDef getAggregate() {
+		if (!(args[1] instanceof FunctionCall)) {
+			return null;
+		}
+		FunctionSymbol sym = ((FunctionCall) args[1]).getSymbol();
+		if (!(sym instanceof PredicateFunctionSymbol)) {
+			return null;
+		}
+		FunctionDef def = funCalls.getDefManager().lookup(sym);
+		if (def instanceof DummyFunctionDef) {
+			Object inner = ((DummyFunctionDef) def).getDef();
+			if (inner instanceof AggregateFunctionDef) {
+				return (AggregateFunctionDef) inner;
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public void varSet(Set<Var> acc) {
 		for (Term arg : args) {
@@ -43,12 +43,31 @@ import edu.harvard.seas.pl.formulog.util.Util;
 public final class FunctionCallFactory {
 
 	private final FunctionDefManager defManager;
-	private final Memoizer<FunctionCall> memo = new Memoizer<>();
+	private final Memoizer<FunctionCall> memo = new Memoizer<>("function calls");
 
 	private static final AtomicInteger cnt = new AtomicInteger();
 	private static final boolean debug = System.getProperty("callTrace") != null;
 	private static final int memoizeThreshold = Configuration.memoizeThreshold();
 
+	/**
+	 * Whether results of calls to the given function should never be memoized.
+	 */
+	public static boolean hasSideEffects(FunctionSymbol sym) {
+		// XXX This is rough, since it doesn't take into account the call
+		// graph (i.e., A could call B which is side effecting, but this
+		// would say that A is not).
+		return sym.equals(BuiltInFunctionSymbol.PRINT);
+	}
+
+	/**
+	 * Whether calls to the given function have to go through
+	 * {@link FunctionCall#evaluate} (which memoizes them, traces them, and records
+	 * their running times) instead of being made directly.
+	 */
+	public static boolean isInterceptingCalls(FunctionSymbol sym) {
+		return debug || Configuration.recordFuncDiagnostics || (memoizeThreshold > -1 && !hasSideEffects(sym));
+	}
+
 	private final Map<Symbol, Map<List<Term>, Term>> callMemo = new ConcurrentHashMap<>();
 
 	public FunctionCallFactory(FunctionDefManager defManager) {
@@ -128,11 +147,18 @@ public final class FunctionCallFactory {
 
 		@Override
 		public Term normalize(Substitution s) throws EvaluationException {
-			Integer id = null;
 			Term[] newArgs = new Term[args.length];
 			for (int i = 0; i < args.length; ++i) {
 				newArgs[i] = args[i].normalize(s);
 			}
+			return evaluate(newArgs);
+		}
+
+		/**
+		 * Calls the function on the given (normalized) arguments.
+		 */
+		public Term evaluate(Term[] newArgs) throws EvaluationException {
+			Integer id = null;
 			if (debug) {
 				id = cnt.getAndIncrement();
 				String msg = "BEGIN CALL #" + id + "\n";
@@ -159,10 +185,7 @@ public final class FunctionCallFactory {
 		}
 		
 		private boolean hasSideEffects() {
-			// XXX This is rough, since it doesn't take into account the call
-			// graph (i.e., A could call B which is side effecting, but this
-			// would say that A is not).
-			return sym.equals(BuiltInFunctionSymbol.PRINT);
+			return FunctionCallFactory.hasSideEffects(sym);
 		}
 
 		private Term computeWithMemoization(Term[] newArgs) throws EvaluationException {
@@ -23,9 +23,7 @@ package edu.harvard.seas.pl.formulog.ast;
 import java.util.Collections;
 
 
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.pcollections.PMap;
 
@@ -33,11 +31,11 @@ import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
 import edu.harvard.seas.pl.formulog.smt.SmtLibShim;
 import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
 import edu.harvard.seas.pl.formulog.types.Types.Type;
-import edu.harvard.seas.pl.formulog.util.Util;
+import edu.harvard.seas.pl.formulog.util.InternTable;
 
 public class I32 extends AbstractTerm implements Primitive<Integer>, SmtLibTerm {
 
-	private static final Map<Integer, I32> memo = new ConcurrentHashMap<>();
+	private static final InternTable<Integer, I32> memo = new InternTable<>("i32");
 	private final int val;
 	
 	private I32(int val) {
@@ -45,7 +43,7 @@ public class I32 extends AbstractTerm implements Primitive<Integer>, SmtLibTerm
 	}
 	
 	public static I32 make(int val) {
-		return Util.lookupOrCreate(memo, val, () -> new I32(val));
+		return memo.lookupOrCreate(val, () -> new I32(val));
 	}
 
 	@Override
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -41,14 +42,20 @@ public class MatchExpr extends AbstractTerm implements Expr, Iterable<MatchClaus
 	private final Term matchee;
 	private final List<MatchClause> match;
 	private final boolean isGround;
+	private final ClauseSwitch clauseSwitch;
 
 	public static MatchExpr make(Term matchee, List<MatchClause> match) {
 		return new MatchExpr(matchee, match);
 	}
 
 	MatchExpr(Term matchee, List<MatchClause> match) {
+		this(matchee, match, ClauseSwitch.make(match));
+	}
+
+	private MatchExpr(Term matchee, List<MatchClause> match, ClauseSwitch clauseSwitch) {
 		this.matchee = matchee;
 		this.match = match;
+		this.clauseSwitch = clauseSwitch;
 		boolean isGround = matchee.isGround();
 		if (isGround) {
 			for (MatchClause cl : match) {
@@ -79,20 +86,27 @@ public class MatchExpr extends AbstractTerm implements Expr, Iterable<MatchClaus
 	@Override
 	public Term normalize(Substitution s) throws EvaluationException {
 		Term e = matchee.normalize(s);
-		for (MatchClause m : match) {
+		for (int i : clauseSwitch.getCandidates(e)) {
+			MatchClause m = match.get(i);
 			if (m.tryMatch(e, s)) {
 				return m.getRhs().normalize(s);
 			}
 		}
+		throw noMatch(matchee, e);
+	}
+
+	/**
+	 * Returns the exception raised when no clause matches <code>e</code>, the
+	 * value of the given matchee.
+	 */
+	public static EvaluationException noMatch(Term matchee, Term e) {
 		if (e instanceof Constructor) {
-			throw new EvaluationException("No matching pattern for " + matchee
+			return new EvaluationException("No matching pattern for " + matchee
 					+ " which normalizes to a complex term with outermost constructor "
 					+ ((Constructor) e).getSymbol());
 		} else {
-			throw new EvaluationException("No matching pattern for " + matchee + " which normalizes to the term " + e);
+			return new EvaluationException("No matching pattern for " + matchee + " which normalizes to the term " + e);
 		}
-		// throw new EvaluationException("No matching pattern for " + e + " under
-		// substitution " + s);
 	}
 
 	@Override
@@ -119,7 +133,8 @@ public class MatchExpr extends AbstractTerm implements Expr, Iterable<MatchClaus
 			Term newRhs = cl.getRhs().applySubstitution(newS);
 			clauses.add(new MatchClause(pat, newRhs));
 		}
-		return make(newMatchee, clauses);
+		// Substitution leaves patterns alone, so the clause switch can be shared.
+		return new MatchExpr(newMatchee, clauses, clauseSwitch);
 	}
 
 	@Override
@@ -185,6 +200,66 @@ public class MatchExpr extends AbstractTerm implements Expr, Iterable<MatchClaus
 		return match.iterator();
 	}
 
+	/**
+	 * Maps the outermost constructor symbol (or the primitive value) of a term to
+	 * the clauses, in order, whose patterns might match the term, so that a match
+	 * on a wide algebraic data type does not try every clause in turn.
+	 */
+	private static class ClauseSwitch {
+
+		private final Map<Object, int[]> cases;
+		private final int[] fallback;
+
+		private ClauseSwitch(Map<Object, int[]> cases, int[] fallback) {
+			this.cases = cases;
+			this.fallback = fallback;
+		}
+
+		public static ClauseSwitch make(List<MatchClause> clauses) {
+			Map<Object, List<Integer>> m = new LinkedHashMap<>();
+			List<Integer> vars = new ArrayList<>();
+			int i = 0;
+			for (MatchClause cl : clauses) {
+				Term pat = cl.getLhs();
+				if (pat instanceof Var) {
+					for (List<Integer> l : m.values()) {
+						l.add(i);
+					}
+					vars.add(i);
+				} else {
+					Util.lookupOrCreate(m, key(pat), () -> new ArrayList<>(vars)).add(i);
+				}
+				i++;
+			}
+			Map<Object, int[]> cases = new HashMap<>();
+			for (Map.Entry<Object, List<Integer>> e : m.entrySet()) {
+				cases.put(e.getKey(), toArray(e.getValue()));
+			}
+			return new ClauseSwitch(cases, toArray(vars));
+		}
+
+		private static Object key(Term t) {
+			if (t instanceof Constructor) {
+				return ((Constructor) t).getSymbol();
+			}
+			return t;
+		}
+
+		private static int[] toArray(List<Integer> l) {
+			int[] a = new int[l.size()];
+			for (int i = 0; i < a.length; ++i) {
+				a[i] = l.get(i);
+			}
+			return a;
+		}
+
+		public int[] getCandidates(Term t) {
+			int[] candidates = cases.get(key(t));
+			return candidates == null ? fallback : candidates;
+		}
+
+	}
+
 	@Override
 	public void updateVarCounts(Map<Var, Integer> counts) {
 		matchee.updateVarCounts(counts);
@@ -0,0 +1,70 @@
+package edu.harvard.seas.pl.formulog.ast;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import edu.harvard.seas.pl.formulog.unification.ArraySubstitution;
+import edu.harvard.seas.pl.formulog.unification.Substitution;
+
+/**
+ * A variable that has been assigned a fixed slot within a rule, so that its
+ * binding can be stored in (and read from) an {@link ArraySubstitution} without
+ * hashing.
+ */
+public class SlotVar extends Var {
+
+	private final int slot;
+
+	private SlotVar(String name, int slot) {
+		super(name);
+		this.slot = slot;
+	}
+
+	public static SlotVar make(Var x, int slot) {
+		return new SlotVar(x.getName(), slot);
+	}
+
+	public int getSlot() {
+		return slot;
+	}
+
+	@Override
+	public Term applySubstitution(Substitution s) {
+		if (s instanceof ArraySubstitution) {
+			Term t = ((ArraySubstitution) s).get(slot);
+			return t == null ? this : t;
+		}
+		return super.applySubstitution(s);
+	}
+
+	@Override
+	public Term normalize(Substitution s) throws EvaluationException {
+		if (s instanceof ArraySubstitution) {
+			Term t = ((ArraySubstitution) s).get(slot);
+			if (t == null) {
+				throw new EvaluationException("No binding for " + this);
+			}
+			return t;
+		}
+		return super.normalize(s);
+	}
+
+}
@@ -23,9 +23,7 @@ package edu.harvard.seas.pl.formulog.ast;
 import java.util.Collections;
 
 
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.pcollections.PMap;
 
@@ -33,11 +31,11 @@ import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
 import edu.harvard.seas.pl.formulog.smt.SmtLibShim;
 import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
 import edu.harvard.seas.pl.formulog.types.Types.Type;
-import edu.harvard.seas.pl.formulog.util.Util;
+import edu.harvard.seas.pl.formulog.util.InternTable;
 
 public class StringTerm extends AbstractTerm implements Primitive<String>, SmtLibTerm {
 
-	private static final Map<String, StringTerm> memo = new ConcurrentHashMap<>();
+	private static final InternTable<String, StringTerm> memo = new InternTable<>("strings");
 	private final String val;
 	
 	private StringTerm(String val) {
@@ -45,7 +43,7 @@ public class StringTerm extends AbstractTerm implements Primitive<String>, SmtLi
 	}
 	
 	public static StringTerm make(String val) {
-		return Util.lookupOrCreate(memo, val, () -> new StringTerm(val));
+		return memo.lookupOrCreate(val, () -> new StringTerm(val));
 	}
 
 	@Override
@@ -118,7 +118,7 @@ public class BTreeRelationStruct implements RelationStruct {
 	private void declarePrint(PrintWriter out) {
 		out.println("  void print() const {");
 		CppVar m = CppVar.mk(mkIndexName(masterIndex));
-		CppMethodCall.mk(m, "printTree").toStmt().println(out, 2);
+		CppFuncCall.mk("printSorted", m).toStmt().println(out, 2);
 		out.println("  }");
 	}
 
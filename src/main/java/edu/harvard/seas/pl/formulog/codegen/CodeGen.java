@@ -37,6 +37,7 @@ import edu.harvard.seas.pl.formulog.ast.Program;
 import edu.harvard.seas.pl.formulog.ast.UserPredicate;
 import edu.harvard.seas.pl.formulog.eval.SemiNaiveEvaluation;
 import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
 import edu.harvard.seas.pl.formulog.types.TypeChecker;
 import edu.harvard.seas.pl.formulog.types.WellTypedProgram;
 import edu.harvard.seas.pl.formulog.util.Util;
@@ -56,6 +57,12 @@ public class CodeGen {
 			throw new UnsupportedOperationException(
 					"We do not currently support code gen and optimal index selection (use flag -DminIndex=false).");
 		}
+		for (RelationSymbol sym : eval.getDb().getSymbols()) {
+			if (sym.getLattice() != null) {
+				throw new UnsupportedOperationException(
+						"We do not currently support code gen for lattice relations: " + sym);
+			}
+		}
 		copy("Term.hpp");
 		copy("FactParser.hpp");
 		copy("parsing.zip");
@@ -143,14 +143,14 @@ public class LiteralCodeGen {
 			Term rhs = check.getRhs();
 			Pair<CppStmt, CppExpr> p1 = tcg.gen(lhs, env);
 			Pair<CppStmt, CppExpr> p2 = tcg.gen(rhs, env);
-			CppExpr term1 = CppMethodCall.mk(p1.snd(), "get");
-			CppExpr term2 = CppMethodCall.mk(p2.snd(), "get");
-			CppExpr guard = CppFuncCall.mk("Term::compare", term1, term2);
-			if (!check.isNegated()) {
-				guard = CppUnop.mkNot(guard);
+			// Terms are hash-consed, so they are equal iff they are the same object.
+			CppExpr guard;
+			if (check.isNegated()) {
+				guard = CppBinop.mkNotEq(p1.snd(), p2.snd());
+			} else {
+				guard = CppBinop.mkEq(p1.snd(), p2.snd());
 			}
-			final CppExpr guard2 = guard;
-			return s -> CppSeq.mk(p1.fst(), p2.fst(), CppIf.mk(guard2, s));
+			return s -> CppSeq.mk(p1.fst(), p2.fst(), CppIf.mk(guard, s));
 		}
 
 		private Function<CppStmt, CppStmt> handleDestructor(Destructor destructor) {
@@ -27,13 +27,31 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import edu.harvard.seas.pl.formulog.ast.BoolTerm;
+import edu.harvard.seas.pl.formulog.ast.Constructor;
+import edu.harvard.seas.pl.formulog.ast.FP32;
+import edu.harvard.seas.pl.formulog.ast.FP64;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.I64;
+import edu.harvard.seas.pl.formulog.ast.StringTerm;
 import edu.harvard.seas.pl.formulog.ast.Term;
 import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
+import edu.harvard.seas.pl.formulog.symbols.BuiltInConstructorSymbol;
+import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbol;
+import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbolType;
+import edu.harvard.seas.pl.formulog.symbols.GlobalSymbolManager.TupleSymbol;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.ParameterizedSymbol;
+import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
+import edu.harvard.seas.pl.formulog.types.Types.Type;
 import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
 import edu.harvard.seas.pl.formulog.util.Pair;
 import edu.harvard.seas.pl.formulog.validating.Stratum;
@@ -53,16 +71,18 @@ public class MainCpp {
 				InputStreamReader isr = new InputStreamReader(is);
 				BufferedReader br = new BufferedReader(isr);
 				PrintWriter out = new PrintWriter(outDir.toPath().resolve("main.cpp").toFile())) {
-			Worker pr = new Worker(out);
+			Worker pr = new Worker(out, outDir.toPath().resolve("facts").toFile());
 			CodeGenUtil.copyOver(br, out, 0);
 			pr.loadExternalEdbs();
 			CodeGenUtil.copyOver(br, out, 1);
-			pr.loadEdbs();
+			pr.loadProgramEdbs();
 			CodeGenUtil.copyOver(br, out, 2);
-			pr.printStratumFuncs();
+			pr.loadEdbs();
 			CodeGenUtil.copyOver(br, out, 3);
-			pr.evaluate();
+			pr.printStratumFuncs();
 			CodeGenUtil.copyOver(br, out, 4);
+			pr.evaluate();
+			CodeGenUtil.copyOver(br, out, 5);
 			pr.printResults();
 			CodeGenUtil.copyOver(br, out, -1);
 			out.flush();
@@ -73,9 +93,14 @@ public class MainCpp {
 
 		private final SortedIndexedFactDb db = ctx.getEval().getDb();
 		private final PrintWriter out;
+		private final File factDir;
+		// Facts that cannot be written to a fact file, and so are compiled into
+		// the program instead.
+		private final Map<RelationSymbol, List<Term[]>> inlineFacts = new HashMap<>();
 
-		public Worker(PrintWriter out) {
+		public Worker(PrintWriter out, File factDir) {
 			this.out = out;
+			this.factDir = factDir;
 		}
 
 		public void loadExternalEdbs() {
@@ -88,12 +113,179 @@ public class MainCpp {
 		
 		public void loadExternalEdbs(RelationSymbol sym) {
 			Relation rel = ctx.lookupRelation(sym);
-			String func = "loadEdbs<" + rel.getStruct().getName() + ">";
-			CppExpr file = CppConst.mkString(sym + ".csv");
-			CppExpr call = CppFuncCall.mk(func, CppVar.mk("dir"), file, CppUnop.mkDeref(rel));
+			String func = mkLoadFunc(sym, rel);
+			CppExpr file = CppConst.mkString(sym + ".tsv");
+			CppExpr call = CppFuncCall.mk(func, CppVar.mk("dir"), file, CppUnop.mkDeref(rel), CppConst.mkFalse());
 			call.toStmt().println(out, 1);
 		}
 		
+		/**
+		 * Returns the function that loads a fact file into the relation, specialized
+		 * to the kinds of its columns.
+		 */
+		private String mkLoadFunc(RelationSymbol sym, Relation rel) {
+			StringBuilder sb = new StringBuilder("loadEdbs<" + rel.getStruct().getName());
+			for (Type ty : sym.getCompileTimeType().getArgTypes()) {
+				sb.append(", FactColumn::").append(getFactColumn(ty));
+			}
+			return sb.append(">").toString();
+		}
+
+		private String getFactColumn(Type ty) {
+			if (ty.equals(BuiltInTypes.i32)) {
+				return "i32";
+			} else if (ty.equals(BuiltInTypes.i64)) {
+				return "i64";
+			} else if (ty.equals(BuiltInTypes.fp32)) {
+				return "fp32";
+			} else if (ty.equals(BuiltInTypes.fp64)) {
+				return "fp64";
+			} else if (ty.equals(BuiltInTypes.bool)) {
+				return "boolean";
+			} else if (ty.equals(BuiltInTypes.string)) {
+				return "string";
+			}
+			return "term";
+		}
+
+		/**
+		 * Writes the facts given in the program to files (in the format of external
+		 * EDBs) that are loaded at startup, so that the size of the generated code
+		 * does not depend on the number of facts.
+		 */
+		public void loadProgramEdbs() throws IOException {
+			factDir.mkdirs();
+			for (RelationSymbol sym : db.getSymbols()) {
+				if (sym.isEdbSymbol()) {
+					loadProgramEdb(sym);
+				}
+			}
+		}
+
+		private void loadProgramEdb(RelationSymbol sym) throws IOException {
+			List<Term[]> inline = new ArrayList<>();
+			List<String> lines = new ArrayList<>();
+			StringBuilder sb = new StringBuilder();
+			for (Term[] tup : db.getAll(sym)) {
+				sb.setLength(0);
+				// A fact of a nullary relation would be an empty line.
+				if (sym.getArity() > 0 && writeTuple(tup, sb)) {
+					lines.add(sb.toString());
+				} else {
+					inline.add(tup);
+				}
+			}
+			inlineFacts.put(sym, inline);
+			if (!lines.isEmpty()) {
+				String file = sym + ".tsv";
+				Files.write(factDir.toPath().resolve(file), lines);
+				Relation rel = ctx.lookupRelation(sym);
+				String func = mkLoadFunc(sym, rel);
+				CppExpr call = CppFuncCall.mk(func, CppVar.mk("dir"), CppConst.mkString(file), CppUnop.mkDeref(rel),
+						CppConst.mkTrue());
+				call.toStmt().println(out, 1);
+			}
+		}
+
+		private boolean writeTuple(Term[] tup, StringBuilder sb) {
+			for (int i = 0; i < tup.length; ++i) {
+				if (i > 0) {
+					sb.append('\t');
+				}
+				if (!writeTerm(tup[i], sb)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Writes a term in the syntax understood by the fact parser of the runtime,
+		 * returning false if that is not possible (e.g., for formulas).
+		 */
+		private boolean writeTerm(Term t, StringBuilder sb) {
+			if (t instanceof I32 || t instanceof BoolTerm) {
+				sb.append(t);
+			} else if (t instanceof I64) {
+				sb.append(((I64) t).getVal()).append('L');
+			} else if (t instanceof FP32) {
+				float f = ((FP32) t).getVal();
+				if (Float.isNaN(f)) {
+					sb.append("fp32_nan");
+				} else if (Float.isInfinite(f)) {
+					sb.append(f > 0 ? "fp32_pos_infinity" : "fp32_neg_infinity");
+				} else {
+					sb.append(f).append('F');
+				}
+			} else if (t instanceof FP64) {
+				double d = ((FP64) t).getVal();
+				if (Double.isNaN(d)) {
+					sb.append("fp64_nan");
+				} else if (Double.isInfinite(d)) {
+					sb.append(d > 0 ? "fp64_pos_infinity" : "fp64_neg_infinity");
+				} else {
+					sb.append(d);
+				}
+			} else if (t instanceof StringTerm) {
+				// The fact parser does not unescape strings.
+				String s = ((StringTerm) t).getVal();
+				for (int i = 0; i < s.length(); ++i) {
+					char c = s.charAt(i);
+					if (c < ' ' || c > '~' || c == '"' || c == '\\') {
+						return false;
+					}
+				}
+				sb.append('"').append(s).append('"');
+			} else if (t instanceof Constructor) {
+				return writeConstructor((Constructor) t, sb);
+			} else {
+				return false;
+			}
+			return true;
+		}
+
+		private boolean writeConstructor(Constructor c, StringBuilder sb) {
+			ConstructorSymbol sym = c.getSymbol();
+			Term[] args = c.getArgs();
+			if (sym.equals(BuiltInConstructorSymbol.NIL) || sym.equals(BuiltInConstructorSymbol.CONS)) {
+				sb.append('[');
+				while (c.getSymbol().equals(BuiltInConstructorSymbol.CONS)) {
+					if (!writeTerm(c.getArgs()[0], sb)) {
+						return false;
+					}
+					c = (Constructor) c.getArgs()[1];
+					if (c.getSymbol().equals(BuiltInConstructorSymbol.CONS)) {
+						sb.append(", ");
+					}
+				}
+				sb.append(']');
+				return true;
+			}
+			if (!(sym instanceof TupleSymbol)) {
+				if (sym instanceof ParameterizedSymbol
+						|| !sym.getConstructorSymbolType().equals(ConstructorSymbolType.VANILLA_CONSTRUCTOR)
+						|| !sym.toString().matches("[a-z][a-zA-Z0-9_]*")) {
+					return false;
+				}
+				sb.append(sym);
+			}
+			// Make sure that the runtime can look up the symbol.
+			ctx.lookupRepr(sym);
+			if (args.length > 0) {
+				sb.append('(');
+				for (int i = 0; i < args.length; ++i) {
+					if (i > 0) {
+						sb.append(", ");
+					}
+					if (!writeTerm(args[i], sb)) {
+						return false;
+					}
+				}
+				sb.append(')');
+			}
+			return true;
+		}
+
 		public void loadEdbs() {
 			for (RelationSymbol sym : db.getSymbols()) {
 				if (sym.isEdbSymbol()) {
@@ -107,7 +299,7 @@ public class MainCpp {
 
 		public void loadEdb(RelationSymbol sym) {
 			Relation rel = ctx.lookupRelation(sym);
-			for (Term[] tup : db.getAll(sym)) {
+			for (Term[] tup : inlineFacts.get(sym)) {
 				Pair<CppStmt, List<CppExpr>> p = tcg.gen(Arrays.asList(tup), Collections.emptyMap());
 				p.fst().println(out, 1);
 				rel.mkInsert(rel.mkTuple(p.snd()), false).toStmt().println(out, 1);
@@ -126,6 +318,20 @@ public class MainCpp {
 		}
 
 		public void printStratumFunc(Stratum stratum, StratumCodeGen sgc) {
+			List<CppStmt> rules = sgc.genLaterRoundRules(stratum);
+			if (!rules.isEmpty()) {
+				out.println("void " + StratumCodeGen.mkRuleFuncName(stratum) + "(size_t rule) {");
+				out.println("  switch (rule) {");
+				for (int i = 0; i < rules.size(); ++i) {
+					out.println("  case " + i + ": {");
+					rules.get(i).println(out, 2);
+					out.println("    break;");
+					out.println("  }");
+				}
+				out.println("  }");
+				out.println("}");
+				out.println();
+			}
 			out.println("void stratum_" + stratum.getRank() + "() {");
 			sgc.gen(stratum).println(out, 1);
 			out.println("}");
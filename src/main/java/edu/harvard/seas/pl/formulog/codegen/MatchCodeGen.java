@@ -225,9 +225,7 @@ public class MatchCodeGen {
 					@Override
 					public CppStmt visit(PrimEdge e, Void in) {
 						Pair<CppStmt, CppExpr> p = tcg.gen(e.getLabel(), env);
-						CppExpr lhs = CppMethodCall.mk(expr, "get");
-						CppExpr rhs = CppMethodCall.mk(p.snd(), "get");
-						CppExpr guard = CppUnop.mkNot(CppFuncCall.mk("Term::compare", lhs, rhs));
+						CppExpr guard = CppBinop.mkEq(expr, p.snd());
 						CppStmt body = go(dest);
 						return CppSeq.mk(p.fst(), CppIf.mk(guard, body));
 					}
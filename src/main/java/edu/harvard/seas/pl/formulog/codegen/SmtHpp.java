@@ -33,6 +33,7 @@ import java.util.Set;
 import edu.harvard.seas.pl.formulog.Configuration;
 import edu.harvard.seas.pl.formulog.eval.EvaluationException;
 import edu.harvard.seas.pl.formulog.smt.SmtLibShim;
+import edu.harvard.seas.pl.formulog.smt.SmtStrategy;
 import edu.harvard.seas.pl.formulog.symbols.BuiltInConstructorSymbol;
 import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbol;
 import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbolType;
@@ -57,12 +58,14 @@ public class SmtHpp {
 			CodeGenUtil.copyOver(br, out, 0);
 			pr.copyDeclarations();
 			CodeGenUtil.copyOver(br, out, 1);
-			pr.genSolverVarCases();
+			pr.genSettings();
 			CodeGenUtil.copyOver(br, out, 2);
-			pr.genSerializationCases();
+			pr.genSolverVarCases();
 			CodeGenUtil.copyOver(br, out, 3);
-			pr.genNeedsTypeAnnotationCases();
+			pr.genSerializationCases();
 			CodeGenUtil.copyOver(br, out, 4);
+			pr.genNeedsTypeAnnotationCases();
+			CodeGenUtil.copyOver(br, out, 5);
 			pr.genSymbolSerializationCases();
 			CodeGenUtil.copyOver(br, out, -1);
 			out.flush();
@@ -99,6 +102,19 @@ public class SmtHpp {
 			}
 		}
 
+		/**
+		 * The generated code mirrors the SMT settings of the interpreter: it uses
+		 * check-sat-assuming for the strategies whose solvers do, and memoizes
+		 * results if smtMemoize is set.
+		 */
+		public void genSettings() {
+			SmtStrategy.Tag tag = Configuration.smtStrategy.getTag();
+			boolean csa = tag.equals(SmtStrategy.Tag.QUEUE) || tag.equals(SmtStrategy.Tag.PER_THREAD_QUEUE);
+			out.println("const bool smt_check_sat_assuming = " + csa + ";");
+			out.println("const size_t smt_cache_size = " + Configuration.smtCacheSize + ";");
+			out.println("const bool smt_memoize = " + Configuration.smtMemoize + ";");
+		}
+
 		public void genSolverVarCases() {
 			if (varSymbols.isEmpty()) {
 				return;
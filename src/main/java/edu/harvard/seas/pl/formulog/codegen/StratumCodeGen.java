@@ -40,29 +40,56 @@ public class StratumCodeGen {
 		this.ctx = ctx;
 	}
 
+	public static String mkRuleFuncName(Stratum stratum) {
+		return "stratum_" + stratum.getRank() + "_rule";
+	}
+
 	public CppStmt gen(Stratum stratum) {
 		List<CppStmt> stmts = new ArrayList<>();
 		stmts.add(CppDecl.mk("changed", CppConst.mkFalse()));
 		RuleCodeGen rcg = new RuleCodeGen(ctx);
 		List<IndexedRule> firstRoundRules = new ArrayList<>();
-		List<IndexedRule> laterRoundRules = new ArrayList<>();
 		for (RelationSymbol sym : stratum.getPredicateSyms()) {
 			for (IndexedRule r : ctx.getEval().getRules(sym)) {
-				if (EvalUtil.findDelta(r) != null) {
-					laterRoundRules.add(r);
-				} else {
+				if (EvalUtil.findDelta(r) == null) {
 					firstRoundRules.add(r);
 				}
 			}
 		}
 		stmts.add(genFirstRound(stratum, firstRoundRules, rcg));
-		stmts.add(genLoop(stratum, laterRoundRules, rcg));
+		stmts.add(genLoop(stratum));
 		return CppSeq.mk(stmts);
 	}
 
+	/**
+	 * Generates the code for each rule evaluated after the first round; the
+	 * i-th statement is run when the function named by
+	 * {@link #mkRuleFuncName(Stratum)} is called with i.
+	 */
+	public List<CppStmt> genLaterRoundRules(Stratum stratum) {
+		RuleCodeGen rcg = new RuleCodeGen(ctx);
+		List<CppStmt> stmts = new ArrayList<>();
+		for (IndexedRule r : getLaterRoundRules(stratum)) {
+			stmts.add(rcg.gen(r, false).fst());
+		}
+		return stmts;
+	}
+
+	private List<IndexedRule> getLaterRoundRules(Stratum stratum) {
+		List<IndexedRule> rules = new ArrayList<>();
+		for (RelationSymbol sym : stratum.getPredicateSyms()) {
+			for (IndexedRule r : ctx.getEval().getRules(sym)) {
+				if (EvalUtil.findDelta(r) != null) {
+					rules.add(r);
+				}
+			}
+		}
+		return rules;
+	}
+
 	private CppStmt genFirstRound(Stratum stratum, Iterable<IndexedRule> rules, RuleCodeGen rcg) {
 		List<CppStmt> stmts = new ArrayList<>();
-		stmts.add(genRules(rules, rcg, true));
+		stmts.add(genRules(rules, rcg));
 		for (RelationSymbol sym : stratum.getPredicateSyms()) {
 			Relation rel = ctx.lookupRelation(sym);
 			Relation delta = ctx.lookupRelation(new DeltaSymbol(sym));
@@ -71,37 +98,68 @@ public class StratumCodeGen {
 		return CppSeq.mk(stmts);
 	}
 
-	private CppStmt genRules(Iterable<IndexedRule> rules, RuleCodeGen rcg, boolean isFirstRound) {
+	private CppStmt genRules(Iterable<IndexedRule> rules, RuleCodeGen rcg) {
 		List<CppStmt> stmts = new ArrayList<>();
 		for (IndexedRule r : rules) {
-			stmts.add(genRule(r, rcg, isFirstRound));
+			Pair<CppStmt, CppExpr> p = rcg.gen(r, true);
+			stmts.add(CppSeq.mk(p.fst(), CppBinop.mkOrUpdate(changed, p.snd()).toStmt()));
 		}
 		return CppSeq.mk(stmts);
 	}
 
-	private CppStmt genRule(IndexedRule r, RuleCodeGen rcg, boolean firstRound) {
-		Pair<CppStmt, CppExpr> p = rcg.gen(r, firstRound);
-		return CppSeq.mk(p.fst(), CppBinop.mkOrUpdate(changed, p.snd()).toStmt());
-	}
-
-	private CppStmt genLoop(Stratum stratum, Iterable<IndexedRule> rules, RuleCodeGen rcg) {
+	private CppStmt genLoop(Stratum stratum) {
 		CppStmt setFalse = CppBinop.mkAssign(changed, CppConst.mkFalse()).toStmt();
-		CppStmt evalCode = genRules(rules, rcg, false);
+		CppStmt evalCode = genEvalCode(stratum);
+		List<CppStmt> checks = new ArrayList<>();
+		for (RelationSymbol sym : stratum.getPredicateSyms()) {
+			Relation newRel = ctx.lookupRelation(new NewSymbol(sym));
+			checks.add(CppBinop.mkOrUpdate(changed, CppUnop.mkNot(newRel.mkIsEmpty())).toStmt());
+		}
 		CppStmt updateCode = genUpdateCode(stratum);
-		return CppWhile.mk(changed, CppSeq.mk(setFalse, evalCode, updateCode));
+		return CppWhile.mk(changed, CppSeq.mk(setFalse, evalCode, CppSeq.mk(checks), updateCode));
 	}
 
+	/*
+	 * The rules are dispatched by the runtime, which orders them by the size of
+	 * their delta relation and skips those whose delta is empty.
+	 */
+	private CppStmt genEvalCode(Stratum stratum) {
+		List<IndexedRule> rules = getLaterRoundRules(stratum);
+		if (rules.isEmpty()) {
+			return CppSeq.skip();
+		}
+		List<CppExpr> args = new ArrayList<>();
+		args.add(CppVar.mk(mkRuleFuncName(stratum)));
+		for (IndexedRule r : rules) {
+			Relation delta = ctx.lookupRelation(new DeltaSymbol(EvalUtil.findDelta(r)));
+			args.add(delta.mkSize());
+		}
+		return CppFuncCall.mk("evalRules", args).toStmt();
+	}
+
+	/*
+	 * The relations of a stratum are updated independently of each other, so
+	 * each update is run as its own task.
+	 */
 	private CppStmt genUpdateCode(Stratum stratum) {
-		List<CppStmt> stmts = new ArrayList<>();
+		List<CppStmt> updates = new ArrayList<>();
 		for (RelationSymbol sym : stratum.getPredicateSyms()) {
 			Relation rel = ctx.lookupRelation(sym);
 			Relation delta = ctx.lookupRelation(new DeltaSymbol(sym));
 			Relation newRel = ctx.lookupRelation(new NewSymbol(sym));
-			stmts.add(rel.mkInsertAll(CppUnop.mkDeref(newRel)).toStmt());
-			stmts.add(delta.mkPurge());
-			stmts.add(CppFuncCall.mk("swap", delta, newRel).toStmt());
+			CppStmt insertAll = rel.mkInsertAll(CppUnop.mkDeref(newRel)).toStmt();
+			CppStmt swap = CppFuncCall.mk("swap", delta, newRel).toStmt();
+			updates.add(CppSeq.mk(insertAll, delta.mkPurge(), swap));
 		}
-		return CppSeq.mk(stmts);
+		if (updates.size() == 1) {
+			return updates.get(0);
+		}
+		List<CppStmt> tasks = new ArrayList<>();
+		for (CppStmt update : updates) {
+			tasks.add(CppPragma.mk("omp task", update));
+		}
+		CppStmt single = CppPragma.mk("omp single", CppSeq.mk(tasks));
+		return CppSeq.mk(CppVar.mk("PARALLEL_START").toStmt(), single, CppVar.mk("PARALLEL_END").toStmt());
 	}
 
 }
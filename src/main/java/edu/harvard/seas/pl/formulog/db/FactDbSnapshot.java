@@ -0,0 +1,386 @@
+package edu.harvard.seas.pl.formulog.db;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.harvard.seas.pl.formulog.ast.BoolTerm;
+import edu.harvard.seas.pl.formulog.ast.Constructor;
+import edu.harvard.seas.pl.formulog.ast.Constructors;
+import edu.harvard.seas.pl.formulog.ast.FP32;
+import edu.harvard.seas.pl.formulog.ast.FP64;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.I64;
+import edu.harvard.seas.pl.formulog.ast.StringTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbol;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.symbols.Symbol;
+import edu.harvard.seas.pl.formulog.symbols.SymbolManager;
+import edu.harvard.seas.pl.formulog.symbols.TypedSymbol;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.ParameterizedSymbol;
+
+/**
+ * A compact binary dump of (some of) the relations in a fact database. A
+ * snapshot consists of a table of constructor symbols, a table of all the terms
+ * that appear in the dumped tuples (children before parents), and, for each
+ * relation, its tuples stored column by column as indices into the term table.
+ * Only primitives and constructors with non-parameterized symbols can be
+ * stored. The types of constructors and relations are recorded too, so that a
+ * snapshot is not loaded into a program that gives them different types.
+ */
+public final class FactDbSnapshot {
+
+	private static final int MAGIC = 0x464c4753;
+	private static final int VERSION = 2;
+	// Columns are read in chunks of this many tuples.
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final Pattern TYPE_VAR = Pattern.compile("'_\\d+");
+
+	private static final byte I32_TAG = 0;
+	private static final byte I64_TAG = 1;
+	private static final byte FP32_TAG = 2;
+	private static final byte FP64_TAG = 3;
+	private static final byte STRING_TAG = 4;
+	private static final byte BOOL_TAG = 5;
+	private static final byte CTOR_TAG = 6;
+
+	private FactDbSnapshot() {
+		throw new AssertionError("impossible");
+	}
+
+	public static void write(Path path, IndexedFactDb db, Collection<RelationSymbol> syms) throws IOException {
+		Writer w = new Writer();
+		List<int[][]> rels = new ArrayList<>();
+		for (RelationSymbol sym : syms) {
+			rels.add(w.encodeRelation(db.getAll(sym), sym.getArity()));
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(w.symbols.size());
+			for (ConstructorSymbol sym : w.symbols) {
+				out.writeUTF(sym.toString());
+				out.writeInt(sym.getArity());
+				out.writeUTF(describeType(sym));
+			}
+			out.writeInt(w.terms.size());
+			for (Term t : w.terms) {
+				w.writeTerm(t, out);
+			}
+			out.writeInt(rels.size());
+			int i = 0;
+			for (RelationSymbol sym : syms) {
+				int[][] cols = rels.get(i++);
+				out.writeUTF(sym.toString());
+				out.writeInt(sym.getArity());
+				out.writeUTF(describeType(sym));
+				out.writeInt(cols.length == 0 ? db.countDistinct(sym) : cols[0].length);
+				for (int[] col : cols) {
+					for (int id : col) {
+						out.writeInt(id);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the relations in the snapshot that have a counterpart (by name) in
+	 * <code>accs</code>, adding their tuples to the corresponding set. Constructor
+	 * symbols are resolved against the given symbol manager. Returns the symbols
+	 * of the relations that were found in the snapshot.
+	 */
+	public static Set<RelationSymbol> read(Path path, SymbolManager sm, Map<RelationSymbol, Set<Term[]>> accs)
+			throws IOException {
+		Map<String, RelationSymbol> byName = new HashMap<>();
+		for (RelationSymbol sym : accs.keySet()) {
+			byName.put(sym.toString(), sym);
+		}
+		Set<RelationSymbol> found = new HashSet<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a fact snapshot (or an unsupported version): " + path);
+			}
+			ConstructorSymbol[] symbols = new ConstructorSymbol[in.readInt()];
+			for (int i = 0; i < symbols.length; ++i) {
+				String name = in.readUTF();
+				int arity = in.readInt();
+				String type = in.readUTF();
+				if (sm.hasName(name)) {
+					Symbol sym = sm.lookupSymbol(name);
+					if (sym instanceof ConstructorSymbol && sym.getArity() == arity
+							&& describeType((ConstructorSymbol) sym).equals(type)) {
+						symbols[i] = (ConstructorSymbol) sym;
+					}
+				}
+			}
+			// Terms built from constructors that are unknown to this program (or that
+			// have a different type in it) are left null; it is only an error if a
+			// tuple we load refers to one.
+			Term[] terms = new Term[in.readInt()];
+			for (int i = 0; i < terms.length; ++i) {
+				terms[i] = readTerm(in, symbols, terms);
+			}
+			int numRels = in.readInt();
+			for (int i = 0; i < numRels; ++i) {
+				String name = in.readUTF();
+				int arity = in.readInt();
+				String type = in.readUTF();
+				int count = in.readInt();
+				if (count < 0 || arity < 0) {
+					throw new IOException("Corrupt fact snapshot: bad size for relation " + name);
+				}
+				RelationSymbol sym = byName.get(name);
+				if (sym == null) {
+					skipFully(in, (long) count * arity * 4);
+					continue;
+				}
+				if (sym.getArity() != arity) {
+					throw new IOException("Arity mismatch for relation " + name + " in snapshot " + path
+							+ ": expected " + sym.getArity() + ", but got " + arity);
+				}
+				if (!describeType(sym).equals(type)) {
+					throw new IOException("Type mismatch for relation " + name + " in snapshot " + path
+							+ ": expected " + describeType(sym) + ", but got " + type);
+				}
+				found.add(sym);
+				Term[][] tups = new Term[count][arity];
+				int[] col = new int[Math.min(count, CHUNK_SIZE)];
+				byte[] buf = new byte[col.length * 4];
+				for (int j = 0; j < arity; ++j) {
+					for (int start = 0; start < count; start += col.length) {
+						int n = Math.min(col.length, count - start);
+						in.readFully(buf, 0, n * 4);
+						ByteBuffer.wrap(buf, 0, n * 4).asIntBuffer().get(col, 0, n);
+						for (int k = 0; k < n; ++k) {
+							if (col[k] < 0 || col[k] >= terms.length) {
+								throw new IOException("Corrupt fact snapshot: unexpected term id " + col[k]);
+							}
+							Term t = terms[col[k]];
+							if (t == null) {
+								throw new IOException("Relation " + name + " in snapshot " + path
+										+ " uses a constructor that is not defined (with the same type) in this program");
+							}
+							tups[start + k][j] = t;
+						}
+					}
+				}
+				accs.get(sym).addAll(Arrays.asList(tups));
+			}
+		}
+		return found;
+	}
+
+	private static Term readTerm(DataInputStream in, ConstructorSymbol[] symbols, Term[] terms) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case I32_TAG:
+			return I32.make(in.readInt());
+		case I64_TAG:
+			return I64.make(in.readLong());
+		case FP32_TAG:
+			return FP32.make(Float.intBitsToFloat(in.readInt()));
+		case FP64_TAG:
+			return FP64.make(Double.longBitsToDouble(in.readLong()));
+		case STRING_TAG: {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return StringTerm.make(new String(bytes, StandardCharsets.UTF_8));
+		}
+		case BOOL_TAG:
+			return BoolTerm.mk(in.readBoolean());
+		case CTOR_TAG: {
+			ConstructorSymbol sym = symbols[in.readInt()];
+			int arity = in.readInt();
+			Term[] args = new Term[arity];
+			boolean ok = sym != null;
+			for (int i = 0; i < arity; ++i) {
+				args[i] = terms[in.readInt()];
+				ok &= args[i] != null;
+			}
+			return ok ? Constructors.make(sym, args) : null;
+		}
+		default:
+			throw new IOException("Corrupt fact snapshot: unexpected term tag " + tag);
+		}
+	}
+
+	/*
+	 * The type of a symbol, with its type variables (which are named differently
+	 * in each run) numbered in the order in which they appear.
+	 */
+	private static String describeType(TypedSymbol sym) {
+		Matcher m = TYPE_VAR.matcher(sym.getCompileTimeType().toString());
+		Map<String, String> names = new HashMap<>();
+		StringBuffer sb = new StringBuffer();
+		while (m.find()) {
+			String name = names.get(m.group());
+			if (name == null) {
+				name = "'" + names.size();
+				names.put(m.group(), name);
+			}
+			m.appendReplacement(sb, name);
+		}
+		m.appendTail(sb);
+		return sb.toString();
+	}
+
+	private static void skipFully(DataInputStream in, long n) throws IOException {
+		while (n > 0) {
+			int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+			if (skipped <= 0) {
+				throw new IOException("Corrupt fact snapshot: unexpected end of file");
+			}
+			n -= skipped;
+		}
+	}
+
+	private static class Writer {
+
+		final List<Term> terms = new ArrayList<>();
+		final Map<Term, Integer> termIds = new HashMap<>();
+		final List<ConstructorSymbol> symbols = new ArrayList<>();
+		final Map<ConstructorSymbol, Integer> symbolIds = new HashMap<>();
+
+		int[][] encodeRelation(Iterable<Term[]> tups, int arity) throws IOException {
+			int[][] cols = new int[arity][16];
+			int n = 0;
+			for (Term[] tup : tups) {
+				if (arity > 0 && n == cols[0].length) {
+					for (int i = 0; i < arity; ++i) {
+						cols[i] = Arrays.copyOf(cols[i], n * 2);
+					}
+				}
+				for (int i = 0; i < arity; ++i) {
+					cols[i][n] = encode(tup[i]);
+				}
+				n++;
+			}
+			for (int i = 0; i < arity; ++i) {
+				cols[i] = Arrays.copyOf(cols[i], n);
+			}
+			return cols;
+		}
+
+		/**
+		 * Registers the term and all its subterms, children first. This uses an
+		 * explicit stack since terms such as long lists can be very deep.
+		 */
+		int encode(Term root) throws IOException {
+			Integer id = termIds.get(root);
+			if (id != null) {
+				return id;
+			}
+			Deque<Term> stack = new ArrayDeque<>();
+			stack.push(root);
+			while (!stack.isEmpty()) {
+				Term t = stack.peek();
+				if (termIds.containsKey(t)) {
+					stack.pop();
+					continue;
+				}
+				boolean ready = true;
+				if (t instanceof Constructor) {
+					Constructor c = (Constructor) t;
+					ConstructorSymbol sym = c.getSymbol();
+					if (sym instanceof ParameterizedSymbol) {
+						throw new IOException("Cannot add term to a fact snapshot: " + t);
+					}
+					if (!symbolIds.containsKey(sym)) {
+						symbolIds.put(sym, symbols.size());
+						symbols.add(sym);
+					}
+					for (Term arg : c.getArgs()) {
+						if (!termIds.containsKey(arg)) {
+							stack.push(arg);
+							ready = false;
+						}
+					}
+				} else if (!(t instanceof I32 || t instanceof I64 || t instanceof FP32 || t instanceof FP64
+						|| t instanceof StringTerm || t instanceof BoolTerm)) {
+					throw new IOException("Cannot add term to a fact snapshot: " + t);
+				}
+				if (ready) {
+					stack.pop();
+					termIds.put(t, terms.size());
+					terms.add(t);
+				}
+			}
+			return termIds.get(root);
+		}
+
+		void writeTerm(Term t, DataOutputStream out) throws IOException {
+			if (t instanceof I32) {
+				out.writeByte(I32_TAG);
+				out.writeInt(((I32) t).getVal());
+			} else if (t instanceof I64) {
+				out.writeByte(I64_TAG);
+				out.writeLong(((I64) t).getVal());
+			} else if (t instanceof FP32) {
+				out.writeByte(FP32_TAG);
+				out.writeInt(Float.floatToRawIntBits(((FP32) t).getVal()));
+			} else if (t instanceof FP64) {
+				out.writeByte(FP64_TAG);
+				out.writeLong(Double.doubleToRawLongBits(((FP64) t).getVal()));
+			} else if (t instanceof StringTerm) {
+				byte[] bytes = ((StringTerm) t).getVal().getBytes(StandardCharsets.UTF_8);
+				out.writeByte(STRING_TAG);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			} else if (t instanceof BoolTerm) {
+				out.writeByte(BOOL_TAG);
+				out.writeBoolean(((BoolTerm) t).getVal());
+			} else {
+				Constructor c = (Constructor) t;
+				out.writeByte(CTOR_TAG);
+				out.writeInt(symbolIds.get(c.getSymbol()));
+				Term[] args = c.getArgs();
+				out.writeInt(args.length);
+				for (Term arg : args) {
+					out.writeInt(termIds.get(arg));
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,339 @@
+package edu.harvard.seas.pl.formulog.db;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A concurrent sorted set of fixed-width integer rows. Rows are kept in sorted
+ * chunks of packed ints; each chunk is copy-on-write, so readers never block
+ * and always see a consistent snapshot of a chunk. Only the first
+ * <code>keyLength</code> ints of a row take part in comparisons.
+ */
+final class PackedTupleSet {
+
+	private final int width;
+	private final int keyLength;
+	private final int chunkCapacity;
+	private final Comparator<int[]> cmp;
+	private volatile ConcurrentSkipListMap<int[], Chunk> chunks;
+
+	public PackedTupleSet(int width, int keyLength, int chunkCapacity) {
+		assert keyLength <= width;
+		this.width = width;
+		this.keyLength = keyLength;
+		this.chunkCapacity = Math.max(chunkCapacity, 2);
+		this.cmp = this::compareKeys;
+		this.chunks = freshChunks();
+	}
+
+	private ConcurrentSkipListMap<int[], Chunk> freshChunks() {
+		ConcurrentSkipListMap<int[], Chunk> m = new ConcurrentSkipListMap<>(cmp);
+		int[] bottom = new int[width];
+		Arrays.fill(bottom, Integer.MIN_VALUE);
+		m.put(bottom, new Chunk(new int[0]));
+		return m;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public boolean add(int[] row) {
+		assert row.length == width;
+		ConcurrentSkipListMap<int[], Chunk> m = chunks;
+		while (true) {
+			Map.Entry<int[], Chunk> e = m.floorEntry(row);
+			Chunk c = e.getValue();
+			synchronized (c) {
+				// The chunk might have been split since we looked it up.
+				int[] next = m.higherKey(e.getKey());
+				if (next != null && compareKeys(row, next) >= 0) {
+					continue;
+				}
+				int[] data = c.data;
+				int pos = search(data, row);
+				if (pos >= 0) {
+					return false;
+				}
+				pos = -(pos + 1);
+				int[] newData = new int[data.length + width];
+				int off = pos * width;
+				System.arraycopy(data, 0, newData, 0, off);
+				System.arraycopy(row, 0, newData, off, width);
+				System.arraycopy(data, off, newData, off + width, data.length - off);
+				publish(m, c, newData);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Adds a batch of rows in a single pass over the chunks they fall into: each
+	 * affected chunk is merged with its share of the batch and rewritten once.
+	 * Returns the number of rows that were not already in the set.
+	 */
+	public int addAll(int[][] rows) {
+		Arrays.sort(rows, cmp);
+		ConcurrentSkipListMap<int[], Chunk> m = chunks;
+		int added = 0;
+		int i = 0;
+		while (i < rows.length) {
+			Map.Entry<int[], Chunk> e = m.floorEntry(rows[i]);
+			Chunk c = e.getValue();
+			synchronized (c) {
+				int[] next = m.higherKey(e.getKey());
+				if (next != null && compareKeys(rows[i], next) >= 0) {
+					continue;
+				}
+				int j = i;
+				while (j < rows.length && (next == null || compareKeys(rows[j], next) < 0)) {
+					j++;
+				}
+				int[] data = c.data;
+				int[] merged = new int[data.length + (j - i) * width];
+				int n = 0;
+				int off = 0;
+				while (off < data.length || i < j) {
+					int d = i == j ? -1 : off == data.length ? 1 : compareRow(data, off, rows[i], 0);
+					if (d < 0) {
+						System.arraycopy(data, off, merged, n, width);
+						n += width;
+						off += width;
+					} else if (d == 0) {
+						// Already in the chunk.
+						i++;
+					} else {
+						int[] row = rows[i++];
+						// Skip duplicates within the batch.
+						if (n == 0 || compareRow(merged, n - width, row, 0) != 0) {
+							System.arraycopy(row, 0, merged, n, width);
+							n += width;
+							added++;
+						}
+					}
+				}
+				publish(m, c, n == merged.length ? merged : Arrays.copyOf(merged, n));
+			}
+		}
+		return added;
+	}
+
+	private void publish(ConcurrentSkipListMap<int[], Chunk> m, Chunk c, int[] data) {
+		int rows = data.length / width;
+		if (rows <= chunkCapacity) {
+			c.data = data;
+			return;
+		}
+		int pieces = (rows + chunkCapacity - 1) / chunkCapacity;
+		int rowsPerPiece = (rows + pieces - 1) / pieces;
+		int step = rowsPerPiece * width;
+		// Publish the upper pieces before shrinking the original chunk, so that a
+		// concurrent reader can never miss a row.
+		for (int off = step; off < data.length; off += step) {
+			int[] piece = Arrays.copyOfRange(data, off, Math.min(off + step, data.length));
+			m.put(Arrays.copyOfRange(piece, 0, width), new Chunk(piece));
+		}
+		c.data = Arrays.copyOfRange(data, 0, step);
+	}
+
+	public boolean remove(int[] row) {
+		assert row.length == width;
+		ConcurrentSkipListMap<int[], Chunk> m = chunks;
+		while (true) {
+			Map.Entry<int[], Chunk> e = m.floorEntry(row);
+			Chunk c = e.getValue();
+			synchronized (c) {
+				int[] next = m.higherKey(e.getKey());
+				if (next != null && compareKeys(row, next) >= 0) {
+					continue;
+				}
+				int[] data = c.data;
+				int pos = search(data, row);
+				if (pos < 0) {
+					return false;
+				}
+				// Emptied chunks are left in place; iterators skip over them.
+				int[] newData = new int[data.length - width];
+				int off = pos * width;
+				System.arraycopy(data, 0, newData, 0, off);
+				System.arraycopy(data, off + width, newData, off, newData.length - off);
+				c.data = newData;
+				return true;
+			}
+		}
+	}
+
+	public boolean contains(int[] row) {
+		Chunk c = chunks.floorEntry(row).getValue();
+		return search(c.data, row) >= 0;
+	}
+
+	public boolean isEmpty() {
+		for (Chunk c : chunks.values()) {
+			if (c.data.length > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void clear() {
+		chunks = freshChunks();
+	}
+
+	/**
+	 * Returns an iterator over the rows between <code>lower</code> and
+	 * <code>upper</code> (inclusive). The decoder is handed the backing array of a
+	 * chunk and the offset of the current row within it.
+	 */
+	public <T> Iterator<T> iterator(int[] lower, int[] upper, RowDecoder<T> decoder) {
+		return new RangeIterator<>(chunks, lower, upper, decoder);
+	}
+
+	private int search(int[] data, int[] row) {
+		int lo = 0;
+		int hi = data.length / width - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compareRow(data, mid * width, row, 0);
+			if (c < 0) {
+				lo = mid + 1;
+			} else if (c > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(lo + 1);
+	}
+
+	private int compareKeys(int[] xs, int[] ys) {
+		return compareRow(xs, 0, ys, 0);
+	}
+
+	private int compareRow(int[] xs, int xOff, int[] ys, int yOff) {
+		for (int i = 0; i < keyLength; ++i) {
+			int x = xs[xOff + i];
+			int y = ys[yOff + i];
+			if (x < y) {
+				return -1;
+			} else if (x > y) {
+				return 1;
+			}
+		}
+		return 0;
+	}
+
+	private static final class Chunk {
+
+		volatile int[] data;
+
+		public Chunk(int[] data) {
+			this.data = data;
+		}
+
+	}
+
+	public static interface RowDecoder<T> {
+
+		T decode(int[] data, int offset);
+
+	}
+
+	private final class RangeIterator<T> implements Iterator<T> {
+
+		private final ConcurrentSkipListMap<int[], Chunk> m;
+		private final int[] upper;
+		private final RowDecoder<T> decoder;
+		private int[] chunkKey;
+		private int[] data;
+		private int off;
+		private int[] lastData;
+		private int lastOff;
+		private boolean ready;
+		private boolean done;
+
+		public RangeIterator(ConcurrentSkipListMap<int[], Chunk> m, int[] lower, int[] upper,
+				RowDecoder<T> decoder) {
+			this.m = m;
+			this.upper = upper;
+			this.decoder = decoder;
+			Map.Entry<int[], Chunk> e = m.floorEntry(lower);
+			chunkKey = e.getKey();
+			data = e.getValue().data;
+			int pos = search(data, lower);
+			off = (pos >= 0 ? pos : -(pos + 1)) * width;
+		}
+
+		private boolean load() {
+			while (true) {
+				if (off < data.length) {
+					if (compareRow(data, off, upper, 0) > 0) {
+						return false;
+					}
+					// Chunks can be split while we iterate over them; skip anything we have
+					// already returned.
+					if (lastData == null || compareRow(data, off, lastData, lastOff) > 0) {
+						return true;
+					}
+					off += width;
+					continue;
+				}
+				Map.Entry<int[], Chunk> e = m.higherEntry(chunkKey);
+				if (e == null || compareKeys(e.getKey(), upper) > 0) {
+					return false;
+				}
+				chunkKey = e.getKey();
+				data = e.getValue().data;
+				off = 0;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (!ready && !done) {
+				ready = load();
+				done = !ready;
+			}
+			return ready;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			ready = false;
+			lastData = data;
+			lastOff = off;
+			off += width;
+			return decoder.decode(lastData, lastOff);
+		}
+
+	}
+
+}
@@ -29,6 +29,8 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -51,11 +53,21 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 
 	private final Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>[]> indices;
 	private final Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>> masterIndex;
+	private final Map<RelationSymbol, IndexedFactSet[]> uniqueIndices = new HashMap<>();
+	private final TermTable terms;
 
 	private SortedIndexedFactDb(Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>[]> indices,
-			Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>> masterIndex) {
+			Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>> masterIndex, TermTable terms) {
 		this.indices = indices;
 		this.masterIndex = masterIndex;
+		this.terms = terms;
+		for (Map.Entry<RelationSymbol, Pair<IndexedFactSet, BindingType[]>[]> e : indices.entrySet()) {
+			Set<IndexedFactSet> s = new LinkedHashSet<>();
+			for (Pair<IndexedFactSet, ?> p : e.getValue()) {
+				s.add(p.fst());
+			}
+			uniqueIndices.put(e.getKey(), s.toArray(new IndexedFactSet[0]));
+		}
 	}
 
 	@Override
@@ -87,12 +99,8 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 		return count;
 	}
 
-	private Set<IndexedFactSet> getUniqueIndices(RelationSymbol sym) {
-		Set<IndexedFactSet> s = new HashSet<>();
-		for (Pair<IndexedFactSet, ?> e : indices.get(sym)) {
-			s.add(e.fst());
-		}
-		return s;
+	private IndexedFactSet[] getUniqueIndices(RelationSymbol sym) {
+		return uniqueIndices.get(sym);
 	}
 
 	@Override
@@ -106,8 +114,7 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 		assert allNormal(tup);
 		IndexedFactSet master = masterIndex.get(sym).fst();
 		if (master.add(tup)) {
-			for (Pair<IndexedFactSet, ?> p : indices.get(sym)) {
-				IndexedFactSet idx = p.fst();
+			for (IndexedFactSet idx : getUniqueIndices(sym)) {
 				if (!idx.equals(master)) {
 					idx.add(tup);
 				}
@@ -121,8 +128,7 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 	public boolean addAll(RelationSymbol sym, Iterable<Term[]> tups) {
 		IndexedFactSet master = masterIndex.get(sym).fst();
 		if (master.addAll(tups)) {
-			for (Pair<IndexedFactSet, ?> p : indices.get(sym)) {
-				IndexedFactSet idx = p.fst();
+			for (IndexedFactSet idx : getUniqueIndices(sym)) {
 				if (!idx.equals(master)) {
 					idx.addAll(tups);
 				}
@@ -132,6 +138,24 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 		return false;
 	}
 
+	/**
+	 * Removes a tuple from every index of a relation. This must not be called
+	 * while the relation is being read.
+	 */
+	public boolean remove(RelationSymbol sym, Term[] tup) {
+		assert allNormal(tup);
+		IndexedFactSet master = masterIndex.get(sym).fst();
+		if (master.remove(tup)) {
+			for (IndexedFactSet idx : getUniqueIndices(sym)) {
+				if (!idx.equals(master)) {
+					idx.remove(tup);
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
 	private boolean allNormal(Term[] args) {
 		for (Term arg : args) {
 			if (!arg.isGround() || arg.containsUnevaluatedTerm()) {
@@ -149,11 +173,19 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 
 	@Override
 	public void clear() {
-		for (Pair<IndexedFactSet, BindingType[]>[] idxs : indices.values()) {
-			for (Pair<IndexedFactSet, ?> p : idxs) {
-				p.fst().clear();
+		for (IndexedFactSet[] idxs : uniqueIndices.values()) {
+			for (IndexedFactSet idx : idxs) {
+				idx.clear();
 			}
 		}
+		// Nothing refers to the terms of the packed indices anymore.
+		terms.clear();
+	}
+
+	public void clear(RelationSymbol sym) {
+		for (IndexedFactSet idx : getUniqueIndices(sym)) {
+			idx.clear();
+		}
 	}
 
 	@Override
@@ -190,7 +222,117 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 		if (!indices.containsKey(sym)) {
 			throw new IllegalArgumentException("Unrecognized symbol: " + sym);
 		}
-		return getUniqueIndices(sym).size();
+		return getUniqueIndices(sym).length;
+	}
+
+	/**
+	 * Adds a batch of tuples to one of the (distinct) indices of a relation,
+	 * where <code>n</code> ranges from zero to <code>numIndices(sym)</code>. A
+	 * packed index sorts the batch in its order and merges it in a single pass,
+	 * which is much cheaper than adding the tuples one by one; a skip-list index
+	 * adds them one by one. Different indices of the same relation can be loaded
+	 * concurrently, but the caller must make sure that every index of the
+	 * relation is eventually given the same batch.
+	 */
+	public void addAllToIndex(RelationSymbol sym, int n, Term[][] tups) {
+		getUniqueIndices(sym)[n].bulkAdd(tups);
+	}
+
+	/**
+	 * Returns an index of the relation that serves the given binding pattern,
+	 * creating one (and loading it with the relation's current tuples) if there
+	 * is none yet. This must not be called while the relation is being read or
+	 * updated.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized int ensureIndex(RelationSymbol sym, BindingType[] pat) {
+		assert sym.getArity() == pat.length;
+		pat = withoutIgnored(sym, pat);
+		Pair<IndexedFactSet, BindingType[]>[] idxs = indices.get(sym);
+		for (int i = 0; i < idxs.length; ++i) {
+			if (Arrays.equals(idxs[i].snd(), pat)) {
+				return i;
+			}
+		}
+		List<Integer> order = IndexedFactSet.mkOrder(pat);
+		IndexedFactSet[] unique = getUniqueIndices(sym);
+		IndexedFactSet idx = null;
+		for (IndexedFactSet other : unique) {
+			if (other.comparatorOrder.equals(order)) {
+				idx = other;
+				break;
+			}
+		}
+		if (idx == null) {
+			idx = IndexedFactSet.make(order, pat.length, terms);
+			List<Term[]> tups = Util.iterableToList(masterIndex.get(sym).fst().getAll());
+			idx.bulkAdd(tups.toArray(new Term[0][]));
+			unique = Arrays.copyOf(unique, unique.length + 1);
+			unique[unique.length - 1] = idx;
+			uniqueIndices.put(sym, unique);
+		}
+		idxs = Arrays.copyOf(idxs, idxs.length + 1);
+		idxs[idxs.length - 1] = new Pair<>(idx, pat);
+		indices.put(sym, idxs);
+		return idxs.length - 1;
+	}
+
+	/**
+	 * Tuples are removed from lattice relations when they are superseded, which
+	 * only works if every index of the relation holds every tuple (rather than
+	 * one tuple per projection).
+	 */
+	private static BindingType[] withoutIgnored(RelationSymbol sym, BindingType[] pat) {
+		if (sym.getLattice() == null) {
+			return pat;
+		}
+		BindingType[] pat2 = new BindingType[pat.length];
+		for (int i = 0; i < pat.length; ++i) {
+			pat2[i] = pat[i].isIgnored() ? BindingType.FREE : pat[i];
+		}
+		return pat2;
+	}
+
+	/**
+	 * Returns the number (as used by <code>addAllToIndex</code>) of an index of
+	 * the relation whose comparator order is exactly <code>order</code>, creating
+	 * one (and loading it with the relation's current tuples) if there is none
+	 * yet. Positions missing from the order are not compared, so the index keeps
+	 * one tuple for each projection onto the ordered positions. This must not be
+	 * called while the relation is being read or updated.
+	 */
+	public synchronized int ensureOrderedIndex(RelationSymbol sym, List<Integer> order) {
+		IndexedFactSet[] unique = getUniqueIndices(sym);
+		for (int i = 0; i < unique.length; ++i) {
+			if (unique[i].comparatorOrder.equals(order)) {
+				return i;
+			}
+		}
+		IndexedFactSet idx = IndexedFactSet.make(new ArrayList<>(order), sym.getArity(), terms);
+		List<Term[]> tups = Util.iterableToList(masterIndex.get(sym).fst().getAll());
+		idx.bulkAdd(tups.toArray(new Term[0][]));
+		unique = Arrays.copyOf(unique, unique.length + 1);
+		unique[unique.length - 1] = idx;
+		uniqueIndices.put(sym, unique);
+		return unique.length - 1;
+	}
+
+	/**
+	 * Returns the least tuple of the given (distinct) index that lies between
+	 * <code>lower</code> and <code>upper</code> (inclusive) in the index's order,
+	 * or null if there is none. {@link Terms#minTerm} and {@link Terms#maxTerm}
+	 * can be used to leave positions of the bounds open.
+	 */
+	public Term[] ceiling(RelationSymbol sym, int n, Term[] lower, Term[] upper) {
+		return getUniqueIndices(sym)[n].ceiling(lower, upper);
+	}
+
+	/**
+	 * Like <code>ceiling</code>, but excludes tuples that are equal to
+	 * <code>lower</code> in the index's order.
+	 */
+	public Term[] higher(RelationSymbol sym, int n, Term[] lower, Term[] upper) {
+		return getUniqueIndices(sym)[n].higher(lower, upper);
 	}
 
 	public IndexInfo getIndexInfo(RelationSymbol sym, int idx) {
@@ -222,6 +364,7 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 		private final Map<RelationSymbol, Integer> counts = new HashMap<>();
 		private final Map<RelationSymbol, Map<BindingTypeArrayWrapper, Integer>> pats = new LinkedHashMap<>();
 		private final Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>> masterIndex = new HashMap<>();
+		private final TermTable terms = new TermTable();
 
 		public SortedIndexedFactDbBuilder(Set<RelationSymbol> allSyms) {
 			List<RelationSymbol> sortedSyms = allSyms.stream().sorted(SymbolComparator.INSTANCE)
@@ -235,6 +378,7 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 		@Override
 		public synchronized int makeIndex(RelationSymbol sym, BindingType[] pat) {
 			assert sym.getArity() == pat.length;
+			pat = withoutIgnored(sym, pat);
 			Map<BindingTypeArrayWrapper, Integer> m = pats.get(sym);
 			BindingTypeArrayWrapper key = new BindingTypeArrayWrapper(pat);
 			assert m != null : "Symbol not registered with DB: " + sym;
@@ -260,7 +404,7 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 			for (RelationSymbol sym : sortedSyms) {
 				sorted.put(sym, masterIndex.get(sym));
 			}
-			return new SortedIndexedFactDb(indices, sorted);
+			return new SortedIndexedFactDb(indices, sorted, terms);
 		}
 
 		@SuppressWarnings("unchecked")
@@ -286,7 +430,7 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 				for (int i = 0; i < pat.length; ++i) {
 					pat[i] = BindingType.FREE;
 				}
-				IndexedFactSet master = IndexedFactSet.make(pat);
+				IndexedFactSet master = IndexedFactSet.make(pat, terms);
 				Pair<IndexedFactSet, BindingType[]> p = new Pair<>(master, pat);
 				masterIndex.put(sym, p);
 				indices.add(p);
@@ -320,7 +464,7 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 					.collect(Collectors.toList());
 			for (Map.Entry<BindingTypeArrayWrapper, Integer> e : sorted) {
 				BindingType[] pat = e.getKey().getArr();
-				IndexedFactSet idx = IndexedFactSet.make(pat);
+				IndexedFactSet idx = IndexedFactSet.make(pat, terms);
 				idxs.add(new Pair<>(idx, pat));
 			}
 			return idxs;
@@ -369,7 +513,7 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 				for (int i : idx) {
 					order.add(i);
 				}
-				factSetByIndex.put(idx, IndexedFactSet.make(order));
+				factSetByIndex.put(idx, IndexedFactSet.make(order, sym.getArity(), terms));
 			}
 			Map<Integer, Pair<IndexedFactSet, BindingType[]>> indices = new HashMap<>();
 			for (int i : searchByNum.keySet()) {
@@ -424,17 +568,20 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 
 	}
 
-	private static class IndexedFactSet {
+	private static abstract class IndexedFactSet {
 
 		private static final AtomicInteger idCnt = new AtomicInteger();
 		private final int id;
-		private final NavigableSet<Term[]> s;
 		private final AtomicInteger cnt = new AtomicInteger();
-		private final List<Integer> comparatorOrder;
+		protected final List<Integer> comparatorOrder;
 
 		private final static TupleComparatorGenerator gen = new TupleComparatorGenerator();
 
-		public static IndexedFactSet make(BindingType[] pat) {
+		public static IndexedFactSet make(BindingType[] pat, TermTable terms) {
+			return make(mkOrder(pat), pat.length, terms);
+		}
+
+		public static List<Integer> mkOrder(BindingType[] pat) {
 			List<Integer> order = new ArrayList<>();
 			for (int i = 0; i < pat.length; ++i) {
 				if (pat[i].isBound()) {
@@ -446,14 +593,17 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 					order.add(i);
 				}
 			}
-			return make(order);
+			return order;
 		}
 
-		private static IndexedFactSet make(List<Integer> order) {
+		private static IndexedFactSet make(List<Integer> order, int arity, TermTable terms) {
 			int[] a = new int[order.size()];
 			for (int i = 0; i < a.length; ++i) {
 				a[i] = order.get(i);
 			}
+			if (Configuration.packedFactDb) {
+				return new PackedIndexedFactSet(a, arity, order, terms);
+			}
 			Comparator<Term[]> cmp;
 			if (Configuration.genComparators) {
 				try {
@@ -464,49 +614,68 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 			} else {
 				cmp = new TermArrayComparator(a);
 			}
-			return new IndexedFactSet(new ConcurrentSkipListSet<>(cmp), order);
+			return new SkipListIndexedFactSet(new ConcurrentSkipListSet<>(cmp), order);
+		}
+
+		protected IndexedFactSet(List<Integer> comparatorOrder) {
+			this.comparatorOrder = comparatorOrder;
+			this.id = idCnt.getAndIncrement();
 		}
 
 		public int comparatorLength() {
 			return comparatorOrder.size();
 		}
 
-		public Iterable<Term[]> getAll() {
-			return s;
+		public int getId() {
+			return id;
 		}
 
-		public void clear() {
-			s.clear();
-			cnt.set(0);
-		}
+		public abstract Iterable<Term[]> getAll();
 
-		public boolean isEmpty() {
-			return s.isEmpty();
-		}
+		public abstract boolean isEmpty();
 
-		private IndexedFactSet(NavigableSet<Term[]> s, List<Integer> comparatorOrder) {
-			this.s = s;
-			this.comparatorOrder = comparatorOrder;
-			this.id = idCnt.getAndIncrement();
-		}
+		public abstract boolean contains(Term[] tup);
 
-		public int getId() {
-			return id;
+		public abstract Iterable<Term[]> lookup(Term[] tup, BindingType[] pat);
+
+		public abstract Term[] ceiling(Term[] lower, Term[] upper);
+
+		public abstract Term[] higher(Term[] lower, Term[] upper);
+
+		protected abstract boolean doAdd(Term[] tup);
+
+		protected abstract boolean doRemove(Term[] tup);
+
+		protected abstract void doClear();
+
+		protected abstract int doBulkAdd(Term[][] tups);
+
+		public void clear() {
+			doClear();
+			cnt.set(0);
 		}
 
 		public boolean add(Term[] arr) {
-			boolean modified = s.add(arr);
+			boolean modified = doAdd(arr);
 			if (modified) {
 				cnt.incrementAndGet();
 			}
 			return modified;
 		}
 
+		public boolean remove(Term[] arr) {
+			boolean modified = doRemove(arr);
+			if (modified) {
+				cnt.decrementAndGet();
+			}
+			return modified;
+		}
+
 		public boolean addAll(Iterable<Term[]> tups) {
 			boolean modified = false;
 			int delta = 0;
 			for (Term[] tup : tups) {
-				if (s.add(tup)) {
+				if (doAdd(tup)) {
 					modified = true;
 					delta++;
 				}
@@ -517,10 +686,78 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 			return modified;
 		}
 
+		public void bulkAdd(Term[][] tups) {
+			int delta = doBulkAdd(tups);
+			if (delta > 0) {
+				cnt.addAndGet(delta);
+			}
+		}
+
 		public int count() {
 			return cnt.get();
 		}
 
+		@Override
+		public String toString() {
+			String str = "[\n\t";
+			str += "\t#" + id + " " + comparatorOrder + "\n";
+			for (Term[] tup : getAll()) {
+				str += "\n\t";
+				str += Arrays.toString(tup);
+			}
+			return str + "\n]";
+		}
+
+	}
+
+	private static class SkipListIndexedFactSet extends IndexedFactSet {
+
+		private final NavigableSet<Term[]> s;
+
+		public SkipListIndexedFactSet(NavigableSet<Term[]> s, List<Integer> comparatorOrder) {
+			super(comparatorOrder);
+			this.s = s;
+		}
+
+		@Override
+		public Iterable<Term[]> getAll() {
+			return s;
+		}
+
+		@Override
+		protected void doClear() {
+			s.clear();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return s.isEmpty();
+		}
+
+		@Override
+		protected boolean doAdd(Term[] arr) {
+			return s.add(arr);
+		}
+
+		@Override
+		protected boolean doRemove(Term[] arr) {
+			return s.remove(arr);
+		}
+
+		@Override
+		protected int doBulkAdd(Term[][] tups) {
+			// Every insertion into a skip list searches from the head, so there is
+			// nothing to gain from sorting the tuples first.
+			int delta = 0;
+			for (Term[] tup : tups) {
+				if (s.add(tup)) {
+					delta++;
+				}
+			}
+			return delta;
+		}
+
+		@Override
 		public Iterable<Term[]> lookup(Term[] tup, BindingType[] pat) {
 			Term[] lower = new Term[tup.length];
 			Term[] upper = new Term[tup.length];
@@ -536,19 +773,162 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 			return s.subSet(lower, true, upper, true);
 		}
 
+		@Override
+		public Term[] ceiling(Term[] lower, Term[] upper) {
+			return bound(s.ceiling(lower), upper);
+		}
+
+		@Override
+		public Term[] higher(Term[] lower, Term[] upper) {
+			return bound(s.higher(lower), upper);
+		}
+
+		private Term[] bound(Term[] tup, Term[] upper) {
+			if (tup == null || s.comparator().compare(tup, upper) > 0) {
+				return null;
+			}
+			return tup;
+		}
+
+		@Override
 		public boolean contains(Term[] tup) {
 			return s.contains(tup);
 		}
 
+	}
+
+	/**
+	 * An index that stores each tuple as a packed row of term ids, ordered by the
+	 * index's comparator order (followed by any ignored positions). Tuples are
+	 * only turned back into terms when they are handed out.
+	 */
+	private static class PackedIndexedFactSet extends IndexedFactSet {
+
+		private final int[] layout;
+		private final PackedTupleSet s;
+		private final PackedTupleSet.RowDecoder<Term[]> decoder;
+		private final TermTable terms;
+
+		public PackedIndexedFactSet(int[] order, int arity, List<Integer> comparatorOrder, TermTable terms) {
+			super(comparatorOrder);
+			this.terms = terms;
+			layout = Arrays.copyOf(order, arity);
+			boolean[] seen = new boolean[arity];
+			for (int i : order) {
+				seen[i] = true;
+			}
+			int j = order.length;
+			for (int i = 0; i < arity; ++i) {
+				if (!seen[i]) {
+					layout[j++] = i;
+				}
+			}
+			// Nullary relations still need a (dummy) column to count rows with.
+			s = new PackedTupleSet(Math.max(arity, 1), order.length, Configuration.packedFactDbChunkSize);
+			decoder = (data, off) -> {
+				Term[] tup = new Term[layout.length];
+				for (int k = 0; k < layout.length; ++k) {
+					tup[layout[k]] = terms.lookup(data[off + k]);
+				}
+				return tup;
+			};
+		}
+
+		private int[] encode(Term[] tup) {
+			int[] row = new int[s.getWidth()];
+			for (int k = 0; k < layout.length; ++k) {
+				row[k] = tup[layout[k]].getId();
+			}
+			return row;
+		}
+
 		@Override
-		public String toString() {
-			String str = "[\n\t";
-			str += "\t#" + id + " " + comparatorOrder + "\n";
-			for (Term[] tup : s) {
-				str += "\n\t";
-				str += Arrays.toString(tup);
+		public Iterable<Term[]> getAll() {
+			int[] lower = new int[s.getWidth()];
+			int[] upper = new int[s.getWidth()];
+			Arrays.fill(lower, Integer.MIN_VALUE);
+			Arrays.fill(upper, Integer.MAX_VALUE);
+			return () -> s.iterator(lower, upper, decoder);
+		}
+
+		@Override
+		protected void doClear() {
+			s.clear();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return s.isEmpty();
+		}
+
+		@Override
+		protected boolean doAdd(Term[] tup) {
+			for (Term t : tup) {
+				terms.register(t);
 			}
-			return str + "\n]";
+			return s.add(encode(tup));
+		}
+
+		@Override
+		protected boolean doRemove(Term[] tup) {
+			return s.remove(encode(tup));
+		}
+
+		@Override
+		protected int doBulkAdd(Term[][] tups) {
+			int[][] rows = new int[tups.length][];
+			for (int i = 0; i < tups.length; ++i) {
+				Term[] tup = tups[i];
+				for (Term t : tup) {
+					terms.register(t);
+				}
+				rows[i] = encode(tup);
+			}
+			return s.addAll(rows);
+		}
+
+		@Override
+		public Iterable<Term[]> lookup(Term[] tup, BindingType[] pat) {
+			int[] lower = new int[s.getWidth()];
+			int[] upper = new int[s.getWidth()];
+			for (int k = 0; k < layout.length; ++k) {
+				int i = layout[k];
+				if (pat[i].isBound()) {
+					lower[k] = tup[i].getId();
+					upper[k] = lower[k];
+				} else {
+					lower[k] = Integer.MIN_VALUE;
+					upper[k] = Integer.MAX_VALUE;
+				}
+			}
+			return () -> s.iterator(lower, upper, decoder);
+		}
+
+		@Override
+		public Term[] ceiling(Term[] lower, Term[] upper) {
+			Iterator<Term[]> it = s.iterator(encode(lower), encode(upper), decoder);
+			return it.hasNext() ? it.next() : null;
+		}
+
+		@Override
+		public Term[] higher(Term[] lower, Term[] upper) {
+			Iterator<Term[]> it = s.iterator(encode(lower), encode(upper), decoder);
+			// There is at most one tuple that is equal to the lower bound.
+			if (!it.hasNext()) {
+				return null;
+			}
+			Term[] tup = it.next();
+			for (int i : comparatorOrder) {
+				if (tup[i].getId() != lower[i].getId()) {
+					return tup;
+				}
+			}
+			return it.hasNext() ? it.next() : null;
+		}
+
+		@Override
+		public boolean contains(Term[] tup) {
+			return s.contains(encode(tup));
 		}
 
 	}
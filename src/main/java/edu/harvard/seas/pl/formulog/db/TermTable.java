@@ -0,0 +1,87 @@
+package edu.harvard.seas.pl.formulog.db;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+
+import edu.harvard.seas.pl.formulog.ast.Term;
+
+/**
+ * Maps term ids back to the terms they identify, so that tuples can be stored
+ * as rows of ids and turned back into terms on demand. Since terms are
+ * hash-consed, there is only ever one term registered for a given id.
+ * 
+ * Each fact database has its own table, which keeps the terms of its packed
+ * indices alive (even if the hash-consing tables only weakly reference them)
+ * until the database is cleared.
+ */
+final class TermTable {
+
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private volatile Term[][] pages = new Term[16][];
+
+	public int register(Term t) {
+		int id = t.getId();
+		assert id >= 0;
+		Term[] page = getPage(id >>> PAGE_BITS);
+		page[id & PAGE_MASK] = t;
+		return id;
+	}
+
+	public Term lookup(int id) {
+		Term t = pages[id >>> PAGE_BITS][id & PAGE_MASK];
+		assert t != null : "Unregistered term id: " + id;
+		return t;
+	}
+
+	/**
+	 * Forgets every registered term. This must not be called while the table is
+	 * in use.
+	 */
+	public synchronized void clear() {
+		pages = new Term[16][];
+	}
+
+	private Term[] getPage(int n) {
+		Term[][] ps = pages;
+		Term[] page;
+		if (n < ps.length && (page = ps[n]) != null) {
+			return page;
+		}
+		synchronized (this) {
+			ps = pages;
+			if (n >= ps.length) {
+				ps = Arrays.copyOf(ps, Math.max(ps.length * 2, n + 1));
+			}
+			page = ps[n];
+			if (page == null) {
+				page = new Term[PAGE_SIZE];
+				ps[n] = page;
+			}
+			pages = ps;
+			return page;
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+package edu.harvard.seas.pl.formulog.db;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+
+/**
+ * An unindexed, concurrently-writable collection of distinct tuples per
+ * relation. It is meant to accumulate newly derived facts cheaply; the facts
+ * can then be drained and loaded in bulk into an indexed database.
+ */
+public class TupleBuffer {
+
+	private final Map<RelationSymbol, Set<Tuple>> tuples = new HashMap<>();
+
+	public TupleBuffer(Set<RelationSymbol> syms) {
+		for (RelationSymbol sym : syms) {
+			tuples.put(sym, ConcurrentHashMap.newKeySet());
+		}
+	}
+
+	public Set<RelationSymbol> getSymbols() {
+		return Collections.unmodifiableSet(tuples.keySet());
+	}
+
+	public boolean add(RelationSymbol sym, Term[] tup) {
+		return tuples.get(sym).add(new Tuple(tup));
+	}
+
+	public boolean isEmpty(RelationSymbol sym) {
+		return tuples.get(sym).isEmpty();
+	}
+
+	public int size(RelationSymbol sym) {
+		return tuples.get(sym).size();
+	}
+
+	public Term[][] toArray(RelationSymbol sym) {
+		Set<Tuple> s = tuples.get(sym);
+		Term[][] arr = new Term[s.size()][];
+		int i = 0;
+		for (Tuple tup : s) {
+			arr[i++] = tup.args;
+		}
+		assert i == arr.length;
+		return arr;
+	}
+
+	public void clear() {
+		for (Set<Tuple> s : tuples.values()) {
+			s.clear();
+		}
+	}
+
+	public void clear(RelationSymbol sym) {
+		tuples.get(sym).clear();
+	}
+
+	private static class Tuple {
+
+		private final Term[] args;
+		private final int hash;
+
+		public Tuple(Term[] args) {
+			this.args = args;
+			int h = 1;
+			for (Term arg : args) {
+				h = 31 * h + arg.getId();
+			}
+			hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Tuple)) {
+				return false;
+			}
+			Tuple other = (Tuple) obj;
+			if (hash != other.hash || args.length != other.args.length) {
+				return false;
+			}
+			for (int i = 0; i < args.length; ++i) {
+				if (args[i].getId() != other.args[i].getId()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
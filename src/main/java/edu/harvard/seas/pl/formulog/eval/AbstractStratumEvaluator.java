@@ -36,6 +36,7 @@ public abstract class AbstractStratumEvaluator implements StratumEvaluator {
 	final Set<IndexedRule> firstRoundRules = new HashSet<>();
 	final Map<RelationSymbol, Set<IndexedRule>> laterRoundRules = new HashMap<>();
 	final Map<IndexedRule, boolean[]> splitPositions = new HashMap<>();
+	final Map<IndexedRule, boolean[]> smtPositions = new HashMap<>();
 	
 	public AbstractStratumEvaluator(Iterable<IndexedRule> rules) {
 		processRules(rules);
@@ -50,11 +51,25 @@ public abstract class AbstractStratumEvaluator implements StratumEvaluator {
 			} else {
 				firstRoundRules.add(rule);
 			}
-			boolean[] positions = findSplitPositions(rule, scf);
-			splitPositions.put(rule, positions);
+			processPositions(rule, scf);
 		}
 	}
 
+	void processPositions(IndexedRule rule, SmtCallFinder scf) {
+		splitPositions.put(rule, findSplitPositions(rule, scf));
+		smtPositions.put(rule, findSmtPositions(rule, scf));
+	}
+
+	private static boolean[] findSmtPositions(IndexedRule rule, SmtCallFinder scf) {
+		int len = rule.getBodySize();
+		boolean[] smtPositions = new boolean[len];
+		for (int i = 0; i < len; ++i) {
+			SimpleLiteral l = rule.getBody(i);
+			smtPositions[i] = !(l instanceof SimplePredicate) && scf.containsSmtCall(l);
+		}
+		return smtPositions;
+	}
+
 	private static boolean[] findSplitPositions(IndexedRule rule, SmtCallFinder scf) {
 		int len = rule.getBodySize();
 		boolean[] splitPositions = new boolean[len];
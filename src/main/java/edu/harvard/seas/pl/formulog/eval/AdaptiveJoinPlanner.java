@@ -0,0 +1,284 @@
+package edu.harvard.seas.pl.formulog.eval;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.ComplexLiteral;
+import edu.harvard.seas.pl.formulog.ast.ComplexLiterals.ComplexLiteralVisitor;
+import edu.harvard.seas.pl.formulog.ast.Rule;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.UnificationPredicate;
+import edu.harvard.seas.pl.formulog.ast.UserPredicate;
+import edu.harvard.seas.pl.formulog.ast.Var;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
+import edu.harvard.seas.pl.formulog.eval.SemiNaiveRule.DeltaSymbol;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.validating.InvalidProgramException;
+import edu.harvard.seas.pl.formulog.validating.ValidRule;
+import edu.harvard.seas.pl.formulog.validating.ast.SimpleRule;
+
+/**
+ * Reorders rule bodies between rounds of evaluation based on statistics about
+ * the relations (and deltas) they refer to: their sizes and the number of
+ * distinct values in each column. A rule is reconsidered once the size of one
+ * of its relations has changed by more than a factor of two since it was last
+ * planned, and a new plan is only adopted if it is estimated to be at least
+ * twice as cheap as the current one. Any indices a new plan needs are created
+ * on the fly.
+ */
+class AdaptiveJoinPlanner {
+
+	private final SortedIndexedFactDb db;
+	private final SortedIndexedFactDb deltaDb;
+	private final Map<IndexedRule, Plan> plans = new HashMap<>();
+	private final Map<RelationSymbol, Stats> stats = new HashMap<>();
+	private int numReplans;
+
+	public AdaptiveJoinPlanner(SortedIndexedFactDb db, SortedIndexedFactDb deltaDb,
+			Map<IndexedRule, ValidRule> initialPlans) {
+		this.db = db;
+		this.deltaDb = deltaDb;
+		for (Map.Entry<IndexedRule, ValidRule> e : initialPlans.entrySet()) {
+			List<ComplexLiteral> order = new ArrayList<>();
+			e.getValue().forEach(order::add);
+			plans.put(e.getKey(), new Plan(e.getValue(), order, null));
+		}
+	}
+
+	/**
+	 * Returns a plan for the given rule that suits the current relation
+	 * statistics; this is the rule itself if it does not need to change.
+	 */
+	public synchronized IndexedRule replan(IndexedRule rule) {
+		Plan plan = plans.get(rule);
+		if (plan == null) {
+			return rule;
+		}
+		List<UserPredicate> preds = getPredicates(plan.source);
+		long[] sizes = new long[preds.size()];
+		for (int i = 0; i < sizes.length; ++i) {
+			sizes[i] = size(preds.get(i).getSymbol());
+		}
+		if (plan.sizes != null && !changedSignificantly(plan.sizes, sizes)) {
+			return rule;
+		}
+		plans.put(rule, new Plan(plan.source, plan.order, sizes));
+		ValidRule vr;
+		try {
+			vr = ValidRule.make(plan.source, this::score);
+		} catch (InvalidProgramException e) {
+			// Cannot happen for a rule that could be planned in the first place, but
+			// there is no harm in sticking with the old plan.
+			return rule;
+		}
+		List<ComplexLiteral> order = new ArrayList<>();
+		vr.forEach(order::add);
+		if (order.equals(plan.order) || 2 * cost(order) >= cost(plan.order)) {
+			return rule;
+		}
+		IndexedRule newRule;
+		try {
+			newRule = IndexedRule.make(SimpleRule.make(vr), p -> {
+				RelationSymbol psym = p.getSymbol();
+				if (psym instanceof DeltaSymbol) {
+					return deltaDb.ensureIndex(((DeltaSymbol) psym).getBaseSymbol(), p.getBindingPattern());
+				}
+				return db.ensureIndex(psym, p.getBindingPattern());
+			});
+		} catch (InvalidProgramException e) {
+			return rule;
+		}
+		plans.remove(rule);
+		plans.put(newRule, new Plan(plan.source, order, sizes));
+		numReplans++;
+		if (Configuration.printFinalRules) {
+			System.err.println("[REPLANNED RULE]:\n" + newRule);
+		}
+		return newRule;
+	}
+
+	/**
+	 * Returns the number of times a rule has been given a new plan.
+	 */
+	synchronized int getNumReplans() {
+		return numReplans;
+	}
+
+	private static boolean changedSignificantly(long[] oldSizes, long[] newSizes) {
+		for (int i = 0; i < oldSizes.length; ++i) {
+			if (changedSignificantly(oldSizes[i], newSizes[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean changedSignificantly(long oldSize, long newSize) {
+		long x = oldSize + 1;
+		long y = newSize + 1;
+		return x > 2 * y || y > 2 * x;
+	}
+
+	private long size(RelationSymbol sym) {
+		if (sym instanceof DeltaSymbol) {
+			return deltaDb.countDistinct(((DeltaSymbol) sym).getBaseSymbol());
+		}
+		return db.countDistinct(sym);
+	}
+
+	/**
+	 * Returns the statistics for a relation, recomputing them if its size has
+	 * changed significantly since they were last computed.
+	 */
+	private Stats getStats(RelationSymbol sym) {
+		long size = size(sym);
+		Stats st = stats.get(sym);
+		if (st != null && !changedSignificantly(st.size, size)) {
+			return st;
+		}
+		Iterable<Term[]> tups;
+		if (sym instanceof DeltaSymbol) {
+			tups = deltaDb.getAll(((DeltaSymbol) sym).getBaseSymbol());
+		} else {
+			tups = db.getAll(sym);
+		}
+		List<Set<Term>> vals = new ArrayList<>();
+		for (int i = 0; i < sym.getArity(); ++i) {
+			vals.add(new HashSet<>());
+		}
+		for (Term[] tup : tups) {
+			for (int i = 0; i < tup.length; ++i) {
+				vals.get(i).add(tup[i]);
+			}
+		}
+		int[] distinct = new int[vals.size()];
+		for (int i = 0; i < distinct.length; ++i) {
+			distinct[i] = vals.get(i).size();
+		}
+		st = new Stats(size, distinct);
+		stats.put(sym, st);
+		return st;
+	}
+
+	/**
+	 * Estimates the number of tuples a lookup returns, assuming that the columns
+	 * are independent and their values uniformly distributed.
+	 */
+	private double estimate(UserPredicate pred, Set<Var> boundVars) {
+		Stats st = getStats(pred.getSymbol());
+		double n = st.size;
+		Term[] args = pred.getArgs();
+		for (int i = 0; i < args.length; ++i) {
+			if (boundVars.containsAll(args[i].varSet())) {
+				n /= Math.max(1, st.distinct[i]);
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Scores a literal that is ready to be placed; higher is better. Unifications
+	 * and negated predicates only ever filter, so they go as early as possible;
+	 * otherwise, the predicate that is expected to return the fewest tuples goes
+	 * first.
+	 */
+	private int score(ComplexLiteral l, Set<Var> boundVars) {
+		return l.accept(new ComplexLiteralVisitor<Void, Integer>() {
+
+			@Override
+			public Integer visit(UnificationPredicate unificationPredicate, Void input) {
+				return Integer.MAX_VALUE;
+			}
+
+			@Override
+			public Integer visit(UserPredicate pred, Void input) {
+				if (pred.isNegated()) {
+					return Integer.MAX_VALUE;
+				}
+				double est = estimate(pred, boundVars) * 1000;
+				return Integer.MAX_VALUE - 1 - (int) Math.min(est, Integer.MAX_VALUE - 2);
+			}
+
+		}, null);
+	}
+
+	/**
+	 * Estimates the number of intermediate results produced by evaluating the
+	 * literals in the given order.
+	 */
+	private double cost(List<ComplexLiteral> order) {
+		Set<Var> boundVars = new HashSet<>();
+		double rows = 1;
+		double cost = 0;
+		for (ComplexLiteral l : order) {
+			if (l instanceof UserPredicate && !((UserPredicate) l).isNegated()) {
+				rows *= estimate((UserPredicate) l, boundVars);
+				cost += rows;
+			}
+			boundVars.addAll(l.varSet());
+		}
+		return cost;
+	}
+
+	private static List<UserPredicate> getPredicates(Rule<UserPredicate, ComplexLiteral> rule) {
+		List<UserPredicate> preds = new ArrayList<>();
+		for (ComplexLiteral l : rule) {
+			if (l instanceof UserPredicate && !((UserPredicate) l).isNegated()) {
+				preds.add((UserPredicate) l);
+			}
+		}
+		return preds;
+	}
+
+	private static class Plan {
+
+		final ValidRule source;
+		final List<ComplexLiteral> order;
+		final long[] sizes;
+
+		public Plan(ValidRule source, List<ComplexLiteral> order, long[] sizes) {
+			this.source = source;
+			this.order = order;
+			this.sizes = sizes;
+		}
+
+	}
+
+	private static class Stats {
+
+		final long size;
+		final int[] distinct;
+
+		public Stats(long size, int[] distinct) {
+			this.size = size;
+			this.distinct = distinct;
+		}
+
+	}
+
+}
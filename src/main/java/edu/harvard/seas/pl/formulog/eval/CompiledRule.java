@@ -0,0 +1,122 @@
+package edu.harvard.seas.pl.formulog.eval;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Iterator;
+
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
+import edu.harvard.seas.pl.formulog.eval.SemiNaiveRule.DeltaSymbol;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.util.Util;
+import edu.harvard.seas.pl.formulog.validating.ast.SimpleLiteral;
+import edu.harvard.seas.pl.formulog.validating.ast.SimplePredicate;
+
+/**
+ * The superclass of the classes that {@link RuleCompiler} generates for rules.
+ * The generated code evaluates the literals of the rule body, with the values of
+ * the rule's variables in local variables; this class resolves, up front,
+ * where each predicate of the body is looked up.
+ */
+public abstract class CompiledRule {
+
+	// The terms, symbols, and function calls that the generated code refers to.
+	protected Object[] consts;
+
+	private RoundBasedStratumEvaluator eval;
+	private IndexedRule rule;
+	private SortedIndexedFactDb[] dbs;
+	private RelationSymbol[] syms;
+	private int[] idxs;
+	private int[] chunkSizes;
+
+	void init(RoundBasedStratumEvaluator eval, IndexedRule rule, Object[] consts) {
+		this.eval = eval;
+		this.rule = rule;
+		this.consts = consts;
+		int len = rule.getBodySize();
+		dbs = new SortedIndexedFactDb[len];
+		syms = new RelationSymbol[len];
+		idxs = new int[len];
+		chunkSizes = new int[len];
+		boolean[] split = eval.splitPositions.get(rule);
+		for (int i = 0; i < len; ++i) {
+			SimpleLiteral l = rule.getBody(i);
+			if (!(l instanceof SimplePredicate)) {
+				continue;
+			}
+			RelationSymbol sym = ((SimplePredicate) l).getSymbol();
+			if (sym instanceof DeltaSymbol) {
+				dbs[i] = eval.deltaDb;
+				syms[i] = ((DeltaSymbol) sym).getBaseSymbol();
+			} else {
+				dbs[i] = eval.db;
+				syms[i] = sym;
+			}
+			idxs[i] = rule.getDbIndex(i);
+			chunkSizes[i] = split[i] ? RoundBasedStratumEvaluator.smtTaskSize : RoundBasedStratumEvaluator.taskSize;
+		}
+	}
+
+	public IndexedRule getRule() {
+		return rule;
+	}
+
+	/**
+	 * Evaluates the rule from the start of its body (if <code>frame</code> is
+	 * null), or goes through the remaining chunks of tuples for the positive
+	 * predicate at <code>startPos</code>, given the values that the variables of
+	 * the rule had when the predicate was looked up.
+	 */
+	public abstract void evaluate(int startPos, Iterator<Iterable<Term[]>> chunks, Term[] frame)
+			throws EvaluationException;
+
+	/**
+	 * Looks up the predicate at the given position (the key only needs to be set
+	 * at bound positions), splitting the matching tuples into chunks.
+	 */
+	protected final Iterator<Iterable<Term[]>> scan(int pos, Term[] key) {
+		return Util.splitIterable(dbs[pos].get(syms[pos], key, idxs[pos]), chunkSizes[pos]).iterator();
+	}
+
+	protected final boolean exists(int pos, Term[] key) {
+		return dbs[pos].get(syms[pos], key, idxs[pos]).iterator().hasNext();
+	}
+
+	protected final void spawn(int pos, Iterator<Iterable<Term[]>> chunks, Term[] frame) {
+		eval.exec.recursivelyAddTask(eval.new CompiledRuleEvaluator(this, pos, chunks, frame));
+	}
+
+	protected final void report(Term[] args) {
+		eval.reportFact(rule.getHead().getSymbol(), args);
+	}
+
+	/**
+	 * Adds the literal at the given position (or the head, if the position is
+	 * the length of the body) to the message of an exception raised while
+	 * evaluating it.
+	 */
+	protected final EvaluationException wrap(int pos, EvaluationException e) {
+		Object l = pos < rule.getBodySize() ? rule.getBody(pos) : rule.getHead();
+		return new EvaluationException("Exception raised while evaluating the literal: " + l + "\n\n" + e.getMessage());
+	}
+
+}
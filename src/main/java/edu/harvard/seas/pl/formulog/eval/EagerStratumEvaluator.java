@@ -32,7 +32,7 @@ import edu.harvard.seas.pl.formulog.ast.Var;
 import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
 import edu.harvard.seas.pl.formulog.eval.SemiNaiveRule.DeltaSymbol;
 import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
-import edu.harvard.seas.pl.formulog.unification.OverwriteSubstitution;
+import edu.harvard.seas.pl.formulog.unification.ArraySubstitution;
 import edu.harvard.seas.pl.formulog.unification.Substitution;
 import edu.harvard.seas.pl.formulog.util.AbstractFJPTask;
 import edu.harvard.seas.pl.formulog.util.CountingFJP;
@@ -91,7 +91,7 @@ public final class EagerStratumEvaluator extends AbstractStratumEvaluator {
 		}
 	}
 
-	Iterable<Iterable<Term[]>> lookup(IndexedRule r, int pos, OverwriteSubstitution s) throws EvaluationException {
+	Iterable<Iterable<Term[]>> lookup(IndexedRule r, int pos, ArraySubstitution s) throws EvaluationException {
 		SimplePredicate predicate = (SimplePredicate) r.getBody(pos);
 		int idx = r.getDbIndex(pos);
 		Term[] args = predicate.getArgs();
@@ -121,11 +121,11 @@ public final class EagerStratumEvaluator extends AbstractStratumEvaluator {
 		final SimplePredicate head;
 		final SimpleLiteral[] body;
 		final int startPos;
-		final OverwriteSubstitution s;
+		final ArraySubstitution s;
 		final Iterator<Iterable<Term[]>> it;
 
 		protected RuleSuffixEvaluator(IndexedRule rule, SimplePredicate head, SimpleLiteral[] body, int pos,
-				OverwriteSubstitution s, Iterator<Iterable<Term[]>> it) {
+				ArraySubstitution s, Iterator<Iterable<Term[]>> it) {
 			super(exec);
 			this.rule = rule;
 			this.head = head;
@@ -135,7 +135,7 @@ public final class EagerStratumEvaluator extends AbstractStratumEvaluator {
 			this.it = it;
 		}
 
-		protected RuleSuffixEvaluator(IndexedRule rule, int pos, OverwriteSubstitution s,
+		protected RuleSuffixEvaluator(IndexedRule rule, int pos, ArraySubstitution s,
 				Iterator<Iterable<Term[]>> it) {
 			super(exec);
 			this.rule = rule;
@@ -322,7 +322,7 @@ public final class EagerStratumEvaluator extends AbstractStratumEvaluator {
 		void evaluate() throws EvaluationException {
 			int len = rule.getBodySize();
 			int pos = 0;
-			OverwriteSubstitution s = new OverwriteSubstitution();
+			ArraySubstitution s = new ArraySubstitution(rule.getNumSlots());
 			loop: for (; pos < len; ++pos) {
 				SimpleLiteral l = rule.getBody(pos);
 				try {
@@ -23,11 +23,17 @@ package edu.harvard.seas.pl.formulog.eval;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
 
 import edu.harvard.seas.pl.formulog.ast.Rule;
-import edu.harvard.seas.pl.formulog.util.Util;
+import edu.harvard.seas.pl.formulog.ast.SlotVar;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Var;
+import edu.harvard.seas.pl.formulog.unification.SimpleSubstitution;
+import edu.harvard.seas.pl.formulog.unification.Substitution;
 import edu.harvard.seas.pl.formulog.validating.ast.Assignment;
 import edu.harvard.seas.pl.formulog.validating.ast.Check;
 import edu.harvard.seas.pl.formulog.validating.ast.Destructor;
@@ -40,10 +46,25 @@ public class IndexedRule implements Rule<SimplePredicate, SimpleLiteral> {
 	private final SimplePredicate head;
 	private final List<SimpleLiteral> body;
 	private final List<Integer> idxs;
+	private final int numSlots;
 
 	private IndexedRule(Rule<SimplePredicate, SimpleLiteral> rule, Function<SimplePredicate, Integer> makeIndex) {
-		head = rule.getHead();
-		body = Util.iterableToList(rule);
+		Set<Var> vars = new LinkedHashSet<>();
+		for (SimpleLiteral l : rule) {
+			vars.addAll(l.varSet());
+		}
+		vars.addAll(rule.getHead().varSet());
+		SimpleSubstitution s = new SimpleSubstitution();
+		int slot = 0;
+		for (Var x : vars) {
+			s.put(x, SlotVar.make(x, slot++));
+		}
+		numSlots = slot;
+		head = assignSlots(rule.getHead(), s);
+		body = new ArrayList<>();
+		for (SimpleLiteral l : rule) {
+			body.add(assignSlots(l, s));
+		}
 		idxs = createIndexes(makeIndex);
 	}
 
@@ -52,6 +73,52 @@ public class IndexedRule implements Rule<SimplePredicate, SimpleLiteral> {
 		return new IndexedRule(rule, makeIndex);
 	}
 
+	/**
+	 * Replaces every rule variable with a slot variable, so that rule evaluation
+	 * can keep bindings in an array instead of a hash map.
+	 */
+	private static <L extends SimpleLiteral> L assignSlots(L lit, Substitution s) {
+		SimpleLiteral l = lit.accept(new SimpleLiteralVisitor<Void, SimpleLiteral>() {
+
+			@Override
+			public SimpleLiteral visit(Assignment assignment, Void input) {
+				Var x = (Var) assignment.getDef().applySubstitution(s);
+				return Assignment.make(x, assignment.getVal().applySubstitution(s));
+			}
+
+			@Override
+			public SimpleLiteral visit(Check check, Void input) {
+				Term lhs = check.getLhs().applySubstitution(s);
+				Term rhs = check.getRhs().applySubstitution(s);
+				return Check.make(lhs, rhs, check.isNegated());
+			}
+
+			@Override
+			public SimpleLiteral visit(Destructor destructor, Void input) {
+				Term x = destructor.getScrutinee().applySubstitution(s);
+				Var[] bindings = destructor.getBindings().clone();
+				for (int i = 0; i < bindings.length; ++i) {
+					bindings[i] = (Var) bindings[i].applySubstitution(s);
+				}
+				return Destructor.make(x, destructor.getSymbol(), bindings);
+			}
+
+			@Override
+			public SimpleLiteral visit(SimplePredicate predicate, Void input) {
+				Term[] args = predicate.getArgs().clone();
+				for (int i = 0; i < args.length; ++i) {
+					args[i] = args[i].applySubstitution(s);
+				}
+				return SimplePredicate.make(predicate.getSymbol(), args, predicate.getBindingPattern(),
+						predicate.isNegated());
+			}
+
+		}, null);
+		@SuppressWarnings("unchecked")
+		L res = (L) l;
+		return res;
+	}
+
 	private List<Integer> createIndexes(Function<SimplePredicate, Integer> makeIndex) {
 		List<Integer> idxs = new ArrayList<>();
 		for (SimpleLiteral a : body) {
@@ -101,6 +168,10 @@ public class IndexedRule implements Rule<SimplePredicate, SimpleLiteral> {
 		return idxs.get(idx);
 	}
 
+	public int getNumSlots() {
+		return numSlots;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -0,0 +1,281 @@
+package edu.harvard.seas.pl.formulog.eval;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.harvard.seas.pl.formulog.ast.BindingType;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Terms;
+import edu.harvard.seas.pl.formulog.ast.Var;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
+import edu.harvard.seas.pl.formulog.eval.SemiNaiveRule.DeltaSymbol;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.validating.ast.SimpleLiteral;
+import edu.harvard.seas.pl.formulog.validating.ast.SimpleLiteralTag;
+import edu.harvard.seas.pl.formulog.validating.ast.SimplePredicate;
+
+/**
+ * A worst-case optimal (leapfrog triejoin) plan for a rule whose body is a
+ * conjunction of positive predicates over variables and ground terms. The
+ * variables are ordered by their first occurrence in the body, and each
+ * predicate is read through an index ordered by its ground positions followed
+ * by its variables in that order. The values of a variable are then found by
+ * intersecting the predicates that mention it, given the values of the
+ * variables before it, instead of by nested loops over one predicate at a
+ * time.
+ */
+class LeapfrogJoin {
+
+	private final IndexedRule rule;
+	private final Var[] vars;
+	private final Atom[] atoms;
+	private final Atom[][] atomsByVar;
+
+	private LeapfrogJoin(IndexedRule rule, Var[] vars, Atom[] atoms, Atom[][] atomsByVar) {
+		this.rule = rule;
+		this.vars = vars;
+		this.atoms = atoms;
+		this.atomsByVar = atomsByVar;
+	}
+
+	/**
+	 * Returns a plan for the rule, creating the indices it needs, or null if the
+	 * rule is not of the right shape. This must not be called while the
+	 * relations of the rule are being read or updated.
+	 */
+	public static LeapfrogJoin make(IndexedRule rule, SortedIndexedFactDb db, SortedIndexedFactDb deltaDb) {
+		if (rule.getBodySize() < 2) {
+			return null;
+		}
+		Map<Var, Integer> ranks = new LinkedHashMap<>();
+		for (SimpleLiteral l : rule) {
+			if (!l.getTag().equals(SimpleLiteralTag.PREDICATE)) {
+				return null;
+			}
+			SimplePredicate pred = (SimplePredicate) l;
+			Term[] args = pred.getArgs();
+			// The indices of a join can leave out positions, which lattice relations
+			// do not allow.
+			if (pred.isNegated() || args.length == 0 || pred.getSymbol().getLattice() != null) {
+				return null;
+			}
+			BindingType[] pat = pred.getBindingPattern();
+			List<Var> seen = new ArrayList<>();
+			for (int i = 0; i < args.length; ++i) {
+				Term arg = args[i];
+				if (arg instanceof Var) {
+					if (seen.contains(arg)) {
+						return null;
+					}
+					seen.add((Var) arg);
+					if (!pat[i].isIgnored() && !ranks.containsKey(arg)) {
+						ranks.put((Var) arg, ranks.size());
+					}
+				} else if (!arg.isGround() || arg.containsUnevaluatedTerm()) {
+					return null;
+				}
+			}
+		}
+		Var[] vars = ranks.keySet().toArray(new Var[0]);
+		Atom[] atoms = new Atom[rule.getBodySize()];
+		List<List<Atom>> byVar = new ArrayList<>();
+		for (int i = 0; i < vars.length; ++i) {
+			byVar.add(new ArrayList<>());
+		}
+		for (int i = 0; i < atoms.length; ++i) {
+			Atom atom = new Atom((SimplePredicate) rule.getBody(i), ranks, vars.length, db, deltaDb);
+			atoms[i] = atom;
+			for (int j = 0; j < vars.length; ++j) {
+				if (atom.varPos[j] >= 0) {
+					byVar.get(j).add(atom);
+				}
+			}
+		}
+		Atom[][] atomsByVar = new Atom[vars.length][];
+		for (int i = 0; i < vars.length; ++i) {
+			atomsByVar[i] = byVar.get(i).toArray(new Atom[0]);
+		}
+		return new LeapfrogJoin(rule, vars, atoms, atomsByVar);
+	}
+
+	public IndexedRule getRule() {
+		return rule;
+	}
+
+	public int getNumVars() {
+		return vars.length;
+	}
+
+	public Var getVar(int i) {
+		return vars[i];
+	}
+
+	/**
+	 * Returns whether every predicate that does not mention any of the join
+	 * variables holds.
+	 */
+	public boolean checkGroundAtoms() {
+		for (Atom atom : atoms) {
+			if (atom.numVars == 0 && atom.seek(null, 0, Terms.minTerm, true) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Passes each value of the variable at <code>depth</code> that is consistent
+	 * with the values of the variables before it (given in <code>vals</code>) to
+	 * the consumer, in increasing order of term id.
+	 */
+	public void forEachValue(int depth, Term[] vals, ValueConsumer k) throws EvaluationException {
+		Atom[] as = atomsByVar[depth];
+		int n = as.length;
+		Term[] cur = new Term[n];
+		int p = 0;
+		for (int i = 0; i < n; ++i) {
+			cur[i] = as[i].seek(vals, depth, Terms.minTerm, true);
+			if (cur[i] == null) {
+				return;
+			}
+			if (cur[i].getId() > cur[p].getId()) {
+				p = i;
+			}
+		}
+		Term max = cur[p];
+		int matched = 1;
+		while (true) {
+			if (matched == n) {
+				k.accept(max);
+				cur[p] = as[p].seek(vals, depth, max, false);
+				if (cur[p] == null) {
+					return;
+				}
+				max = cur[p];
+				matched = 1;
+				continue;
+			}
+			p = (p + 1) % n;
+			if (cur[p].getId() != max.getId()) {
+				cur[p] = as[p].seek(vals, depth, max, true);
+				if (cur[p] == null) {
+					return;
+				}
+				if (cur[p].getId() != max.getId()) {
+					max = cur[p];
+					matched = 1;
+					continue;
+				}
+			}
+			matched++;
+		}
+	}
+
+	@FunctionalInterface
+	public static interface ValueConsumer {
+
+		void accept(Term val) throws EvaluationException;
+
+	}
+
+	private static class Atom {
+
+		final SortedIndexedFactDb db;
+		final RelationSymbol sym;
+		final int index;
+		final Term[] consts;
+		// The position of each join variable in the predicate, or -1 if it does not
+		// appear there.
+		final int[] varPos;
+		final int numVars;
+
+		public Atom(SimplePredicate pred, Map<Var, Integer> ranks, int totalVars, SortedIndexedFactDb db,
+				SortedIndexedFactDb deltaDb) {
+			RelationSymbol sym = pred.getSymbol();
+			if (sym instanceof DeltaSymbol) {
+				sym = ((DeltaSymbol) sym).getBaseSymbol();
+				db = deltaDb;
+			}
+			this.db = db;
+			this.sym = sym;
+			Term[] args = pred.getArgs();
+			consts = new Term[args.length];
+			varPos = new int[totalVars];
+			Arrays.fill(varPos, -1);
+			List<Integer> order = new ArrayList<>();
+			for (int i = 0; i < args.length; ++i) {
+				Integer rank = ranks.get(args[i]);
+				if (rank != null) {
+					varPos[rank] = i;
+				} else if (!(args[i] instanceof Var)) {
+					consts[i] = args[i];
+					order.add(i);
+				}
+			}
+			int n = 0;
+			for (int i : varPos) {
+				if (i >= 0) {
+					order.add(i);
+					n++;
+				}
+			}
+			numVars = n;
+			index = db.ensureOrderedIndex(sym, order);
+		}
+
+		/**
+		 * Returns the least value of the variable at <code>depth</code> that is at
+		 * least (or, if not <code>inclusive</code>, greater than) <code>val</code>,
+		 * among the tuples that agree with the constants of the predicate and the
+		 * values of the variables before it.
+		 */
+		Term seek(Term[] vals, int depth, Term val, boolean inclusive) {
+			Term[] lower = bounds(vals, depth, val, inclusive ? Terms.minTerm : Terms.maxTerm);
+			Term[] upper = bounds(vals, depth, Terms.maxTerm, Terms.maxTerm);
+			Term[] tup = inclusive ? db.ceiling(sym, index, lower, upper) : db.higher(sym, index, lower, upper);
+			if (tup == null) {
+				return null;
+			}
+			return numVars == 0 ? Terms.minTerm : tup[varPos[depth]];
+		}
+
+		private Term[] bounds(Term[] vals, int depth, Term val, Term rest) {
+			Term[] tup = new Term[consts.length];
+			for (int i = 0; i < tup.length; ++i) {
+				tup[i] = consts[i] == null ? rest : consts[i];
+			}
+			for (int i = 0; i < varPos.length; ++i) {
+				int pos = varPos[i];
+				if (pos >= 0) {
+					tup[pos] = i < depth ? vals[i] : i == depth ? val : rest;
+				}
+			}
+			return tup;
+		}
+
+	}
+
+}
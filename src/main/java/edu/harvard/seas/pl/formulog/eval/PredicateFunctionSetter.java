@@ -21,8 +21,15 @@ package edu.harvard.seas.pl.formulog.eval;
  */
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.harvard.seas.pl.formulog.Configuration;
 
 import edu.harvard.seas.pl.formulog.ast.BindingType;
 import edu.harvard.seas.pl.formulog.ast.BoolTerm;
@@ -32,6 +39,7 @@ import edu.harvard.seas.pl.formulog.ast.Constructors;
 import edu.harvard.seas.pl.formulog.ast.Expr;
 import edu.harvard.seas.pl.formulog.ast.Exprs.ExprVisitor;
 import edu.harvard.seas.pl.formulog.ast.Fold;
+import edu.harvard.seas.pl.formulog.ast.FunctionCallFactory;
 import edu.harvard.seas.pl.formulog.ast.FunctionCallFactory.FunctionCall;
 import edu.harvard.seas.pl.formulog.ast.LetFunExpr;
 import edu.harvard.seas.pl.formulog.ast.MatchClause;
@@ -44,6 +52,7 @@ import edu.harvard.seas.pl.formulog.ast.UserPredicate;
 import edu.harvard.seas.pl.formulog.ast.Var;
 import edu.harvard.seas.pl.formulog.db.IndexedFactDb;
 import edu.harvard.seas.pl.formulog.db.IndexedFactDbBuilder;
+import edu.harvard.seas.pl.formulog.functions.AggregateFunctionDef;
 import edu.harvard.seas.pl.formulog.functions.DummyFunctionDef;
 import edu.harvard.seas.pl.formulog.functions.FunctionDef;
 import edu.harvard.seas.pl.formulog.functions.FunctionDefManager;
@@ -242,7 +251,9 @@ public class PredicateFunctionSetter {
 		}
 		final int arity2 = arity;
 		ConstructorSymbol tupSym = (arity > 1) ? GlobalSymbolManager.lookupTupleSymbol(arity) : null;
-		return new PredicateFunctionDef() {
+		int memoizeThreshold = Configuration.memoizeThreshold();
+		Map<List<Object>, Term> foldMemo = new ConcurrentHashMap<>();
+		return new AggregateFunctionDef() {
 
 			@Override
 			public FunctionSymbol getSymbol() {
@@ -254,18 +265,67 @@ public class PredicateFunctionSetter {
 				args = fillInPaddedArgs(funcSym, paddedArgs, args);
 				Term tail = Constructors.makeZeroAry(BuiltInConstructorSymbol.NIL);
 				for (Term[] fact : db.get(predSym, args, idx)) {
-					Term[] proj = new Term[arity2];
-					int j = 0;
+					tail = Constructors.make(BuiltInConstructorSymbol.CONS, new Term[] { project(fact), tail });
+				}
+				return tail;
+			}
+
+			@Override
+			public Term fold(FunctionDef f, Term acc, Term[] args) throws EvaluationException {
+				// Memoized following the same policy as function calls.
+				boolean memoize = memoizeThreshold > -1 && !FunctionCallFactory.hasSideEffects(f.getSymbol());
+				List<Object> key = null;
+				if (memoize) {
+					key = new ArrayList<>(args.length + 2);
+					key.add(f.getSymbol());
+					key.add(acc);
+					key.addAll(Arrays.asList(args));
+					Term r = foldMemo.get(key);
+					if (r != null) {
+						return r;
+					}
+				}
+				long start = System.nanoTime();
+				args = fillInPaddedArgs(funcSym, paddedArgs, args);
+				// The list built by evaluate() holds the facts in reverse, so
+				// walk them backwards to fold in the same order.
+				List<Term[]> facts = new ArrayList<>();
+				for (Term[] fact : db.get(predSym, args, idx)) {
+					facts.add(fact);
+				}
+				Term[] fargs = new Term[2];
+				for (int k = facts.size() - 1; k >= 0; --k) {
+					fargs[0] = acc;
+					fargs[1] = project(facts.get(k));
+					acc = f.evaluate(fargs);
+				}
+				long time = (System.nanoTime() - start) / 1000000;
+				if (Configuration.recordFuncDiagnostics) {
+					Configuration.recordFuncTime(funcSym, time);
+				}
+				if (memoize && time >= memoizeThreshold) {
+					foldMemo.put(key, acc);
+				}
+				return acc;
+			}
+
+			private Term project(Term[] fact) {
+				if (tupSym == null) {
 					for (int i = 0; i < bindings.length; ++i) {
 						if (bindings[i].isFree()) {
-							proj[j] = fact[i];
-							++j;
+							return fact[i];
 						}
 					}
-					Term elt = tupSym == null ? proj[0] : Constructors.make(tupSym, proj);
-					tail = Constructors.make(BuiltInConstructorSymbol.CONS, new Term[] { elt, tail });
 				}
-				return tail;
+				Term[] proj = new Term[arity2];
+				int j = 0;
+				for (int i = 0; i < bindings.length; ++i) {
+					if (bindings[i].isFree()) {
+						proj[j] = fact[i];
+						++j;
+					}
+				}
+				return Constructors.make(tupSym, proj);
 			}
 
 			@Override
@@ -22,8 +22,16 @@ package edu.harvard.seas.pl.formulog.eval;
 
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.lang3.time.StopWatch;
 
@@ -33,9 +41,11 @@ import edu.harvard.seas.pl.formulog.ast.Term;
 import edu.harvard.seas.pl.formulog.ast.UserPredicate;
 import edu.harvard.seas.pl.formulog.ast.Var;
 import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
+import edu.harvard.seas.pl.formulog.db.TupleBuffer;
 import edu.harvard.seas.pl.formulog.eval.SemiNaiveRule.DeltaSymbol;
+import edu.harvard.seas.pl.formulog.symbols.LatticeType;
 import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
-import edu.harvard.seas.pl.formulog.unification.OverwriteSubstitution;
+import edu.harvard.seas.pl.formulog.unification.ArraySubstitution;
 import edu.harvard.seas.pl.formulog.unification.Substitution;
 import edu.harvard.seas.pl.formulog.util.AbstractFJPTask;
 import edu.harvard.seas.pl.formulog.util.CountingFJP;
@@ -50,36 +60,79 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
 
 	final int stratumNum;
 	final SortedIndexedFactDb db;
-	SortedIndexedFactDb deltaDb;
-	SortedIndexedFactDb nextDeltaDb;
+	final SortedIndexedFactDb deltaDb;
+	final TupleBuffer nextDeltaBuffer;
 	final CountingFJP exec;
 	final Set<RelationSymbol> trackedRelations;
+	final AdaptiveJoinPlanner planner;
+	final Set<RelationSymbol> stratumSymbols = new HashSet<>();
+	final Map<IndexedRule, LeapfrogJoin> leapfrogPlans = new HashMap<>();
+	final Map<IndexedRule, CompiledRule> compiledRules = new HashMap<>();
+	final Map<RelationSymbol, Integer> latticeIndices = new HashMap<>();
 	volatile boolean changed;
 
 	static final int taskSize = Configuration.taskSize;
 	static final int smtTaskSize = Configuration.smtTaskSize;
-
-	public RoundBasedStratumEvaluator(int stratumNum, SortedIndexedFactDb db,
-			SortedIndexedFactDb deltaDb, SortedIndexedFactDb nextDeltaDb, Iterable<IndexedRule> rules, CountingFJP exec,
-			Set<RelationSymbol> trackedRelations) {
+	static final boolean leapfrogJoins = Configuration.leapfrogJoins;
+	// Compiled rules do not record how long they take.
+	static final boolean compileRules = Configuration.compileRules && !Configuration.recordRuleDiagnostics;
+
+	static final boolean smtAsync = Configuration.smtAsync && !SemiNaiveEvaluation.sequential;
+	// Threads that evaluate literals making SMT calls, so that pool threads do
+	// not sit waiting on a solver.
+	static final ExecutorService smtExec = smtAsync
+			? Executors.newFixedThreadPool(Configuration.smtAsyncThreads, r -> {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				return t;
+			})
+			: null;
+
+	public RoundBasedStratumEvaluator(int stratumNum, SortedIndexedFactDb db, SortedIndexedFactDb deltaDb,
+			TupleBuffer nextDeltaBuffer, Iterable<IndexedRule> rules, CountingFJP exec,
+			Set<RelationSymbol> trackedRelations, AdaptiveJoinPlanner planner) {
 		super(rules);
 		this.stratumNum = stratumNum;
 		this.db = db;
 		this.deltaDb = deltaDb;
-		this.nextDeltaDb = nextDeltaDb;
+		this.nextDeltaBuffer = nextDeltaBuffer;
 		this.exec = exec;
 		this.trackedRelations = trackedRelations;
+		this.planner = planner;
+		for (IndexedRule r : rules) {
+			stratumSymbols.add(r.getHead().getSymbol());
+		}
+		for (RelationSymbol sym : stratumSymbols) {
+			if (sym.getLattice() != null) {
+				// The index itself is created during setup.
+				latticeIndices.put(sym, db.ensureIndex(sym, latticeKeyPattern(sym)));
+			}
+		}
+	}
+
+	/**
+	 * The binding pattern of the index used to look up the current value of a key
+	 * in a lattice relation.
+	 */
+	static BindingType[] latticeKeyPattern(RelationSymbol sym) {
+		BindingType[] pat = new BindingType[sym.getArity()];
+		Arrays.fill(pat, BindingType.BOUND);
+		pat[pat.length - 1] = BindingType.FREE;
+		return pat;
 	}
 
 	@Override
 	public void evaluate() throws EvaluationException {
-		this.deltaDb.clear();
-		this.nextDeltaDb.clear();
+		// Other strata might be using the delta relations of their own symbols at the
+		// same time.
+		for (RelationSymbol sym : stratumSymbols) {
+			deltaDb.clear(sym);
+			nextDeltaBuffer.clear(sym);
+		}
 		int round = 0;
 		StopWatch watch = recordRoundStart(round);
-		for (IndexedRule r : firstRoundRules) {
-			exec.externallyAddTask(new RulePrefixEvaluator(r));
-		}
+		replan(firstRoundRules);
+		submit(makeRuleEvaluators(firstRoundRules));
 		exec.blockUntilFinished();
 		if (exec.hasFailed()) {
 			throw exec.getFailureCause();
@@ -90,13 +143,22 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
 			round++;
 			watch = recordRoundStart(round);
 			changed = false;
+			List<RelationSymbol> deltas = new ArrayList<>();
 			for (RelationSymbol delta : laterRoundRules.keySet()) {
 				if (!deltaDb.isEmpty(delta)) {
-					for (IndexedRule r : laterRoundRules.get(delta)) {
-						exec.externallyAddTask(new RulePrefixEvaluator(r));
-					}
+					deltas.add(delta);
 				}
 			}
+			// Replanning can create indices, so it has to be done before any rule
+			// of this round starts reading the database.
+			for (RelationSymbol delta : deltas) {
+				replan(laterRoundRules.get(delta));
+			}
+			List<AbstractFJPTask> tasks = new ArrayList<>();
+			for (RelationSymbol delta : deltas) {
+				tasks.addAll(makeRuleEvaluators(laterRoundRules.get(delta)));
+			}
+			submit(tasks);
 			exec.blockUntilFinished();
 			if (exec.hasFailed()) {
 				throw exec.getFailureCause();
@@ -106,12 +168,92 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
 		}
 	}
 
+	void replan(Set<IndexedRule> rules) {
+		if (planner == null) {
+			return;
+		}
+		List<IndexedRule> newRules = new ArrayList<>();
+		for (Iterator<IndexedRule> it = rules.iterator(); it.hasNext();) {
+			IndexedRule r = it.next();
+			IndexedRule r2 = planner.replan(r);
+			if (r2 != r) {
+				it.remove();
+				splitPositions.remove(r);
+				smtPositions.remove(r);
+				leapfrogPlans.remove(r);
+				compiledRules.remove(r);
+				newRules.add(r2);
+			}
+		}
+		SmtCallFinder scf = new SmtCallFinder();
+		for (IndexedRule r : newRules) {
+			rules.add(r);
+			processPositions(r, scf);
+		}
+	}
+
+	/*
+	 * Making an evaluator can create indices (for a leapfrog join), so all the
+	 * evaluators of a round are made before any of them is submitted.
+	 */
+	List<AbstractFJPTask> makeRuleEvaluators(Iterable<IndexedRule> rules) {
+		List<AbstractFJPTask> tasks = new ArrayList<>();
+		for (IndexedRule r : rules) {
+			tasks.add(makeRuleEvaluator(r));
+		}
+		return tasks;
+	}
+
+	void submit(List<AbstractFJPTask> tasks) {
+		for (AbstractFJPTask task : tasks) {
+			exec.externallyAddTask(task);
+		}
+	}
+
+	AbstractFJPTask makeRuleEvaluator(IndexedRule r) {
+		if (leapfrogJoins) {
+			if (!leapfrogPlans.containsKey(r)) {
+				leapfrogPlans.put(r, LeapfrogJoin.make(r, db, deltaDb));
+			}
+			LeapfrogJoin join = leapfrogPlans.get(r);
+			if (join != null) {
+				return new LeapfrogEvaluator(join);
+			}
+		}
+		if (compileRules) {
+			if (!compiledRules.containsKey(r)) {
+				compiledRules.put(r, canCompile(r) ? RuleCompiler.compile(r, this) : null);
+			}
+			CompiledRule cr = compiledRules.get(r);
+			if (cr != null) {
+				return new CompiledRuleEvaluator(cr, 0, null, null);
+			}
+		}
+		return new RulePrefixEvaluator(r);
+	}
+
+	boolean canCompile(IndexedRule r) {
+		// Compiled rules do not hand SMT calls off to other threads.
+		if (smtAsync) {
+			for (boolean b : smtPositions.get(r)) {
+				if (b) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	void reportFact(RelationSymbol sym, Term[] args, Substitution s) throws EvaluationException {
 		Term[] newArgs = new Term[args.length];
 		for (int i = 0; i < args.length; ++i) {
 			newArgs[i] = args[i].normalize(s);
 		}
-		if (!db.hasFact(sym, newArgs) && nextDeltaDb.add(sym, newArgs)) {
+		reportFact(sym, newArgs);
+	}
+
+	void reportFact(RelationSymbol sym, Term[] newArgs) {
+		if (!db.hasFact(sym, newArgs) && !isSuperseded(sym, newArgs) && nextDeltaBuffer.add(sym, newArgs)) {
 			changed = true;
 			if (trackedRelations.contains(sym)) {
 				System.err.println("[TRACKED] " + UserPredicate.make(sym, newArgs, false));
@@ -119,47 +261,213 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
 		}
 	}
 
+	boolean isSuperseded(RelationSymbol sym, Term[] tup) {
+		Integer idx = latticeIndices.get(sym);
+		if (idx == null) {
+			return false;
+		}
+		Term[] cur = lookupLatticeValue(sym, idx, tup);
+		int last = tup.length - 1;
+		return cur != null && !sym.getLattice().improves(tup[last], cur[last]);
+	}
+
+	Term[] lookupLatticeValue(RelationSymbol sym, int idx, Term[] tup) {
+		Iterator<Term[]> it = db.get(sym, tup, idx).iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * Keeps the best new value for each key of a lattice relation, provided that
+	 * it improves on the value in the database (which is then removed). Only
+	 * improvements make it into the delta.
+	 */
+	Term[][] mergeLatticeValues(RelationSymbol sym, int idx, Term[][] tups) {
+		LatticeType lattice = sym.getLattice();
+		int last = sym.getArity() - 1;
+		Map<List<Term>, Term[]> best = new HashMap<>();
+		for (Term[] tup : tups) {
+			List<Term> key = Arrays.asList(tup).subList(0, last);
+			Term[] other = best.get(key);
+			if (other == null || lattice.improves(tup[last], other[last])) {
+				best.put(key, tup);
+			}
+		}
+		List<Term[]> improved = new ArrayList<>();
+		for (Term[] tup : best.values()) {
+			Term[] cur = lookupLatticeValue(sym, idx, tup);
+			if (cur == null) {
+				improved.add(tup);
+			} else if (lattice.improves(tup[last], cur[last])) {
+				db.remove(sym, cur);
+				improved.add(tup);
+			}
+		}
+		return improved.toArray(new Term[0][]);
+	}
+
 	void updateDbs() {
 		StopWatch watch = recordDbUpdateStart();
-		for (RelationSymbol sym : nextDeltaDb.getSymbols()) {
-			if (nextDeltaDb.isEmpty(sym)) {
+		for (RelationSymbol sym : stratumSymbols) {
+			deltaDb.clear(sym);
+			if (nextDeltaBuffer.isEmpty(sym)) {
 				continue;
 			}
-			Iterable<Iterable<Term[]>> answers = Util.splitIterable(nextDeltaDb.getAll(sym), taskSize);
-			exec.externallyAddTask(new UpdateDbTask(sym, answers.iterator()));
+			// Every index is loaded with the whole delta at once; the
+			// indices are independent of each other, so they can be loaded in
+			// parallel.
+			Term[][] tups = nextDeltaBuffer.toArray(sym);
+			Integer latticeIdx = latticeIndices.get(sym);
+			if (latticeIdx != null) {
+				tups = mergeLatticeValues(sym, latticeIdx, tups);
+			}
+			for (int i = 0; i < db.numIndices(sym); ++i) {
+				exec.externallyAddTask(new UpdateDbTask(db, sym, i, tups));
+			}
+			for (int i = 0; i < deltaDb.numIndices(sym); ++i) {
+				exec.externallyAddTask(new UpdateDbTask(deltaDb, sym, i, tups));
+			}
 		}
 		exec.blockUntilFinished();
-		SortedIndexedFactDb tmp = deltaDb;
-		deltaDb = nextDeltaDb;
-		nextDeltaDb = tmp;
-		nextDeltaDb.clear();
+		for (RelationSymbol sym : stratumSymbols) {
+			nextDeltaBuffer.clear(sym);
+		}
 		recordDbUpdateEnd(watch);
 	}
 
 	@SuppressWarnings("serial")
 	class UpdateDbTask extends AbstractFJPTask {
 
+		final SortedIndexedFactDb target;
 		final RelationSymbol sym;
-		final Iterator<Iterable<Term[]>> it;
+		final int index;
+		final Term[][] tups;
 
-		protected UpdateDbTask(RelationSymbol sym, Iterator<Iterable<Term[]>> it) {
+		protected UpdateDbTask(SortedIndexedFactDb target, RelationSymbol sym, int index, Term[][] tups) {
 			super(exec);
+			this.target = target;
 			this.sym = sym;
-			this.it = it;
+			this.index = index;
+			this.tups = tups;
 		}
 
 		@Override
 		public void doTask() throws EvaluationException {
-			Iterable<Term[]> tups = it.next();
-			if (it.hasNext()) {
-				exec.recursivelyAddTask(new UpdateDbTask(sym, it));
+			target.addAllToIndex(sym, index, tups);
+		}
+
+	}
+
+	void leapfrog(LeapfrogJoin join, int depth, Term[] vals, ArraySubstitution s) throws EvaluationException {
+		if (depth == join.getNumVars()) {
+			SimplePredicate head = join.getRule().getHead();
+			reportFact(head.getSymbol(), head.getArgs(), s);
+			return;
+		}
+		join.forEachValue(depth, vals, v -> {
+			vals[depth] = v;
+			s.put(join.getVar(depth), v);
+			leapfrog(join, depth + 1, vals, s);
+		});
+	}
+
+	@SuppressWarnings("serial")
+	class LeapfrogEvaluator extends AbstractFJPTask {
+
+		final LeapfrogJoin join;
+
+		protected LeapfrogEvaluator(LeapfrogJoin join) {
+			super(exec);
+			this.join = join;
+		}
+
+		@Override
+		public void doTask() throws EvaluationException {
+			IndexedRule rule = join.getRule();
+			try {
+				if (!join.checkGroundAtoms()) {
+					return;
+				}
+				int n = join.getNumVars();
+				if (n == 0) {
+					leapfrog(join, 0, new Term[0], new ArraySubstitution(rule.getNumSlots()));
+					return;
+				}
+				// The work is split up by the values of the first variable.
+				List<Term> firsts = new ArrayList<>();
+				join.forEachValue(0, new Term[n], firsts::add);
+				for (int i = 0; i < firsts.size(); i += taskSize) {
+					List<Term> batch = firsts.subList(i, Math.min(i + taskSize, firsts.size()));
+					exec.recursivelyAddTask(new LeapfrogSuffixEvaluator(join, batch));
+				}
+			} catch (EvaluationException e) {
+				throw new EvaluationException(
+						"Exception raised while evaluating the rule:\n" + rule + "\n\n" + e.getMessage());
+			}
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	class LeapfrogSuffixEvaluator extends AbstractFJPTask {
+
+		final LeapfrogJoin join;
+		final List<Term> firsts;
+
+		protected LeapfrogSuffixEvaluator(LeapfrogJoin join, List<Term> firsts) {
+			super(exec);
+			this.join = join;
+			this.firsts = firsts;
+		}
+
+		@Override
+		public void doTask() throws EvaluationException {
+			IndexedRule rule = join.getRule();
+			try {
+				for (Term v : firsts) {
+					Term[] vals = new Term[join.getNumVars()];
+					ArraySubstitution s = new ArraySubstitution(rule.getNumSlots());
+					vals[0] = v;
+					s.put(join.getVar(0), v);
+					leapfrog(join, 1, vals, s);
+				}
+			} catch (EvaluationException e) {
+				throw new EvaluationException(
+						"Exception raised while evaluating the rule:\n" + rule + "\n\n" + e.getMessage());
+			}
+		}
+
+	}
+
+	@SuppressWarnings("serial")
+	class CompiledRuleEvaluator extends AbstractFJPTask {
+
+		final CompiledRule rule;
+		final int pos;
+		final Iterator<Iterable<Term[]>> chunks;
+		final Term[] frame;
+
+		protected CompiledRuleEvaluator(CompiledRule rule, int pos, Iterator<Iterable<Term[]>> chunks,
+				Term[] frame) {
+			super(exec);
+			this.rule = rule;
+			this.pos = pos;
+			this.chunks = chunks;
+			this.frame = frame;
+		}
+
+		@Override
+		public void doTask() throws EvaluationException {
+			try {
+				rule.evaluate(pos, chunks, frame);
+			} catch (EvaluationException | UncheckedEvaluationException e) {
+				throw new EvaluationException(
+						"Exception raised while evaluating the rule: " + rule.getRule() + "\n\n" + e.getMessage());
 			}
-			db.addAll(sym, tups);
 		}
 
 	}
 
-	Iterable<Iterable<Term[]>> lookup(IndexedRule r, int pos, OverwriteSubstitution s) throws EvaluationException {
+	Iterable<Iterable<Term[]>> lookup(IndexedRule r, int pos, ArraySubstitution s) throws EvaluationException {
 		SimplePredicate predicate = (SimplePredicate) r.getBody(pos);
 		int idx = r.getDbIndex(pos);
 		Term[] args = predicate.getArgs();
@@ -193,11 +501,11 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
 		final SimplePredicate head;
 		final SimpleLiteral[] body;
 		final int startPos;
-		final OverwriteSubstitution s;
+		final ArraySubstitution s;
 		final Iterator<Iterable<Term[]>> it;
 
 		protected RuleSuffixEvaluator(IndexedRule rule, SimplePredicate head, SimpleLiteral[] body, int pos,
-				OverwriteSubstitution s, Iterator<Iterable<Term[]>> it) {
+				ArraySubstitution s, Iterator<Iterable<Term[]>> it) {
 			super(exec);
 			this.rule = rule;
 			this.head = head;
@@ -207,7 +515,7 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
 			this.it = it;
 		}
 
-		protected RuleSuffixEvaluator(IndexedRule rule, int pos, OverwriteSubstitution s,
+		protected RuleSuffixEvaluator(IndexedRule rule, int pos, ArraySubstitution s,
 				Iterator<Iterable<Term[]>> it) {
 			super(exec);
 			this.rule = rule;
@@ -249,12 +557,20 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
 		void evaluate(Term[] ans) throws UncheckedEvaluationException {
 			SimplePredicate p = (SimplePredicate) body[startPos];
 			updateBinding(p, ans);
-			int pos = startPos + 1;
+			evaluateFrom(startPos + 1);
+		}
+
+		void evaluateFrom(int pos) throws UncheckedEvaluationException {
 			@SuppressWarnings("unchecked")
 			Iterator<Term[]>[] stack = new Iterator[rule.getBodySize()];
+			boolean[] smtPos = smtAsync ? smtPositions.get(rule) : null;
 			boolean movingRight = true;
 			while (pos > startPos) {
-				if (pos == body.length) {
+				if (movingRight && smtAsync && pos < body.length && smtPos[pos]) {
+					suspend(pos);
+					pos--;
+					movingRight = false;
+				} else if (pos == body.length) {
 					try {
 						reportFact(head.getSymbol(), head.getArgs(), s);
 					} catch (EvaluationException e) {
@@ -318,8 +634,7 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
 				} else {
 					Iterator<Term[]> it = stack[pos];
 					if (it != null && it.hasNext()) {
-						ans = it.next();
-						updateBinding((SimplePredicate) rule.getBody(pos), ans);
+						updateBinding((SimplePredicate) rule.getBody(pos), it.next());
 						movingRight = true;
 						pos++;
 					} else {
@@ -330,6 +645,30 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
 			}
 		}
 
+		/**
+		 * Hands the literal at the given position (which makes an SMT call) off to
+		 * the SMT threads; the rest of the rule is evaluated in a new task once the
+		 * literal has been evaluated.
+		 */
+		void suspend(int pos) {
+			ArraySubstitution s2 = s.copy();
+			SimpleLiteral l = body[pos];
+			exec.reportTaskStart();
+			smtExec.execute(() -> {
+				try {
+					if (evaluateLiteral(l, s2)) {
+						exec.externallyAddTask(new ResumedRuleSuffixEvaluator(rule, head, body, pos, s2));
+					}
+					exec.reportTaskCompletion();
+				} catch (EvaluationException e) {
+					exec.fail(new EvaluationException("Exception raised while evaluating the rule: " + rule
+							+ "\n\nException raised while evaluating the literal: " + l + "\n\n" + e.getMessage()));
+				} catch (RuntimeException e) {
+					exec.fail(new EvaluationException(e));
+				}
+			});
+		}
+
 		void updateBinding(SimplePredicate p, Term[] ans) {
 			Term[] args = p.getArgs();
 			BindingType[] pat = p.getBindingPattern();
@@ -342,6 +681,41 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
 
 	}
 
+	static boolean evaluateLiteral(SimpleLiteral l, Substitution s) throws EvaluationException {
+		switch (l.getTag()) {
+		case ASSIGNMENT:
+			((Assignment) l).assign(s);
+			return true;
+		case CHECK:
+			return ((Check) l).check(s);
+		case DESTRUCTOR:
+			return ((Destructor) l).destruct(s);
+		case PREDICATE:
+			break;
+		}
+		throw new AssertionError("impossible");
+	}
+
+	@SuppressWarnings("serial")
+	class ResumedRuleSuffixEvaluator extends RuleSuffixEvaluator {
+
+		protected ResumedRuleSuffixEvaluator(IndexedRule rule, SimplePredicate head, SimpleLiteral[] body, int pos,
+				ArraySubstitution s) {
+			super(rule, head, body, pos, s, null);
+		}
+
+		@Override
+		public void doTask() throws EvaluationException {
+			try {
+				evaluateFrom(startPos + 1);
+			} catch (UncheckedEvaluationException e) {
+				throw new EvaluationException(
+						"Exception raised while evaluating the rule: " + rule + "\n\n" + e.getMessage());
+			}
+		}
+
+	}
+
 	@SuppressWarnings("serial")
 	class RulePrefixEvaluator extends AbstractFJPTask {
 
@@ -373,7 +747,7 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
 		void evaluate() throws EvaluationException {
 			int len = rule.getBodySize();
 			int pos = 0;
-			OverwriteSubstitution s = new OverwriteSubstitution();
+			ArraySubstitution s = new ArraySubstitution(rule.getNumSlots());
 			loop: for (; pos < len; ++pos) {
 				SimpleLiteral l = rule.getBody(pos);
 				try {
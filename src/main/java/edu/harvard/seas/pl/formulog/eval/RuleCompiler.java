@@ -0,0 +1,489 @@
+package edu.harvard.seas.pl.formulog.eval;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.ALOAD;
+import org.apache.bcel.generic.ASTORE;
+import org.apache.bcel.generic.ArrayType;
+import org.apache.bcel.generic.BranchInstruction;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LOOKUPSWITCH;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.ObjectType;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.ReferenceType;
+import org.apache.bcel.generic.Type;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.BindingType;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Var;
+import edu.harvard.seas.pl.formulog.functions.TermCompiler;
+import edu.harvard.seas.pl.formulog.functions.TermCompiler.UnsupportedTermException;
+import edu.harvard.seas.pl.formulog.validating.ast.Assignment;
+import edu.harvard.seas.pl.formulog.validating.ast.Check;
+import edu.harvard.seas.pl.formulog.validating.ast.Destructor;
+import edu.harvard.seas.pl.formulog.validating.ast.SimpleLiteral;
+import edu.harvard.seas.pl.formulog.validating.ast.SimplePredicate;
+
+/**
+ * Generates a class for a rule in which the body is unrolled into nested
+ * loops, one per positive predicate, and the variables of the rule live in
+ * local variables. The tuples of a predicate are scanned in chunks; the first
+ * chunk is handled in place and the rest are handed off to new tasks, which
+ * re-enter the generated code at the loop for that predicate after restoring
+ * the variables from a saved frame.
+ * 
+ * Each rule gets its own class loader, so that the class can be unloaded once
+ * the rule is no longer used (e.g., after the rule has been replanned).
+ */
+class RuleCompiler extends ClassLoader {
+
+	private static final String superClass = "edu.harvard.seas.pl.formulog.eval.CompiledRule";
+	private static final ObjectType termType = new ObjectType("edu.harvard.seas.pl.formulog.ast.Term");
+	private static final ArrayType termArrayType = new ArrayType(termType, 1);
+	private static final ObjectType constructorType = new ObjectType("edu.harvard.seas.pl.formulog.ast.Constructor");
+	private static final ObjectType symbolType = new ObjectType("edu.harvard.seas.pl.formulog.symbols.Symbol");
+	private static final ObjectType exnType = new ObjectType("edu.harvard.seas.pl.formulog.eval.EvaluationException");
+	private static final ObjectType iteratorType = new ObjectType("java.util.Iterator");
+	private static final ObjectType iterableType = new ObjectType("java.lang.Iterable");
+
+	// Slots of the arguments of the generated method and of its fixed locals.
+	private static final int startPosSlot = 1;
+	private static final int chunksSlot = 2;
+	private static final int frameSlot = 3;
+	// The position of the literal being evaluated, for error messages.
+	private static final int posSlot = 4;
+	private static final int tupSlot = 5;
+	private static final int ctorSlot = 6;
+	private static final int exnSlot = 7;
+
+	private static final AtomicInteger cnt = new AtomicInteger();
+
+	/**
+	 * Returns a compiled version of the rule, or null if the rule uses a term
+	 * that the compiler does not handle.
+	 */
+	public static CompiledRule compile(IndexedRule rule, RoundBasedStratumEvaluator eval) {
+		String className = superClass + cnt.getAndIncrement();
+		ClassGen cg = new ClassGen(className, superClass, "", Const.ACC_PUBLIC | Const.ACC_SUPER, new String[0]);
+		cg.addEmptyConstructor(Const.ACC_PUBLIC);
+		InstructionFactory f = new InstructionFactory(cg);
+		InstructionList il = new InstructionList();
+		TermCompiler tc = new TermCompiler(f, il, superClass, exnSlot + 1);
+		BodyCompiler bc = new BodyCompiler(rule, f, il, tc);
+		try {
+			bc.compile();
+		} catch (UnsupportedTermException e) {
+			if (Configuration.debugCompile) {
+				System.err.println("[COMPILE] Not compiling rule " + rule + ": " + e.getMessage());
+			}
+			return null;
+		}
+		MethodGen mg = new MethodGen(Const.ACC_PUBLIC, Type.VOID,
+				new Type[] { Type.INT, iteratorType, termArrayType }, new String[] { "startPos", "chunks", "frame" },
+				"evaluate", className, il, cg.getConstantPool());
+		mg.addException(exnType.getClassName());
+		mg.addExceptionHandler(bc.tryStart, bc.tryEnd, bc.handler, exnType);
+		mg.setMaxStack();
+		mg.setMaxLocals();
+		cg.addMethod(mg.getMethod());
+		byte[] data = cg.getJavaClass().getBytes();
+		try {
+			Class<?> c = new RuleCompiler().defineClass(className, data, 0, data.length);
+			CompiledRule r = (CompiledRule) c.newInstance();
+			r.init(eval, rule, tc.getConstants().toArray());
+			if (Configuration.debugCompile) {
+				System.err.println("[COMPILE] Compiled rule " + rule);
+			}
+			return r;
+		} catch (InstantiationException | IllegalAccessException | LinkageError e) {
+			throw new AssertionError("Generated invalid bytecode for rule " + rule, e);
+		}
+	}
+
+	private static class BodyCompiler {
+
+		final IndexedRule rule;
+		final InstructionFactory f;
+		final InstructionList il;
+		final TermCompiler tc;
+		final int len;
+		// The variables that the body binds, in the order they are saved to a
+		// frame.
+		final List<Var> vars = new ArrayList<>();
+		final Map<Var, Integer> varSlots = new HashMap<>();
+		// The slot of the tuple iterator of each positive predicate, and the
+		// position of the closest positive predicate before each position.
+		final int[] itSlots;
+		final int[] prevLoop;
+		// The start of the loop of each positive predicate, where the next tuple
+		// is taken.
+		final InstructionHandle[] loopHeads;
+		final Map<Integer, List<BranchInstruction>> toLoopHead = new HashMap<>();
+		InstructionHandle tryStart;
+		InstructionHandle tryEnd;
+		InstructionHandle handler;
+
+		BodyCompiler(IndexedRule rule, InstructionFactory f, InstructionList il, TermCompiler tc) {
+			this.rule = rule;
+			this.f = f;
+			this.il = il;
+			this.tc = tc;
+			len = rule.getBodySize();
+			itSlots = new int[len];
+			prevLoop = new int[len + 1];
+			loopHeads = new InstructionHandle[len];
+		}
+
+		void compile() throws UnsupportedTermException {
+			Set<Var> bound = new LinkedHashSet<>();
+			int last = -1;
+			for (int i = 0; i < len; ++i) {
+				SimpleLiteral l = rule.getBody(i);
+				prevLoop[i] = last;
+				if (isLoop(l)) {
+					itSlots[i] = tc.newSlot();
+					last = i;
+				}
+				addBoundVars(l, bound);
+			}
+			prevLoop[len] = last;
+			for (Var x : bound) {
+				vars.add(x);
+				varSlots.put(x, tc.bind(x));
+			}
+			genInit();
+			// Everything after the initialization is covered by the exception
+			// handler.
+			tryStart = il.append(InstructionConst.NOP);
+			genEntries();
+			for (int i = 0; i < len; ++i) {
+				genSetPos(i);
+				SimpleLiteral l = rule.getBody(i);
+				switch (l.getTag()) {
+				case ASSIGNMENT:
+					genAssignment((Assignment) l);
+					break;
+				case CHECK:
+					genCheck((Check) l, i);
+					break;
+				case DESTRUCTOR:
+					genDestructor((Destructor) l, i);
+					break;
+				case PREDICATE:
+					if (isLoop(l)) {
+						genLoop((SimplePredicate) l, i);
+					} else {
+						genNegatedPredicate((SimplePredicate) l, i);
+					}
+					break;
+				}
+			}
+			genSetPos(len);
+			il.append(InstructionConst.ALOAD_0);
+			tc.genArgs(rule.getHead().getArgs());
+			il.append(f.createInvoke(superClass, "report", Type.VOID, new Type[] { termArrayType },
+					Const.INVOKEVIRTUAL));
+			genBack(Const.GOTO, len);
+			InstructionHandle ret = il.append(InstructionConst.RETURN);
+			for (Map.Entry<Integer, List<BranchInstruction>> e : toLoopHead.entrySet()) {
+				int pos = e.getKey();
+				InstructionHandle target = pos < 0 ? ret : loopHeads[pos];
+				for (BranchInstruction br : e.getValue()) {
+					br.setTarget(target);
+				}
+			}
+			tryEnd = ret;
+			handler = genHandler();
+		}
+
+		void addBoundVars(SimpleLiteral l, Set<Var> bound) {
+			switch (l.getTag()) {
+			case ASSIGNMENT:
+				bound.add(((Assignment) l).getDef());
+				break;
+			case CHECK:
+				break;
+			case DESTRUCTOR:
+				for (Var x : ((Destructor) l).getBindings()) {
+					bound.add(x);
+				}
+				break;
+			case PREDICATE:
+				if (isLoop(l)) {
+					SimplePredicate p = (SimplePredicate) l;
+					Term[] args = p.getArgs();
+					BindingType[] pat = p.getBindingPattern();
+					for (int j = 0; j < args.length; ++j) {
+						if (pat[j].isFree()) {
+							bound.add((Var) args[j]);
+						}
+					}
+				}
+				break;
+			}
+		}
+
+		/**
+		 * Every local starts out null, so that the verifier accepts the code that
+		 * saves the variables to a frame and the exception handler.
+		 */
+		void genInit() {
+			il.append(new PUSH(f.getConstantPool(), 0));
+			il.append(InstructionFactory.createStore(Type.INT, posSlot));
+			for (int i = 0; i < len; ++i) {
+				if (isLoop(rule.getBody(i))) {
+					il.append(InstructionConst.ACONST_NULL);
+					il.append(new ASTORE(itSlots[i]));
+				}
+			}
+			for (Var x : vars) {
+				il.append(InstructionConst.ACONST_NULL);
+				il.append(new ASTORE(varSlots.get(x)));
+			}
+		}
+
+		/**
+		 * Generates the code that, given a frame, restores the variables and jumps
+		 * to the loop that is being resumed.
+		 */
+		void genEntries() {
+			il.append(new ALOAD(frameSlot));
+			BranchInstruction toStart = InstructionFactory.createBranchInstruction(Const.IFNULL, null);
+			il.append(toStart);
+			for (int k = 0; k < vars.size(); ++k) {
+				il.append(new ALOAD(frameSlot));
+				il.append(new PUSH(f.getConstantPool(), k));
+				il.append(InstructionConst.AALOAD);
+				il.append(new ASTORE(varSlots.get(vars.get(k))));
+			}
+			List<Integer> loops = new ArrayList<>();
+			for (int i = 0; i < len; ++i) {
+				if (isLoop(rule.getBody(i))) {
+					loops.add(i);
+				}
+			}
+			int[] match = new int[loops.size()];
+			for (int k = 0; k < match.length; ++k) {
+				match[k] = loops.get(k);
+			}
+			il.append(InstructionFactory.createLoad(Type.INT, startPosSlot));
+			LOOKUPSWITCH sw = new LOOKUPSWITCH(match, new InstructionHandle[match.length], null);
+			il.append(sw);
+			sw.setTarget(il.append(InstructionConst.RETURN));
+			for (int k = 0; k < match.length; ++k) {
+				int pos = match[k];
+				sw.setTarget(k, il.append(InstructionConst.NOP));
+				genTakeChunk(pos);
+				genBranch(Const.GOTO, toLoopHead, pos);
+			}
+			toStart.setTarget(il.append(InstructionConst.NOP));
+		}
+
+		void genSetPos(int pos) {
+			il.append(new PUSH(f.getConstantPool(), pos));
+			il.append(InstructionFactory.createStore(Type.INT, posSlot));
+		}
+
+		void genAssignment(Assignment a) throws UnsupportedTermException {
+			tc.gen(a.getVal());
+			il.append(new ASTORE(varSlots.get(a.getDef())));
+		}
+
+		void genCheck(Check c, int pos) throws UnsupportedTermException {
+			tc.genEquals(c.getLhs(), c.getRhs());
+			genBack(c.isNegated() ? Const.IFNE : Const.IFEQ, pos);
+		}
+
+		void genDestructor(Destructor d, int pos) throws UnsupportedTermException {
+			tc.gen(d.getScrutinee());
+			il.append(f.createCheckCast(constructorType));
+			il.append(new ASTORE(ctorSlot));
+			tc.loadConst(d.getSymbol(), symbolType);
+			il.append(new ALOAD(ctorSlot));
+			il.append(f.createInvoke(constructorType.getClassName(), "getSymbol", symbolType, Type.NO_ARGS,
+					Const.INVOKEINTERFACE));
+			il.append(f.createInvoke("java.lang.Object", "equals", Type.BOOLEAN, new Type[] { Type.OBJECT },
+					Const.INVOKEVIRTUAL));
+			genBack(Const.IFEQ, pos);
+			il.append(new ALOAD(ctorSlot));
+			il.append(f.createInvoke(constructorType.getClassName(), "getArgs", termArrayType, Type.NO_ARGS,
+					Const.INVOKEINTERFACE));
+			il.append(new ASTORE(tupSlot));
+			Var[] xs = d.getBindings();
+			for (int j = 0; j < xs.length; ++j) {
+				il.append(new ALOAD(tupSlot));
+				il.append(new PUSH(f.getConstantPool(), j));
+				il.append(InstructionConst.AALOAD);
+				il.append(new ASTORE(varSlots.get(xs[j])));
+			}
+		}
+
+		void genNegatedPredicate(SimplePredicate p, int pos) throws UnsupportedTermException {
+			il.append(InstructionConst.ALOAD_0);
+			il.append(new PUSH(f.getConstantPool(), pos));
+			genKey(p);
+			il.append(f.createInvoke(superClass, "exists", Type.BOOLEAN, new Type[] { Type.INT, termArrayType },
+					Const.INVOKEVIRTUAL));
+			genBack(Const.IFNE, pos);
+		}
+
+		void genLoop(SimplePredicate p, int pos) throws UnsupportedTermException {
+			il.append(InstructionConst.ALOAD_0);
+			il.append(new PUSH(f.getConstantPool(), pos));
+			genKey(p);
+			il.append(f.createInvoke(superClass, "scan", iteratorType, new Type[] { Type.INT, termArrayType },
+					Const.INVOKEVIRTUAL));
+			il.append(new ASTORE(chunksSlot));
+			genHasNext(chunksSlot);
+			genBack(Const.IFEQ, pos);
+			genTakeChunk(pos);
+			// The loop: take the next tuple and bind the free variables.
+			loopHeads[pos] = il.append(new ALOAD(itSlots[pos]));
+			// The iterator is null if the loop is outside the part of the body that
+			// this call covers.
+			genBack(Const.IFNULL, -1);
+			genHasNext(itSlots[pos]);
+			genBack(Const.IFEQ, pos);
+			genNext(itSlots[pos], termArrayType);
+			il.append(new ASTORE(tupSlot));
+			Term[] args = p.getArgs();
+			BindingType[] pat = p.getBindingPattern();
+			for (int j = 0; j < args.length; ++j) {
+				if (pat[j].isFree()) {
+					il.append(new ALOAD(tupSlot));
+					il.append(new PUSH(f.getConstantPool(), j));
+					il.append(InstructionConst.AALOAD);
+					il.append(new ASTORE(varSlots.get(args[j])));
+				}
+			}
+		}
+
+		/**
+		 * Takes the next chunk of tuples for the predicate at the given position,
+		 * handing off the rest of the chunks to a new task.
+		 */
+		void genTakeChunk(int pos) {
+			genNext(chunksSlot, iterableType);
+			il.append(f.createInvoke(iterableType.getClassName(), "iterator", iteratorType, Type.NO_ARGS,
+					Const.INVOKEINTERFACE));
+			il.append(new ASTORE(itSlots[pos]));
+			genHasNext(chunksSlot);
+			BranchInstruction noMore = InstructionFactory.createBranchInstruction(Const.IFEQ, null);
+			il.append(noMore);
+			il.append(InstructionConst.ALOAD_0);
+			il.append(new PUSH(f.getConstantPool(), pos));
+			il.append(new ALOAD(chunksSlot));
+			genFrame();
+			il.append(f.createInvoke(superClass, "spawn", Type.VOID,
+					new Type[] { Type.INT, iteratorType, termArrayType }, Const.INVOKEVIRTUAL));
+			noMore.setTarget(il.append(InstructionConst.NOP));
+		}
+
+		void genKey(SimplePredicate p) throws UnsupportedTermException {
+			Term[] args = p.getArgs();
+			BindingType[] pat = p.getBindingPattern();
+			il.append(new PUSH(f.getConstantPool(), args.length));
+			il.append(f.createNewArray(termType, (short) 1));
+			for (int j = 0; j < args.length; ++j) {
+				if (pat[j].isBound()) {
+					il.append(InstructionConst.DUP);
+					il.append(new PUSH(f.getConstantPool(), j));
+					tc.gen(args[j]);
+					il.append(InstructionConst.AASTORE);
+				}
+			}
+		}
+
+		void genFrame() {
+			il.append(new PUSH(f.getConstantPool(), vars.size()));
+			il.append(f.createNewArray(termType, (short) 1));
+			for (int k = 0; k < vars.size(); ++k) {
+				il.append(InstructionConst.DUP);
+				il.append(new PUSH(f.getConstantPool(), k));
+				il.append(new ALOAD(varSlots.get(vars.get(k))));
+				il.append(InstructionConst.AASTORE);
+			}
+		}
+
+		/**
+		 * Generates a branch that, if taken, goes on to the next tuple of the
+		 * closest loop before the given position (or returns, if there is none).
+		 */
+		void genBack(short op, int pos) {
+			genBranch(op, toLoopHead, pos < 0 ? -1 : prevLoop[pos]);
+		}
+
+		void genBranch(short op, Map<Integer, List<BranchInstruction>> targets, int pos) {
+			BranchInstruction br = InstructionFactory.createBranchInstruction(op, null);
+			il.append(br);
+			targets.computeIfAbsent(pos, x -> new ArrayList<>()).add(br);
+		}
+
+		void genHasNext(int slot) {
+			il.append(new ALOAD(slot));
+			il.append(f.createInvoke(iteratorType.getClassName(), "hasNext", Type.BOOLEAN, Type.NO_ARGS,
+					Const.INVOKEINTERFACE));
+		}
+
+		void genNext(int slot, ReferenceType type) {
+			il.append(new ALOAD(slot));
+			il.append(f.createInvoke(iteratorType.getClassName(), "next", Type.OBJECT, Type.NO_ARGS,
+					Const.INVOKEINTERFACE));
+			il.append(f.createCheckCast(type));
+		}
+
+		/**
+		 * Generates the handler that adds the current literal to the message of an
+		 * exception raised by the body.
+		 */
+		InstructionHandle genHandler() {
+			InstructionHandle h = il.append(new ASTORE(exnSlot));
+			il.append(InstructionConst.ALOAD_0);
+			il.append(InstructionFactory.createLoad(Type.INT, posSlot));
+			il.append(new ALOAD(exnSlot));
+			il.append(f.createInvoke(superClass, "wrap", exnType, new Type[] { Type.INT, exnType },
+					Const.INVOKEVIRTUAL));
+			il.append(InstructionConst.ATHROW);
+			return h;
+		}
+
+	}
+
+	private static boolean isLoop(SimpleLiteral l) {
+		return l instanceof SimplePredicate && !((SimplePredicate) l).isNegated();
+	}
+
+}
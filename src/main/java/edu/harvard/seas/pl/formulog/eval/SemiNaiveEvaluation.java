@@ -20,6 +20,8 @@ package edu.harvard.seas.pl.formulog.eval;
  * #L%
  */
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -28,6 +30,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.BiFunction;
 
 import edu.harvard.seas.pl.formulog.Configuration;
@@ -41,9 +47,9 @@ import edu.harvard.seas.pl.formulog.ast.Terms;
 import edu.harvard.seas.pl.formulog.ast.UnificationPredicate;
 import edu.harvard.seas.pl.formulog.ast.UserPredicate;
 import edu.harvard.seas.pl.formulog.ast.Var;
-import edu.harvard.seas.pl.formulog.db.IndexedFactDbBuilder;
 import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
 import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb.SortedIndexedFactDbBuilder;
+import edu.harvard.seas.pl.formulog.db.TupleBuffer;
 import edu.harvard.seas.pl.formulog.eval.SemiNaiveRule.DeltaSymbol;
 import edu.harvard.seas.pl.formulog.magic.MagicSetTransformer;
 import edu.harvard.seas.pl.formulog.smt.BestMatchSmtManager;
@@ -57,6 +63,7 @@ import edu.harvard.seas.pl.formulog.smt.PushPopSolver;
 import edu.harvard.seas.pl.formulog.smt.QueueSmtManager;
 import edu.harvard.seas.pl.formulog.smt.SingleShotSolver;
 import edu.harvard.seas.pl.formulog.smt.SmtLibSolver;
+import edu.harvard.seas.pl.formulog.smt.SmtResultStore;
 import edu.harvard.seas.pl.formulog.smt.SmtStrategy;
 import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
 import edu.harvard.seas.pl.formulog.symbols.Symbol;
@@ -79,7 +86,7 @@ public class SemiNaiveEvaluation implements Evaluation {
 
 	private final SortedIndexedFactDb db;
 	private final SortedIndexedFactDb deltaDb;
-	private final SortedIndexedFactDb nextDeltaDb;
+	private final TupleBuffer nextDeltaBuffer;
 	private final List<Stratum> strata;
 	private final UserPredicate query;
 	private final CountingFJP exec;
@@ -87,6 +94,7 @@ public class SemiNaiveEvaluation implements Evaluation {
 	private final WellTypedProgram inputProgram;
 	private final Map<RelationSymbol, Set<IndexedRule>> rules;
 	private final boolean eagerEval;
+	private final AdaptiveJoinPlanner planner;
 
 	static final boolean sequential = System.getProperty("sequential") != null;
 	static final boolean debugRounds = Configuration.debugRounds;
@@ -105,13 +113,21 @@ public class SemiNaiveEvaluation implements Evaluation {
 				magicProg.getFunctionCallFactory().getDefManager(), dbb);
 
 		Map<RelationSymbol, Set<IndexedRule>> rules = new HashMap<>();
+		Map<IndexedRule, ValidRule> initialPlans = new HashMap<>();
 		List<Stratum> strata = new Stratifier(magicProg).stratify();
 		for (Stratum stratum : strata) {
 			if (stratum.hasRecursiveNegationOrAggregation()) {
 				throw new InvalidProgramException("Cannot handle recursive negation or aggregation: " + stratum);
 			}
 			Set<RelationSymbol> stratumSymbols = stratum.getPredicateSyms();
+			checkLatticeRecursion(magicProg, stratumSymbols);
 			for (RelationSymbol sym : stratumSymbols) {
+				if (sym.getLattice() != null) {
+					if (eagerEval) {
+						throw new InvalidProgramException("Cannot handle lattice relations with eager evaluation: " + sym);
+					}
+					dbb.makeIndex(sym, RoundBasedStratumEvaluator.latticeKeyPattern(sym));
+				}
 				Set<IndexedRule> rs = new HashSet<>();
 				for (BasicRule br : magicProg.getRules(sym)) {
 					for (SemiNaiveRule snr : SemiNaiveRule.make(br, stratumSymbols)) {
@@ -130,6 +146,9 @@ public class SemiNaiveEvaluation implements Evaluation {
 							}
 						});
 						rs.add(ir);
+						if (Configuration.adaptiveJoins && !eagerEval) {
+							initialPlans.put(ir, vr);
+						}
 						if (Configuration.printFinalRules) {
 							System.err.println("[FINAL RULE]:\n" + ir);
 						}
@@ -140,6 +159,11 @@ public class SemiNaiveEvaluation implements Evaluation {
 		}
 		SortedIndexedFactDb db = dbb.build();
 		predFuncs.setDb(db);
+		SortedIndexedFactDb deltaDb = deltaDbb.build();
+		AdaptiveJoinPlanner planner = null;
+		if (!initialPlans.isEmpty()) {
+			planner = new AdaptiveJoinPlanner(db, deltaDb, initialPlans);
+		}
 
 		SmtLibSolver smt = getSmtManager();
 		try {
@@ -147,7 +171,15 @@ public class SemiNaiveEvaluation implements Evaluation {
 		} catch (EvaluationException e) {
 			throw new InvalidProgramException("Problem initializing SMT shims: " + e.getMessage());
 		}
-		prog.getFunctionCallFactory().getDefManager().loadBuiltInFunctions(smt);
+		SmtResultStore smtStore = null;
+		if (Configuration.smtMemoFile != null) {
+			try {
+				smtStore = SmtResultStore.open(Paths.get(Configuration.smtMemoFile), magicProg);
+			} catch (IOException e) {
+				throw new InvalidProgramException("Problem loading SMT memo file: " + e.getMessage());
+			}
+		}
+		prog.getFunctionCallFactory().getDefManager().loadBuiltInFunctions(smt, smtStore);
 
 		CountingFJP exec;
 		if (sequential) {
@@ -180,8 +212,8 @@ public class SemiNaiveEvaluation implements Evaluation {
 			exec.shutdown();
 			throw new InvalidProgramException(exec.getFailureCause());
 		}
-		return new SemiNaiveEvaluation(prog, db, deltaDbb, rules, magicProg.getQuery(), strata, exec,
-				getTrackedRelations(magicProg.getSymbolManager()), eagerEval);
+		return new SemiNaiveEvaluation(prog, db, deltaDb, rules, magicProg.getQuery(), strata, exec,
+				getTrackedRelations(magicProg.getSymbolManager()), eagerEval, planner);
 	}
 
 	private static Rule<UserPredicate, ComplexLiteral> tweakRule(Rule<UserPredicate, ComplexLiteral> r,
@@ -226,6 +258,31 @@ public class SemiNaiveEvaluation implements Evaluation {
 		return BasicRule.make(r.getHead(), newBody);
 	}
 
+	/*
+	 * Lattice tuples that are superseded are removed, but facts derived from
+	 * them are not. This is only sound if nothing in the same stratum besides
+	 * another lattice relation reads a lattice relation.
+	 */
+	private static void checkLatticeRecursion(BasicProgram prog, Set<RelationSymbol> stratumSymbols)
+			throws InvalidProgramException {
+		for (RelationSymbol sym : stratumSymbols) {
+			if (sym.getLattice() != null) {
+				continue;
+			}
+			for (BasicRule r : prog.getRules(sym)) {
+				for (ComplexLiteral l : r) {
+					if (l instanceof UserPredicate) {
+						RelationSymbol bodySym = ((UserPredicate) l).getSymbol();
+						if (bodySym.getLattice() != null && stratumSymbols.contains(bodySym)) {
+							throw new InvalidProgramException("Non-lattice relation " + sym
+									+ " cannot recursively depend on lattice relation " + bodySym + ":\n" + r);
+						}
+					}
+				}
+			}
+		}
+	}
+
 	private static void checkRule(ValidRule r, boolean eagerEval) throws InvalidProgramException {
 		if (!eagerEval) {
 			return;
@@ -451,19 +508,20 @@ public class SemiNaiveEvaluation implements Evaluation {
 	}
 
 	SemiNaiveEvaluation(WellTypedProgram inputProgram, SortedIndexedFactDb db,
-			IndexedFactDbBuilder<SortedIndexedFactDb> deltaDbb, Map<RelationSymbol, Set<IndexedRule>> rules,
-			UserPredicate query, List<Stratum> strata, CountingFJP exec, Set<RelationSymbol> trackedRelations,
-			boolean eagerEval) {
+			SortedIndexedFactDb deltaDb, Map<RelationSymbol, Set<IndexedRule>> rules, UserPredicate query,
+			List<Stratum> strata, CountingFJP exec, Set<RelationSymbol> trackedRelations, boolean eagerEval,
+			AdaptiveJoinPlanner planner) {
 		this.inputProgram = inputProgram;
 		this.db = db;
 		this.query = query;
 		this.strata = strata;
 		this.exec = exec;
 		this.trackedRelations = trackedRelations;
-		this.deltaDb = deltaDbb.build();
-		this.nextDeltaDb = deltaDbb.build();
+		this.deltaDb = deltaDb;
+		this.nextDeltaBuffer = new TupleBuffer(deltaDb.getSymbols());
 		this.rules = rules;
 		this.eagerEval = eagerEval;
+		this.planner = planner;
 	}
 
 	@Override
@@ -497,12 +555,55 @@ public class SemiNaiveEvaluation implements Evaluation {
 
 			});
 		}
-		for (Stratum stratum : strata) {
-			evaluateStratum(stratum);
+		if (Configuration.parallelStrata && !sequential) {
+			evaluateStrataConcurrently();
+		} else {
+			for (Stratum stratum : strata) {
+				evaluateStratum(stratum, exec);
+			}
+		}
+	}
+
+	/**
+	 * Evaluates each stratum as soon as the strata it depends on are done. Each
+	 * stratum gets its own scope of the thread pool, so that it can wait for the
+	 * end of its own rounds without waiting for the rest of the pool.
+	 */
+	private void evaluateStrataConcurrently() throws EvaluationException {
+		ExecutorService drivers = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		});
+		Map<Stratum, CompletableFuture<Void>> done = new HashMap<>();
+		try {
+			for (Stratum stratum : strata) {
+				CompletableFuture<?>[] deps = stratum.getDependencies().stream().map(done::get)
+						.toArray(CompletableFuture[]::new);
+				done.put(stratum, CompletableFuture.allOf(deps).thenRunAsync(() -> {
+					try {
+						evaluateStratum(stratum, exec.newScope());
+					} catch (EvaluationException e) {
+						throw new CompletionException(e);
+					}
+				}, drivers));
+			}
+			CompletableFuture.allOf(done.values().toArray(new CompletableFuture[0])).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof EvaluationException) {
+				throw (EvaluationException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw (Error) cause;
+		} finally {
+			drivers.shutdown();
 		}
 	}
 
-	private void evaluateStratum(Stratum stratum) throws EvaluationException {
+	private void evaluateStratum(Stratum stratum, CountingFJP exec) throws EvaluationException {
 		List<IndexedRule> l = new ArrayList<>();
 		for (RelationSymbol sym : stratum.getPredicateSyms()) {
 			l.addAll(rules.get(sym));
@@ -510,8 +611,8 @@ public class SemiNaiveEvaluation implements Evaluation {
 		if (eagerEval) {
 			new EagerStratumEvaluator(stratum.getRank(), db, l, exec, trackedRelations).evaluate();
 		} else {
-			new RoundBasedStratumEvaluator(stratum.getRank(), db, deltaDb, nextDeltaDb, l, exec, trackedRelations)
-					.evaluate();
+			new RoundBasedStratumEvaluator(stratum.getRank(), db, deltaDb, nextDeltaBuffer, l, exec, trackedRelations,
+					planner).evaluate();
 		}
 	}
 
@@ -602,4 +703,8 @@ public class SemiNaiveEvaluation implements Evaluation {
 		return deltaDb;
 	}
 
+	AdaptiveJoinPlanner getPlanner() {
+		return planner;
+	}
+
 }
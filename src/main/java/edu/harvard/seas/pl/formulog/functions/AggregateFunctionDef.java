@@ -0,0 +1,34 @@
+package edu.harvard.seas.pl.formulog.functions;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+
+public interface AggregateFunctionDef extends PredicateFunctionDef {
+
+	/**
+	 * Folds the given function over the tuples that would make up the list
+	 * returned by this aggregate, without constructing that list.
+	 */
+	Term fold(FunctionDef f, Term acc, Term[] args) throws EvaluationException;
+
+}
@@ -20,16 +20,12 @@ package edu.harvard.seas.pl.formulog.functions;
  * #L%
  */
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 
 import org.pcollections.HashTreePMap;
@@ -51,6 +47,8 @@ import edu.harvard.seas.pl.formulog.ast.Terms;
 import edu.harvard.seas.pl.formulog.eval.EvaluationException;
 import edu.harvard.seas.pl.formulog.smt.SmtLibSolver;
 import edu.harvard.seas.pl.formulog.smt.SmtResult;
+import edu.harvard.seas.pl.formulog.smt.SmtResultCache;
+import edu.harvard.seas.pl.formulog.smt.SmtResultStore;
 import edu.harvard.seas.pl.formulog.smt.SmtStatus;
 import edu.harvard.seas.pl.formulog.symbols.BuiltInConstructorSymbol;
 import edu.harvard.seas.pl.formulog.symbols.BuiltInFunctionSymbol;
@@ -62,9 +60,11 @@ import edu.harvard.seas.pl.formulog.util.Triple;
 public final class BuiltInFunctionDefFactory {
 
 	private final SmtLibSolver smt;
+	private final SmtResultStore smtStore;
 
-	public BuiltInFunctionDefFactory(SmtLibSolver smt) {
+	public BuiltInFunctionDefFactory(SmtLibSolver smt, SmtResultStore smtStore) {
 		this.smt = smt;
+		this.smtStore = smtStore;
 	}
 
 	public FunctionDef get(BuiltInFunctionSymbol sym) {
@@ -1668,7 +1668,8 @@ public final class BuiltInFunctionDefFactory {
 
 	}
 
-	private final Map<Triple<Set<SmtLibTerm>, Boolean, Integer>, Future<SmtResult>> smtMemo = new ConcurrentHashMap<>();
+	private final SmtResultCache<Triple<Set<SmtLibTerm>, Boolean, Integer>> smtMemo = new SmtResultCache<>(
+			Configuration.smtMemoSize, Configuration.smtMemoPolicy, Configuration.smtMemoModels);
 
 	private Pair<SmtStatus, Model> querySmt(SmtLibTerm assertions, boolean getModel) throws EvaluationException {
 		return querySmt(assertions, getModel, Integer.MAX_VALUE);
@@ -1742,7 +1743,7 @@ public final class BuiltInFunctionDefFactory {
 			if (Configuration.smtMemoize) {
 				res = querySmtWithMemo(set, getModel, timeout);
 			} else {
-				res = smt.check(set, getModel, timeout);
+				res = checkSmt(set, getModel, timeout);
 			}
 			return new Pair<>(res.status, res.model);
 		} finally {
@@ -1753,25 +1754,34 @@ public final class BuiltInFunctionDefFactory {
 	private SmtResult querySmtWithMemo(Set<SmtLibTerm> assertions, boolean getModel, int timeout)
 			throws EvaluationException {
 		Triple<Set<SmtLibTerm>, Boolean, Integer> key = new Triple<>(assertions, getModel, timeout);
-		CompletableFuture<SmtResult> completableFut = new CompletableFuture<>();
-		Future<SmtResult> fut = smtMemo.putIfAbsent(key, completableFut);
-		if (fut == null) {
-			completableFut.complete(smt.check(assertions, getModel, timeout));
-			fut = completableFut;
-		}
-		long waitStart = 0;
-		if (Configuration.timeSmt) {
-			waitStart = System.nanoTime();
+		return smtMemo.lookupOrCompute(key, getModel, k -> checkSmt(assertions, getModel, timeout));
+	}
+
+	private SmtResult checkSmt(Set<SmtLibTerm> assertions, boolean getModel, int timeout)
+			throws EvaluationException {
+		if (smtStore == null) {
+			return smt.check(assertions, getModel, timeout);
+		}
+		String key = smtStore.makeKey(assertions, timeout);
+		if (key != null) {
+			SmtStatus status = smtStore.lookup(key);
+			// The store does not keep models.
+			if (status != null && (!getModel || status.equals(SmtStatus.UNSATISFIABLE))) {
+				if (Configuration.timeSmt) {
+					Configuration.recordSmtMemoFileHit();
+				}
+				return new SmtResult(status, null, -1, -1);
+			}
 		}
-		try {
-			return fut.get();
-		} catch (InterruptedException | ExecutionException e) {
-			throw new EvaluationException(e);
-		} finally {
-			if (Configuration.timeSmt) {
-				Configuration.recordSmtWaitTime(System.nanoTime() - waitStart);
+		SmtResult res = smt.check(assertions, getModel, timeout);
+		if (key != null) {
+			try {
+				smtStore.record(key, res.status);
+			} catch (IOException e) {
+				throw new EvaluationException("Problem writing to SMT memo file: " + e.getMessage());
 			}
 		}
+		return res;
 	}
 
 	private final FunctionDef isSat = new FunctionDef() {
@@ -0,0 +1,60 @@
+package edu.harvard.seas.pl.formulog.functions;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
+
+/**
+ * The superclass of the classes that {@link FunctionCompiler} generates for
+ * user-defined functions.
+ */
+public abstract class CompiledFunction {
+
+	// The terms, symbols, function calls, and compiled functions that the
+	// generated code refers to.
+	protected Object[] consts;
+	private FunctionSymbol sym;
+
+	void init(FunctionSymbol sym, Object[] consts) {
+		this.sym = sym;
+		this.consts = consts;
+	}
+
+	public FunctionSymbol getSymbol() {
+		return sym;
+	}
+
+	/**
+	 * Calls the function, reporting errors in the same way as the interpreter.
+	 */
+	public final Term call(Term[] args) throws EvaluationException {
+		try {
+			return evaluate(args);
+		} catch (EvaluationException e) {
+			throw new EvaluationException("Error evaluating function " + sym + ": " + e.getMessage());
+		}
+	}
+
+	protected abstract Term evaluate(Term[] args) throws EvaluationException;
+
+}
@@ -0,0 +1,323 @@
+package edu.harvard.seas.pl.formulog.functions;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.ASTORE;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.ObjectType;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.Type;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.Constructor;
+import edu.harvard.seas.pl.formulog.ast.Expr;
+import edu.harvard.seas.pl.formulog.ast.Exprs.ExprVisitor;
+import edu.harvard.seas.pl.formulog.ast.Fold;
+import edu.harvard.seas.pl.formulog.ast.FunctionCallFactory;
+import edu.harvard.seas.pl.formulog.ast.FunctionCallFactory.FunctionCall;
+import edu.harvard.seas.pl.formulog.ast.LetFunExpr;
+import edu.harvard.seas.pl.formulog.ast.MatchClause;
+import edu.harvard.seas.pl.formulog.ast.MatchExpr;
+import edu.harvard.seas.pl.formulog.ast.Primitive;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Terms.TermVisitor;
+import edu.harvard.seas.pl.formulog.ast.Var;
+import edu.harvard.seas.pl.formulog.functions.TermCompiler.UnsupportedTermException;
+import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
+
+/**
+ * Compiles the bodies of user-defined functions to JVM bytecode, with one
+ * generated class per function. Variables live in local variable slots,
+ * pattern matches become chains of symbol tests, and basic i32 arithmetic and
+ * comparisons are done inline. A call to another user-defined function is a
+ * direct call to the class compiled for it, unless calls to that function are
+ * memoized or traced (see {@link FunctionCallFactory#isInterceptingCalls});
+ * those calls, and calls to other built-in functions, go through the usual
+ * {@link FunctionCall} machinery.
+ */
+public class FunctionCompiler extends ClassLoader {
+
+	private static final String superClass = "edu.harvard.seas.pl.formulog.functions.CompiledFunction";
+
+	private static final boolean debug = Configuration.debugCompile;
+
+	private final AtomicInteger cnt = new AtomicInteger();
+
+	/**
+	 * Returns a compiled version of the function, or null if its body uses a
+	 * construct that the compiler does not handle. The functions that it can call
+	 * directly are compiled along with it.
+	 */
+	public synchronized CompiledFunction compile(UserFunctionDef def) {
+		if (!def.hasTriedToCompile()) {
+			compileGroup(def);
+		}
+		return def.getCompiled();
+	}
+
+	private void compileGroup(UserFunctionDef root) {
+		Map<UserFunctionDef, String> group = new LinkedHashMap<>();
+		findGroup(root, group);
+		Map<UserFunctionDef, MethodCompiler> code = generate(group);
+		Map<UserFunctionDef, CompiledFunction> fs = new HashMap<>();
+		for (Map.Entry<UserFunctionDef, MethodCompiler> e : code.entrySet()) {
+			fs.put(e.getKey(), define(e.getKey(), e.getValue()));
+		}
+		// Now that every class in the group is loaded, the placeholders for
+		// directly called functions can be replaced by the compiled functions.
+		for (Map.Entry<UserFunctionDef, MethodCompiler> e : code.entrySet()) {
+			Object[] consts = e.getValue().getConstants().toArray();
+			for (int i = 0; i < consts.length; ++i) {
+				if (consts[i] instanceof UserFunctionDef) {
+					UserFunctionDef callee = (UserFunctionDef) consts[i];
+					consts[i] = fs.containsKey(callee) ? fs.get(callee) : callee.getCompiled();
+				}
+			}
+			fs.get(e.getKey()).init(e.getKey().getSymbol(), consts);
+		}
+		for (Map.Entry<UserFunctionDef, CompiledFunction> e : fs.entrySet()) {
+			e.getKey().setCompiled(e.getValue());
+			if (debug) {
+				System.err.println("[COMPILE] Compiled function " + e.getKey().getSymbol());
+			}
+		}
+	}
+
+	/**
+	 * Generates code for the functions in the group. A function that cannot be
+	 * compiled is dropped from the group, and the code for the others is
+	 * generated again, since some of them might have called it directly.
+	 */
+	private Map<UserFunctionDef, MethodCompiler> generate(Map<UserFunctionDef, String> group) {
+		while (true) {
+			for (UserFunctionDef def : group.keySet()) {
+				group.put(def, superClass + cnt.getAndIncrement());
+			}
+			Map<UserFunctionDef, MethodCompiler> code = new LinkedHashMap<>();
+			UserFunctionDef bad = null;
+			for (Map.Entry<UserFunctionDef, String> e : group.entrySet()) {
+				UserFunctionDef def = e.getKey();
+				String className = e.getValue();
+				ClassGen cg = new ClassGen(className, superClass, "", Const.ACC_PUBLIC | Const.ACC_SUPER,
+						new String[0]);
+				MethodCompiler mc = new MethodCompiler(className, cg, group);
+				try {
+					mc.compile(def.getParams(), def.getBody());
+				} catch (UnsupportedTermException exn) {
+					if (debug) {
+						System.err.println(
+								"[COMPILE] Not compiling function " + def.getSymbol() + ": " + exn.getMessage());
+					}
+					bad = def;
+					break;
+				}
+				code.put(def, mc);
+			}
+			if (bad == null) {
+				return code;
+			}
+			group.remove(bad);
+			bad.setCompiled(null);
+		}
+	}
+
+	private CompiledFunction define(UserFunctionDef def, MethodCompiler mc) {
+		ClassGen cg = mc.cg;
+		cg.addEmptyConstructor(Const.ACC_PUBLIC);
+		MethodGen mg = new MethodGen(Const.ACC_PROTECTED, TermCompiler.termType,
+				new Type[] { TermCompiler.termArrayType }, new String[] { "args" }, "evaluate", mc.className, mc.il,
+				cg.getConstantPool());
+		mg.addException(TermCompiler.exnType.getClassName());
+		mg.setMaxStack();
+		mg.setMaxLocals();
+		cg.addMethod(mg.getMethod());
+		byte[] data = cg.getJavaClass().getBytes();
+		try {
+			Class<?> c = defineClass(mc.className, data, 0, data.length);
+			return (CompiledFunction) c.newInstance();
+		} catch (InstantiationException | IllegalAccessException | LinkageError e) {
+			throw new AssertionError("Generated invalid bytecode for function " + def.getSymbol(), e);
+		}
+	}
+
+	/**
+	 * Adds the function to the group, along with the functions that it can call
+	 * directly (transitively), skipping those already compiled or given up on.
+	 */
+	private static void findGroup(UserFunctionDef def, Map<UserFunctionDef, String> group) {
+		if (def.hasTriedToCompile() || group.containsKey(def)) {
+			return;
+		}
+		group.put(def, null);
+		def.getBody().accept(new CalleeFinder(), group);
+	}
+
+	/**
+	 * Returns the definition of the called function if the call can be made
+	 * directly, and null otherwise.
+	 */
+	private static UserFunctionDef getDirectCallee(FunctionCall call) {
+		FunctionSymbol sym = call.getSymbol();
+		if (FunctionCallFactory.isInterceptingCalls(sym)) {
+			return null;
+		}
+		FunctionDef def = call.getFactory().getDefManager().lookup(sym);
+		return def instanceof UserFunctionDef ? (UserFunctionDef) def : null;
+	}
+
+	private static class CalleeFinder implements TermVisitor<Map<UserFunctionDef, String>, Void>,
+			ExprVisitor<Map<UserFunctionDef, String>, Void> {
+
+		@Override
+		public Void visit(Var x, Map<UserFunctionDef, String> group) {
+			return null;
+		}
+
+		@Override
+		public Void visit(Constructor c, Map<UserFunctionDef, String> group) {
+			for (Term t : c.getArgs()) {
+				t.accept((TermVisitor<Map<UserFunctionDef, String>, Void>) this, group);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visit(Primitive<?> p, Map<UserFunctionDef, String> group) {
+			return null;
+		}
+
+		@Override
+		public Void visit(Expr e, Map<UserFunctionDef, String> group) {
+			return e.accept((ExprVisitor<Map<UserFunctionDef, String>, Void>) this, group);
+		}
+
+		@Override
+		public Void visit(MatchExpr matchExpr, Map<UserFunctionDef, String> group) {
+			visit(matchExpr.getMatchee(), group);
+			for (MatchClause cl : matchExpr.getClauses()) {
+				visit(cl.getRhs(), group);
+			}
+			return null;
+		}
+
+		private void visit(Term t, Map<UserFunctionDef, String> group) {
+			t.accept((TermVisitor<Map<UserFunctionDef, String>, Void>) this, group);
+		}
+
+		@Override
+		public Void visit(FunctionCall funcCall, Map<UserFunctionDef, String> group) {
+			for (Term t : funcCall.getArgs()) {
+				visit(t, group);
+			}
+			UserFunctionDef callee = getDirectCallee(funcCall);
+			if (callee != null) {
+				findGroup(callee, group);
+			}
+			return null;
+		}
+
+		// The compiler does not handle these, so there is no need to look inside.
+
+		@Override
+		public Void visit(LetFunExpr funcDefs, Map<UserFunctionDef, String> group) {
+			return null;
+		}
+
+		@Override
+		public Void visit(Fold fold, Map<UserFunctionDef, String> group) {
+			return null;
+		}
+
+	}
+
+	private class MethodCompiler extends TermCompiler {
+
+		final String className;
+		final ClassGen cg;
+		// Maps the functions being compiled together to their class names.
+		final Map<UserFunctionDef, String> group;
+
+		// Slot 0 holds this, and slot 1 the argument array.
+		public MethodCompiler(String className, ClassGen cg, Map<UserFunctionDef, String> group) {
+			super(new InstructionFactory(cg), new InstructionList(), superClass, 2);
+			this.className = className;
+			this.cg = cg;
+			this.group = group;
+		}
+
+		public void compile(List<Var> params, Term body) throws UnsupportedTermException {
+			int i = 0;
+			for (Var x : params) {
+				il.append(InstructionConst.ALOAD_1);
+				il.append(new PUSH(f.getConstantPool(), i));
+				il.append(InstructionConst.AALOAD);
+				il.append(new ASTORE(bind(x)));
+				i++;
+			}
+			gen(body);
+			il.append(InstructionConst.ARETURN);
+		}
+
+		@Override
+		protected boolean genDirectCall(FunctionCall call) throws UnsupportedTermException {
+			String calleeClass = getCalleeClass(call);
+			if (calleeClass == null) {
+				return false;
+			}
+			// For a function in the group, the constant is a placeholder that is
+			// replaced by the compiled function once the group is loaded.
+			loadConst(getDirectCallee(call), new ObjectType(calleeClass));
+			genArgs(call.getArgs());
+			il.append(f.createInvoke(calleeClass, "call", termType, new Type[] { termArrayType },
+					Const.INVOKEVIRTUAL));
+			return true;
+		}
+
+		String getCalleeClass(FunctionCall call) {
+			UserFunctionDef callee = getDirectCallee(call);
+			if (callee == null) {
+				return null;
+			}
+			String calleeClass = group.get(callee);
+			if (calleeClass != null) {
+				return calleeClass;
+			}
+			CompiledFunction compiled = callee.getCompiled();
+			if (compiled != null && compiled.getClass().getClassLoader() == FunctionCompiler.this) {
+				return compiled.getClass().getName();
+			}
+			return null;
+		}
+
+	}
+
+}
@@ -28,6 +28,7 @@ import java.util.Map;
 import java.util.Set;
 
 import edu.harvard.seas.pl.formulog.smt.SmtLibSolver;
+import edu.harvard.seas.pl.formulog.smt.SmtResultStore;
 import edu.harvard.seas.pl.formulog.symbols.BuiltInFunctionSymbol;
 import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
 
@@ -71,8 +72,8 @@ public class FunctionDefManager {
 		return Collections.unmodifiableSet(new HashSet<>(memo.keySet()));
 	}
 
-	public void loadBuiltInFunctions(SmtLibSolver smt) {
-		BuiltInFunctionDefFactory builtIns = new BuiltInFunctionDefFactory(smt);
+	public void loadBuiltInFunctions(SmtLibSolver smt, SmtResultStore smtStore) {
+		BuiltInFunctionDefFactory builtIns = new BuiltInFunctionDefFactory(smt, smtStore);
 		for (BuiltInFunctionSymbol sym : BuiltInFunctionSymbol.values()) {
 			memo.put(sym, builtIns.get(sym));
 		}
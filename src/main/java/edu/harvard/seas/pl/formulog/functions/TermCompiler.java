@@ -0,0 +1,375 @@
+package edu.harvard.seas.pl.formulog.functions;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.ALOAD;
+import org.apache.bcel.generic.ASTORE;
+import org.apache.bcel.generic.ArrayType;
+import org.apache.bcel.generic.BranchInstruction;
+import org.apache.bcel.generic.GOTO;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.ObjectType;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.Type;
+
+import edu.harvard.seas.pl.formulog.ast.Constructor;
+import edu.harvard.seas.pl.formulog.ast.FunctionCallFactory.FunctionCall;
+import edu.harvard.seas.pl.formulog.ast.MatchClause;
+import edu.harvard.seas.pl.formulog.ast.MatchExpr;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Var;
+import edu.harvard.seas.pl.formulog.symbols.BuiltInFunctionSymbol;
+import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
+
+/**
+ * Generates bytecode that normalizes terms, with variables held in local
+ * variable slots. The generated code refers to terms and other objects through
+ * an <code>Object[] consts</code> field of the class that owns the method (an
+ * instance of which is in slot 0); {@link #getConstants} gives the values that
+ * field should hold.
+ */
+public class TermCompiler {
+
+	static final ObjectType termType = new ObjectType("edu.harvard.seas.pl.formulog.ast.Term");
+	static final ArrayType termArrayType = new ArrayType(termType, 1);
+	static final ArrayType objectArrayType = new ArrayType(Type.OBJECT, 1);
+	static final ObjectType constructorType = new ObjectType("edu.harvard.seas.pl.formulog.ast.Constructor");
+	static final ObjectType symbolType = new ObjectType("edu.harvard.seas.pl.formulog.symbols.Symbol");
+	static final ObjectType callType = new ObjectType(
+			"edu.harvard.seas.pl.formulog.ast.FunctionCallFactory$FunctionCall");
+	static final ObjectType i32Type = new ObjectType("edu.harvard.seas.pl.formulog.ast.I32");
+	static final ObjectType boolType = new ObjectType("edu.harvard.seas.pl.formulog.ast.BoolTerm");
+	static final ObjectType integerType = new ObjectType("java.lang.Integer");
+	static final ObjectType exnType = new ObjectType("edu.harvard.seas.pl.formulog.eval.EvaluationException");
+
+	protected final InstructionFactory f;
+	protected final InstructionList il;
+	private final String constsOwner;
+	private final List<Object> consts = new ArrayList<>();
+	private final Map<Object, Integer> constIdxs = new IdentityHashMap<>();
+	private Map<Var, Integer> slots = new HashMap<>();
+	private int nextSlot;
+
+	/**
+	 * Creates a compiler that appends code to the given instruction list, and
+	 * allocates local variable slots starting from <code>firstSlot</code>.
+	 */
+	public TermCompiler(InstructionFactory f, InstructionList il, String constsOwner, int firstSlot) {
+		this.f = f;
+		this.il = il;
+		this.constsOwner = constsOwner;
+		this.nextSlot = firstSlot;
+	}
+
+	public List<Object> getConstants() {
+		return consts;
+	}
+
+	/**
+	 * Allocates a slot to hold the value of the variable.
+	 */
+	public int bind(Var x) {
+		int slot = newSlot();
+		slots.put(x, slot);
+		return slot;
+	}
+
+	public int newSlot() {
+		return nextSlot++;
+	}
+
+	/**
+	 * Generates a direct call to a function, returning false if the call should
+	 * go through {@link FunctionCall#evaluate} instead.
+	 */
+	protected boolean genDirectCall(FunctionCall call) throws UnsupportedTermException {
+		return false;
+	}
+
+	/**
+	 * Generates code that pushes the constant (cast to the given type) onto the
+	 * stack.
+	 */
+	public void loadConst(Object o, ObjectType type) {
+		Integer idx = constIdxs.get(o);
+		if (idx == null) {
+			idx = consts.size();
+			consts.add(o);
+			constIdxs.put(o, idx);
+		}
+		il.append(InstructionConst.ALOAD_0);
+		il.append(f.createGetField(constsOwner, "consts", objectArrayType));
+		il.append(new PUSH(f.getConstantPool(), idx));
+		il.append(InstructionConst.AALOAD);
+		il.append(f.createCheckCast(type));
+	}
+
+	/**
+	 * Generates code that pushes the normal form of the term onto the stack.
+	 */
+	public void gen(Term t) throws UnsupportedTermException {
+		if (t instanceof Var) {
+			Integer slot = slots.get(t);
+			if (slot == null) {
+				throw new UnsupportedTermException(t);
+			}
+			il.append(new ALOAD(slot));
+		} else if (t.isGround() && !t.containsUnevaluatedTerm()) {
+			loadConst(t, termType);
+		} else if (t instanceof Constructor) {
+			loadConst(t, constructorType);
+			genArgs(((Constructor) t).getArgs());
+			il.append(f.createInvoke(constructorType.getClassName(), "copyWithNewArgs", termType,
+					new Type[] { termArrayType }, Const.INVOKEINTERFACE));
+		} else if (t instanceof FunctionCall) {
+			genCall((FunctionCall) t);
+		} else if (t instanceof MatchExpr) {
+			genMatch((MatchExpr) t);
+		} else {
+			throw new UnsupportedTermException(t);
+		}
+	}
+
+	public void genArgs(Term[] args) throws UnsupportedTermException {
+		il.append(new PUSH(f.getConstantPool(), args.length));
+		il.append(f.createNewArray(termType, (short) 1));
+		for (int i = 0; i < args.length; ++i) {
+			il.append(InstructionConst.DUP);
+			il.append(new PUSH(f.getConstantPool(), i));
+			gen(args[i]);
+			il.append(InstructionConst.AASTORE);
+		}
+	}
+
+	void genCall(FunctionCall call) throws UnsupportedTermException {
+		FunctionSymbol sym = call.getSymbol();
+		if (sym instanceof BuiltInFunctionSymbol && genBuiltIn((BuiltInFunctionSymbol) sym, call.getArgs())) {
+			return;
+		}
+		if (genDirectCall(call)) {
+			return;
+		}
+		loadConst(call, callType);
+		genArgs(call.getArgs());
+		il.append(f.createInvoke(callType.getClassName(), "evaluate", termType, new Type[] { termArrayType },
+				Const.INVOKEVIRTUAL));
+	}
+
+	boolean genBuiltIn(BuiltInFunctionSymbol sym, Term[] args) throws UnsupportedTermException {
+		switch (sym) {
+		case I32_ADD:
+			genI32BinOp(args, InstructionConst.IADD);
+			return true;
+		case I32_SUB:
+			genI32BinOp(args, InstructionConst.ISUB);
+			return true;
+		case I32_MUL:
+			genI32BinOp(args, InstructionConst.IMUL);
+			return true;
+		case I32_NEG:
+			genI32(args[0]);
+			il.append(InstructionConst.INEG);
+			genMakeI32();
+			return true;
+		case I32_LT:
+			genI32Cmp(args, Const.IF_ICMPLT);
+			return true;
+		case I32_LE:
+			genI32Cmp(args, Const.IF_ICMPLE);
+			return true;
+		case I32_GT:
+			genI32Cmp(args, Const.IF_ICMPGT);
+			return true;
+		case I32_GE:
+			genI32Cmp(args, Const.IF_ICMPGE);
+			return true;
+		case BEQ:
+			genEquals(args[0], args[1]);
+			genBool(Const.IFNE);
+			return true;
+		case BNEQ:
+			genEquals(args[0], args[1]);
+			genBool(Const.IFEQ);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	void genI32(Term t) throws UnsupportedTermException {
+		gen(t);
+		il.append(f.createCheckCast(i32Type));
+		il.append(f.createInvoke(i32Type.getClassName(), "getVal", integerType, Type.NO_ARGS,
+				Const.INVOKEVIRTUAL));
+		il.append(f.createInvoke(integerType.getClassName(), "intValue", Type.INT, Type.NO_ARGS,
+				Const.INVOKEVIRTUAL));
+	}
+
+	void genMakeI32() {
+		il.append(f.createInvoke(i32Type.getClassName(), "make", i32Type, new Type[] { Type.INT },
+				Const.INVOKESTATIC));
+	}
+
+	void genI32BinOp(Term[] args, Instruction op) throws UnsupportedTermException {
+		genI32(args[0]);
+		genI32(args[1]);
+		il.append(op);
+		genMakeI32();
+	}
+
+	void genI32Cmp(Term[] args, short branchOp) throws UnsupportedTermException {
+		genI32(args[0]);
+		genI32(args[1]);
+		genBool(branchOp);
+	}
+
+	public void genEquals(Term t1, Term t2) throws UnsupportedTermException {
+		gen(t1);
+		gen(t2);
+		il.append(f.createInvoke("java.lang.Object", "equals", Type.BOOLEAN, new Type[] { Type.OBJECT },
+				Const.INVOKEVIRTUAL));
+	}
+
+	/**
+	 * Turns the outcome of a conditional branch into a boolean term.
+	 */
+	void genBool(short branchOp) {
+		BranchInstruction ifTrue = InstructionFactory.createBranchInstruction(branchOp, null);
+		il.append(ifTrue);
+		il.append(InstructionConst.ICONST_0);
+		GOTO toEnd = new GOTO(null);
+		il.append(toEnd);
+		ifTrue.setTarget(il.append(InstructionConst.ICONST_1));
+		toEnd.setTarget(il.append(f.createInvoke(boolType.getClassName(), "mk", boolType,
+				new Type[] { Type.BOOLEAN }, Const.INVOKESTATIC)));
+	}
+
+	void genMatch(MatchExpr m) throws UnsupportedTermException {
+		gen(m.getMatchee());
+		int scrutinee = newSlot();
+		il.append(new ASTORE(scrutinee));
+		List<BranchInstruction> toEnd = new ArrayList<>();
+		List<BranchInstruction> fails = new ArrayList<>();
+		for (MatchClause cl : m.getClauses()) {
+			setTargets(fails, il.append(InstructionConst.NOP));
+			fails = new ArrayList<>();
+			Map<Var, Integer> saved = new HashMap<>(slots);
+			genPattern(cl.getLhs(), scrutinee, fails);
+			gen(cl.getRhs());
+			il.append(f.createCheckCast(termType));
+			slots = saved;
+			GOTO g = new GOTO(null);
+			il.append(g);
+			toEnd.add(g);
+		}
+		setTargets(fails, il.append(InstructionConst.NOP));
+		loadConst(m.getMatchee(), termType);
+		il.append(new ALOAD(scrutinee));
+		il.append(f.createInvoke("edu.harvard.seas.pl.formulog.ast.MatchExpr", "noMatch", exnType,
+				new Type[] { termType, termType }, Const.INVOKESTATIC));
+		il.append(InstructionConst.ATHROW);
+		setTargets(toEnd, il.append(InstructionConst.NOP));
+	}
+
+	void setTargets(List<BranchInstruction> brs, InstructionHandle target) {
+		for (BranchInstruction br : brs) {
+			br.setTarget(target);
+		}
+	}
+
+	/**
+	 * Generates code that binds the variables of the pattern to the matching
+	 * parts of the term in the given slot, or jumps to one of the branches
+	 * added to <code>fails</code> if the term does not match.
+	 */
+	void genPattern(Term pat, int slot, List<BranchInstruction> fails) {
+		if (pat instanceof Var) {
+			if (!((Var) pat).isUnderscore()) {
+				il.append(new ALOAD(slot));
+				il.append(new ASTORE(bind((Var) pat)));
+			}
+			return;
+		}
+		BranchInstruction fail = InstructionFactory.createBranchInstruction(Const.IFEQ, null);
+		if (pat instanceof Constructor) {
+			Constructor c = (Constructor) pat;
+			loadConst(c.getSymbol(), symbolType);
+			genLoadConstructor(slot);
+			il.append(f.createInvoke(constructorType.getClassName(), "getSymbol", symbolType, Type.NO_ARGS,
+					Const.INVOKEINTERFACE));
+			il.append(f.createInvoke("java.lang.Object", "equals", Type.BOOLEAN, new Type[] { Type.OBJECT },
+					Const.INVOKEVIRTUAL));
+			il.append(fail);
+			fails.add(fail);
+			Term[] args = c.getArgs();
+			for (int i = 0; i < args.length; ++i) {
+				if (args[i] instanceof Var && ((Var) args[i]).isUnderscore()) {
+					continue;
+				}
+				genLoadConstructor(slot);
+				il.append(f.createInvoke(constructorType.getClassName(), "getArgs", termArrayType, Type.NO_ARGS,
+						Const.INVOKEINTERFACE));
+				il.append(new PUSH(f.getConstantPool(), i));
+				il.append(InstructionConst.AALOAD);
+				if (args[i] instanceof Var) {
+					il.append(new ASTORE(bind((Var) args[i])));
+				} else {
+					int sub = newSlot();
+					il.append(new ASTORE(sub));
+					genPattern(args[i], sub, fails);
+				}
+			}
+		} else {
+			loadConst(pat, termType);
+			il.append(new ALOAD(slot));
+			il.append(f.createInvoke("java.lang.Object", "equals", Type.BOOLEAN, new Type[] { Type.OBJECT },
+					Const.INVOKEVIRTUAL));
+			il.append(fail);
+			fails.add(fail);
+		}
+	}
+
+	void genLoadConstructor(int slot) {
+		il.append(new ALOAD(slot));
+		il.append(f.createCheckCast(constructorType));
+	}
+
+	@SuppressWarnings("serial")
+	public static class UnsupportedTermException extends Exception {
+
+		public UnsupportedTermException(Term t) {
+			super("cannot compile " + t);
+		}
+
+	}
+
+}
@@ -23,6 +23,7 @@ package edu.harvard.seas.pl.formulog.functions;
 import java.util.List;
 
 
+import edu.harvard.seas.pl.formulog.Configuration;
 import edu.harvard.seas.pl.formulog.ast.Expr;
 import edu.harvard.seas.pl.formulog.ast.Term;
 import edu.harvard.seas.pl.formulog.ast.Var;
@@ -33,9 +34,13 @@ import edu.harvard.seas.pl.formulog.unification.Substitution;
 
 public class UserFunctionDef implements FunctionDef {
 
+	private static final FunctionCompiler compiler = Configuration.compileFunctions ? new FunctionCompiler() : null;
+
 	private final FunctionSymbol sym;
 	private final List<Var> params;
 	private volatile Term body;
+	private volatile CompiledFunction compiled;
+	private volatile boolean triedToCompile;
 
 	private UserFunctionDef(FunctionSymbol sym, List<Var> params, Term body) {
 		this.sym = sym;
@@ -51,8 +56,10 @@ public class UserFunctionDef implements FunctionDef {
 		return body;
 	}
 
-	public void setBody(Expr newBody) {
+	public synchronized void setBody(Expr newBody) {
 		this.body = newBody;
+		compiled = null;
+		triedToCompile = false;
 	}
 
 	@Override
@@ -62,6 +69,15 @@ public class UserFunctionDef implements FunctionDef {
 
 	@Override
 	public Term evaluate(Term[] args) throws EvaluationException {
+		if (compiler != null) {
+			CompiledFunction f = compiled;
+			if (f == null && !triedToCompile) {
+				f = compiler.compile(this);
+			}
+			if (f != null) {
+				return f.call(args);
+			}
+		}
 		Substitution s = new SimpleSubstitution();
 		assert params.size() == args.length;
 		int i = 0;
@@ -76,6 +92,23 @@ public class UserFunctionDef implements FunctionDef {
 		}
 	}
 
+	boolean hasTriedToCompile() {
+		return triedToCompile;
+	}
+
+	CompiledFunction getCompiled() {
+		return compiled;
+	}
+
+	/**
+	 * Records the outcome of compiling the function (null if it could not be
+	 * compiled).
+	 */
+	void setCompiled(CompiledFunction f) {
+		compiled = f;
+		triedToCompile = true;
+	}
+
 	public static UserFunctionDef get(FunctionSymbol sym, List<Var> params, Term body) {
 		return new UserFunctionDef(sym, params, body);
 	}
@@ -23,6 +23,7 @@ package edu.harvard.seas.pl.formulog.magic;
 
 import java.util.Arrays;
 
+import edu.harvard.seas.pl.formulog.symbols.LatticeType;
 import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
 import edu.harvard.seas.pl.formulog.symbols.WrappedRelationSymbol;
 import edu.harvard.seas.pl.formulog.types.FunctorType;
@@ -88,6 +89,11 @@ class AdornedSymbol implements WrappedRelationSymbol<RelationSymbol> {
 		return false;
 	}
 
+	@Override
+	public LatticeType getLattice() {
+		return baseSymbol.getLattice();
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -25,10 +25,15 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -44,6 +49,7 @@ import org.antlr.v4.runtime.TokenStream;
 import edu.harvard.seas.pl.formulog.Configuration;
 import edu.harvard.seas.pl.formulog.ast.BasicProgram;
 import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.db.FactDbSnapshot;
 import edu.harvard.seas.pl.formulog.parsing.generated.FormulogLexer;
 import edu.harvard.seas.pl.formulog.parsing.generated.FormulogParser;
 import edu.harvard.seas.pl.formulog.parsing.generated.FormulogParser.ProgContext;
@@ -83,6 +89,7 @@ public class Parser {
 
 	private void loadExternalEdbs(ParsingContext pc, BasicProgram prog, Set<RelationSymbol> rels, List<Path> inputDirs)
 			throws ParseException {
+		rels = loadSnapshots(pc, prog, rels);
 		if (rels.isEmpty()) {
 			return;
 		}
@@ -114,9 +121,42 @@ public class Parser {
 		}
 	}
 
+	private Set<RelationSymbol> loadSnapshots(ParsingContext pc, BasicProgram prog, Set<RelationSymbol> rels)
+			throws ParseException {
+		if (Configuration.factSnapshots.isEmpty() || rels.isEmpty()) {
+			return rels;
+		}
+		Map<RelationSymbol, Set<Term[]>> accs = new HashMap<>();
+		for (RelationSymbol sym : rels) {
+			accs.put(sym, prog.getFacts(sym));
+		}
+		Set<RelationSymbol> remaining = new HashSet<>(rels);
+		for (String file : Configuration.factSnapshots) {
+			try {
+				remaining.removeAll(FactDbSnapshot.read(Paths.get(file), pc.symbolManager(), accs));
+			} catch (NoSuchFileException e) {
+				throw new ParseException(0, "Could not find fact snapshot: " + file);
+			} catch (IOException e) {
+				throw new ParseException(file, 0, e.getMessage());
+			}
+		}
+		return remaining;
+	}
+
 	private void readEdbFromFile(ParsingContext pc, RelationSymbol sym, Path inputDir, Set<Term[]> acc)
 			throws ParseException {
 		Path path = inputDir.resolve(sym.toString() + ".tsv");
+		if (Configuration.fastFactLoading) {
+			try {
+				if (TsvFactLoader.tryLoad(path, sym.getArity(), acc)) {
+					return;
+				}
+			} catch (NoSuchFileException e) {
+				throw new ParseException(0, "Could not find external fact file: " + path);
+			} catch (IOException e) {
+				throw new ParseException(0, e.getMessage());
+			}
+		}
 		try (FileReader fr = new FileReader(path.toFile())) {
 			FormulogParser parser = getParser(fr, true);
 			FactFileParser fpp = new FactFileParser(pc);
@@ -23,6 +23,7 @@ package edu.harvard.seas.pl.formulog.parsing;
 import static edu.harvard.seas.pl.formulog.util.Util.map;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -69,6 +70,7 @@ import edu.harvard.seas.pl.formulog.symbols.BuiltInTypeSymbol;
 import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbol;
 import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbolType;
 import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
+import edu.harvard.seas.pl.formulog.symbols.LatticeType;
 import edu.harvard.seas.pl.formulog.symbols.MutableRelationSymbol;
 import edu.harvard.seas.pl.formulog.symbols.PredicateFunctionSymbol;
 import edu.harvard.seas.pl.formulog.symbols.RecordSymbol;
@@ -111,6 +113,8 @@ class TopLevelParser {
 		private final Map<RelationSymbol, Set<BasicRule>> rules = new HashMap<>();
 		private final Set<RelationSymbol> externalEdbs = new HashSet<>();
 		private final Set<ConstructorSymbol> uninterpFuncSymbols = new HashSet<>();
+		private final List<Type> latticeTypes = Arrays.asList(BuiltInTypes.i32, BuiltInTypes.i64, BuiltInTypes.fp32,
+				BuiltInTypes.fp64, BuiltInTypes.string);
 		private UserPredicate query;
 
 		@Override
@@ -170,6 +174,11 @@ class TopLevelParser {
 					externalEdbs.add(sym);
 					sym.setExternal();
 					break;
+				case "@min":
+				case "@max":
+					checkLattice(ctx, sym, types);
+					sym.setLattice(actx.getText().equals("@min") ? LatticeType.MIN : LatticeType.MAX);
+					break;
 				default:
 					throw new UncheckedParseException(ctx.start.getLine(),
 							"Unrecognized annotation for predicate " + sym + ": " + actx.getText());
@@ -183,6 +192,21 @@ class TopLevelParser {
 			return null;
 		}
 
+		private void checkLattice(RelDeclContext ctx, RelationSymbol sym, List<Type> types) {
+			if (!sym.isIdbSymbol()) {
+				throw new UncheckedParseException(ctx.start.getLine(),
+						"Lattice annotations cannot be used for non-IDB predicate " + sym);
+			}
+			if (sym.getLattice() != null) {
+				throw new UncheckedParseException(ctx.start.getLine(),
+						"Predicate " + sym + " has more than one lattice annotation");
+			}
+			if (types.isEmpty() || !latticeTypes.contains(types.get(types.size() - 1))) {
+				throw new UncheckedParseException(ctx.start.getLine(), "The last column of lattice predicate " + sym
+						+ " must be of type i32, i64, fp32, fp64, or string");
+			}
+		}
+
 		@Override
 		public Void visitTypeAlias(TypeAliasContext ctx) {
 			Pair<TypeSymbol, List<TypeVar>> p = parseTypeDefLHS(ctx.typeDefLHS(), TypeSymbolType.TYPE_ALIAS);
@@ -0,0 +1,268 @@
+package edu.harvard.seas.pl.formulog.parsing;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.I64;
+import edu.harvard.seas.pl.formulog.ast.StringTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+
+/**
+ * Loads a fact file whose cells are all simple primitives (decimal i32 and i64
+ * literals and strings without escapes) without going through ANTLR. The file
+ * is memory-mapped and split into chunks at line boundaries, and the chunks are
+ * parsed in parallel. If anything in the file is not understood, nothing is
+ * loaded and the caller should fall back to the full parser.
+ */
+class TsvFactLoader {
+
+	private static final int minChunkSize = 1 << 20;
+	private static final int maxChunkSize = 1 << 26;
+
+	private final FileChannel fc;
+	private final int arity;
+	private final AtomicBoolean failed = new AtomicBoolean();
+
+	private TsvFactLoader(FileChannel fc, int arity) {
+		this.fc = fc;
+		this.arity = arity;
+	}
+
+	/**
+	 * Tries to load the facts in the given file into <code>acc</code>; returns
+	 * false (without having changed <code>acc</code>) if the file needs to be
+	 * handled by the full parser.
+	 */
+	public static boolean tryLoad(Path path, int arity, Set<Term[]> acc) throws IOException {
+		if (arity == 0) {
+			return false;
+		}
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			List<List<Term[]>> chunks = new TsvFactLoader(fc, arity).load();
+			if (chunks == null) {
+				return false;
+			}
+			for (List<Term[]> chunk : chunks) {
+				acc.addAll(chunk);
+			}
+			return true;
+		}
+	}
+
+	private List<List<Term[]>> load() throws IOException {
+		long size = fc.size();
+		long chunkSize = size / (Configuration.parallelism * 4);
+		chunkSize = Math.max(minChunkSize, Math.min(maxChunkSize, chunkSize));
+		List<Long> bounds = new ArrayList<>();
+		bounds.add(0L);
+		long pos = 0;
+		while (pos < size) {
+			pos = nextLineStart(Math.min(pos + chunkSize, size) - 1, size);
+			bounds.add(pos);
+		}
+		int n = bounds.size() - 1;
+		List<List<Term[]>> chunks = new ArrayList<>(n);
+		for (int i = 0; i < n; ++i) {
+			chunks.add(null);
+		}
+		IOException[] exn = new IOException[1];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			try {
+				long start = bounds.get(i);
+				long len = bounds.get(i + 1) - start;
+				if (len > Integer.MAX_VALUE) {
+					failed.set(true);
+					return;
+				}
+				MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, start, len);
+				chunks.set(i, parseChunk(buf));
+			} catch (IOException e) {
+				exn[0] = e;
+				failed.set(true);
+			}
+		});
+		if (exn[0] != null) {
+			throw exn[0];
+		}
+		return failed.get() ? null : chunks;
+	}
+
+	/**
+	 * Returns the position just after the first newline at or after
+	 * <code>pos</code> (or the end of the file).
+	 */
+	private long nextLineStart(long pos, long size) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		while (pos < size) {
+			buf.clear();
+			int n = fc.read(buf, pos);
+			if (n <= 0) {
+				break;
+			}
+			for (int i = 0; i < n; ++i) {
+				if (buf.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			pos += n;
+		}
+		return size;
+	}
+
+	private List<Term[]> parseChunk(ByteBuffer buf) {
+		List<Term[]> facts = new ArrayList<>();
+		byte[] scratch = new byte[256];
+		int limit = buf.limit();
+		int lineStart = 0;
+		while (lineStart < limit && !failed.get()) {
+			int lineEnd = lineStart;
+			while (lineEnd < limit && buf.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			int next = lineEnd + 1;
+			if (lineEnd > lineStart && buf.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+			Term[] args = new Term[arity];
+			int cellStart = lineStart;
+			int i = 0;
+			while (true) {
+				int cellEnd = cellStart;
+				while (cellEnd < lineEnd && buf.get(cellEnd) != '\t') {
+					cellEnd++;
+				}
+				if (i == arity) {
+					failed.set(true);
+					return null;
+				}
+				Term t = parseCell(buf, cellStart, cellEnd, scratch);
+				if (t == null) {
+					failed.set(true);
+					return null;
+				}
+				args[i++] = t;
+				if (cellEnd == lineEnd) {
+					break;
+				}
+				cellStart = cellEnd + 1;
+			}
+			if (i != arity) {
+				failed.set(true);
+				return null;
+			}
+			facts.add(args);
+			lineStart = next;
+		}
+		return facts;
+	}
+
+	private static Term parseCell(ByteBuffer buf, int start, int end, byte[] scratch) {
+		while (start < end && buf.get(start) == ' ') {
+			start++;
+		}
+		while (end > start && buf.get(end - 1) == ' ') {
+			end--;
+		}
+		if (start == end) {
+			return null;
+		}
+		byte first = buf.get(start);
+		if (first == '"') {
+			return parseString(buf, start, end, scratch);
+		}
+		if (first == '-' || first == '+' || (first >= '0' && first <= '9')) {
+			return parseInt(buf, start, end);
+		}
+		return null;
+	}
+
+	private static Term parseString(ByteBuffer buf, int start, int end, byte[] scratch) {
+		if (end - start < 2 || buf.get(end - 1) != '"') {
+			return null;
+		}
+		int len = end - start - 2;
+		byte[] bytes = len <= scratch.length ? scratch : new byte[len];
+		for (int i = 0; i < len; ++i) {
+			byte b = buf.get(start + 1 + i);
+			// Leave escapes (and anything malformed) to the full parser.
+			if (b == '"' || b == '\\' || b == '\r') {
+				return null;
+			}
+			bytes[i] = b;
+		}
+		return StringTerm.make(new String(bytes, 0, len, Charset.defaultCharset()));
+	}
+
+	private static Term parseInt(ByteBuffer buf, int start, int end) {
+		boolean isLong = false;
+		byte last = buf.get(end - 1);
+		if (last == 'L' || last == 'l') {
+			isLong = true;
+			end--;
+		}
+		boolean neg = false;
+		byte first = buf.get(start);
+		if (first == '-' || first == '+') {
+			neg = first == '-';
+			start++;
+		}
+		if (start == end || end - start > 19) {
+			return null;
+		}
+		long n = 0;
+		for (int i = start; i < end; ++i) {
+			byte b = buf.get(i);
+			if (b < '0' || b > '9') {
+				return null;
+			}
+			n = n * 10 + (b - '0');
+		}
+		if (n < 0) {
+			// Overflow (or Long.MIN_VALUE): let the full parser deal with it.
+			return null;
+		}
+		if (neg) {
+			n = -n;
+		}
+		if (isLong) {
+			return I64.make(n);
+		}
+		if (n < Integer.MIN_VALUE || n > Integer.MAX_VALUE) {
+			return null;
+		}
+		return I32.make((int) n);
+	}
+
+}
@@ -20,82 +20,168 @@ package edu.harvard.seas.pl.formulog.smt;
  * #L%
  */
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
-
-
-import java.util.Comparator;
-import java.util.PriorityQueue;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import edu.harvard.seas.pl.formulog.Configuration;
 import edu.harvard.seas.pl.formulog.ast.Program;
 import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
 import edu.harvard.seas.pl.formulog.eval.EvaluationException;
-import edu.harvard.seas.pl.formulog.util.Pair;
 
+/**
+ * Sends each query to the free solver whose cache best matches the query's
+ * conjuncts. If every solver is busy, the caller blocks until one is released.
+ * The manager keeps an index from each cached conjunct to the solvers caching
+ * it, so that matching a query costs time proportional to its number of
+ * conjuncts (and not the size of every solver's cache).
+ */
 public class BestMatchSmtManager implements SmtLibSolver {
 
 	private final CheckSatAssumingSolver[] solvers;
-	private final AtomicIntegerArray statuses;
 	private static final int cacheCap = Configuration.smtCacheSize;
 
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+
+	// The following are guarded by the lock.
+	private final boolean[] busy;
+	private int numFree;
+	private final Map<SmtLibTerm, BitSet> index = new HashMap<>();
+	private final List<Set<SmtLibTerm>> cached = new ArrayList<>();
+
+	// Cache changes made by a solver while it is in use; a null element stands for
+	// a clear. Each list is only touched by the thread using the solver.
+	private final List<List<SmtLibTerm>> pending = new ArrayList<>();
+
 	public BestMatchSmtManager(int size) {
 		solvers = new CheckSatAssumingSolver[size];
-		statuses = new AtomicIntegerArray(size);
+		busy = new boolean[size];
+		numFree = size;
+		for (int i = 0; i < size; ++i) {
+			cached.add(new HashSet<>());
+			pending.add(new ArrayList<>());
+		}
 	}
 
 	@Override
 	public SmtResult check(Collection<SmtLibTerm> conjuncts, boolean getModel, int timeout) throws EvaluationException {
-		while (true) {
-			PriorityQueue<Pair<Integer, Double>> q = new PriorityQueue<>(solvers.length, cmp);
-			for (int i = 0; i < solvers.length; ++i) {
-				double score = score(conjuncts, solvers[i]);
-				q.add(new Pair<>(i, score));
-			}
-			while (!q.isEmpty()) {
-				int i = q.remove().fst();
-				if (statuses.compareAndSet(i, 0, 1)) {
-					try {
-						return solvers[i].check(conjuncts, getModel, timeout);
-					} finally {
-						statuses.set(i, 0);
-					}
-				}
-			}
+		int i = acquire(conjuncts);
+		try {
+			return solvers[i].check(conjuncts, getModel, timeout);
+		} finally {
+			release(i);
 		}
 	}
 
-	private static final Comparator<Pair<Integer, Double>> cmp = new Comparator<Pair<Integer, Double>>() {
+	private int acquire(Collection<SmtLibTerm> conjuncts) throws EvaluationException {
+		lock.lock();
+		try {
+			while (numFree == 0) {
+				released.await();
+			}
+			int best = pickSolver(conjuncts);
+			busy[best] = true;
+			numFree--;
+			return best;
+		} catch (InterruptedException e) {
+			throw new EvaluationException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
 
-		@Override
-		public int compare(Pair<Integer, Double> o1, Pair<Integer, Double> o2) {
-			return Double.compare(o2.snd(), o1.snd());
+	private void release(int i) {
+		lock.lock();
+		try {
+			updateIndex(i);
+			busy[i] = false;
+			numFree++;
+			released.signal();
+		} finally {
+			lock.unlock();
 		}
+	}
 
-	};
+	private int pickSolver(Collection<SmtLibTerm> conjuncts) {
+		int[] hits = new int[solvers.length];
+		for (SmtLibTerm conjunct : conjuncts) {
+			BitSet bs = index.get(conjunct);
+			if (bs != null) {
+				for (int j = bs.nextSetBit(0); j >= 0; j = bs.nextSetBit(j + 1)) {
+					hits[j]++;
+				}
+			}
+		}
+		int best = -1;
+		double bestScore = 0;
+		for (int j = 0; j < solvers.length; ++j) {
+			if (busy[j]) {
+				continue;
+			}
+			double score = score(hits[j], conjuncts.size(), cached.get(j).size());
+			if (best == -1 || score > bestScore) {
+				best = j;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
 
-	private double score(Collection<SmtLibTerm> conjuncts, CheckSatAssumingSolver solver) {
-		Set<SmtLibTerm> cache = solver.getCache();
-		int cacheSize = cache.size();
+	private static double score(int hits, int numConjuncts, int cacheSize) {
 		if (cacheSize == 0) {
 			return 0;
 		}
-		int hits = 0;
-		for (SmtLibTerm conjunct : conjuncts) {
-			if (cache.contains(conjunct)) {
-				hits++;
+		double score1 = 3.0 * hits / numConjuncts;
+		double score2 = -((double) (cacheSize - hits) / cacheCap);
+		return score1 + score2;
+	}
+
+	private void updateIndex(int i) {
+		Set<SmtLibTerm> cache = cached.get(i);
+		List<SmtLibTerm> changes = pending.get(i);
+		for (SmtLibTerm conjunct : changes) {
+			if (conjunct == null) {
+				for (SmtLibTerm t : cache) {
+					BitSet bs = index.get(t);
+					bs.clear(i);
+					if (bs.isEmpty()) {
+						index.remove(t);
+					}
+				}
+				cache.clear();
+			} else if (cache.add(conjunct)) {
+				index.computeIfAbsent(conjunct, k -> new BitSet()).set(i);
 			}
 		}
-		double score1 = 3 * hits / conjuncts.size();
-		double score2 = -((cacheSize - hits) / cacheCap);
-		return score1 + score2;
+		changes.clear();
 	}
 
 	@Override
 	public void start(Program<?, ?> prog) throws EvaluationException {
 		for (int i = 0; i < solvers.length; ++i) {
 			CheckSatAssumingSolver solver = new CheckSatAssumingSolver();
+			List<SmtLibTerm> changes = pending.get(i);
+			solver.setCacheListener(new CheckSatAssumingSolver.CacheListener() {
+
+				@Override
+				public void cached(SmtLibTerm conjunct) {
+					changes.add(conjunct);
+				}
+
+				@Override
+				public void cleared() {
+					changes.add(null);
+				}
+
+			});
 			solver.start(prog);
 			solvers[i] = solver;
 		}
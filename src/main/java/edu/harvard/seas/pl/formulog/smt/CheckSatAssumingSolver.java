@@ -20,10 +20,12 @@ package edu.harvard.seas.pl.formulog.smt;
  * #L%
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -47,13 +49,45 @@ import edu.harvard.seas.pl.formulog.util.Pair;
 public class CheckSatAssumingSolver extends AbstractSmtLibSolver {
 
 	private final Map<SmtLibTerm, SolverVariable> indicatorVars = new HashMap<>();
+	private final Map<SmtLibTerm, Usage> usage = new HashMap<>();
 	private int nextVarId;
+	private int callCnt;
+	private CacheListener listener;
+
+	private static class Usage {
+
+		int lastUse;
+		int uses;
+		boolean retained;
+
+	}
+
+	/**
+	 * Is told about changes to the set of cached conjuncts. Its methods are called
+	 * by the thread that is using the solver.
+	 */
+	public interface CacheListener {
+
+		void cached(SmtLibTerm conjunct);
+
+		void cleared();
+
+	}
+
+	public void setCacheListener(CacheListener listener) {
+		this.listener = listener;
+	}
 
 	private void clearCache() throws EvaluationException {
+		List<SmtLibTerm> hot = findHotConjuncts(Configuration.smtCacheRetain);
 		if (Configuration.timeSmt) {
-			Configuration.recordCsaCacheClear(solverId);
+			Configuration.recordCsaCacheClear(solverId, hot.size());
 		}
 		indicatorVars.clear();
+		usage.keySet().retainAll(new HashSet<>(hot));
+		if (listener != null) {
+			listener.cleared();
+		}
 		nextVarId = 0;
 		if (Configuration.smtCacheHardResets) {
 			shim.reset();
@@ -62,6 +96,45 @@ public class CheckSatAssumingSolver extends AbstractSmtLibSolver {
 			shim.pop();
 			shim.push();
 		}
+		for (SmtLibTerm conjunct : hot) {
+			usage.get(conjunct).retained = true;
+			assertConjunct(conjunct);
+		}
+	}
+
+	/**
+	 * Returns (up to) the n most recently used conjuncts in the cache, breaking
+	 * ties by how often they have been used.
+	 */
+	private List<SmtLibTerm> findHotConjuncts(int n) {
+		if (n <= 0) {
+			return Collections.emptyList();
+		}
+		List<SmtLibTerm> l = new ArrayList<>(indicatorVars.keySet());
+		if (l.size() > n) {
+			l.sort((t1, t2) -> {
+				Usage u1 = usage.get(t1);
+				Usage u2 = usage.get(t2);
+				int cmp = Integer.compare(u2.lastUse, u1.lastUse);
+				if (cmp == 0) {
+					cmp = Integer.compare(u2.uses, u1.uses);
+				}
+				return cmp;
+			});
+			l = l.subList(0, n);
+		}
+		return l;
+	}
+
+	private SolverVariable assertConjunct(SmtLibTerm conjunct) throws EvaluationException {
+		SolverVariable x = makeIndicatorVar(conjunct);
+		indicatorVars.put(conjunct, x);
+		if (listener != null) {
+			listener.cached(conjunct);
+		}
+		SmtLibTerm imp = makeImp(x, conjunct);
+		shim.makeAssertion(imp);
+		return x;
 	}
 
 	public Set<SmtLibTerm> getCache() {
@@ -73,23 +146,31 @@ public class CheckSatAssumingSolver extends AbstractSmtLibSolver {
 			Collection<SmtLibTerm> formula) throws EvaluationException {
 		int oldSize = indicatorVars.size();
 		int hits = 0;
+		int retainedHits = 0;
 		int misses = 0;
+		int call = callCnt++;
 		Set<SolverVariable> onVars = new HashSet<>();
 		for (SmtLibTerm conjunct : formula) {
 			SolverVariable x = indicatorVars.get(conjunct);
+			Usage u;
 			if (x != null) {
 				hits++;
+				u = usage.get(conjunct);
+				if (u.retained) {
+					retainedHits++;
+				}
 			} else {
 				misses++;
-				x = makeIndicatorVar(conjunct);
-				indicatorVars.put(conjunct, x);
-				SmtLibTerm imp = makeImp(x, conjunct);
-				shim.makeAssertion(imp);
+				x = assertConjunct(conjunct);
+				u = new Usage();
+				usage.put(conjunct, u);
 			}
+			u.lastUse = call;
+			u.uses++;
 			onVars.add(x);
 		}
 		if (Configuration.timeSmt) {
-			Configuration.recordCsaCacheStats(solverId, hits, misses, oldSize);
+			Configuration.recordCsaCacheStats(solverId, hits, retainedHits, misses, oldSize);
 		}
 		Collection<SolverVariable> offVars;
 		if (Configuration.smtUseNegativeLiterals) {
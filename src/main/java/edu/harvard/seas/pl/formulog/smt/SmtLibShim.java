@@ -59,12 +59,15 @@ import edu.harvard.seas.pl.formulog.ast.Terms.TermVisitorExn;
 import edu.harvard.seas.pl.formulog.ast.Var;
 import edu.harvard.seas.pl.formulog.eval.EvaluationException;
 import edu.harvard.seas.pl.formulog.smt.SmtLibParser.SmtLibParseException;
+import edu.harvard.seas.pl.formulog.symbols.BuiltInConstructorSymbol;
 import edu.harvard.seas.pl.formulog.symbols.BuiltInTypeSymbol;
 import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbol;
 import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbolType;
 import edu.harvard.seas.pl.formulog.symbols.Symbol;
 import edu.harvard.seas.pl.formulog.symbols.SymbolManager;
 import edu.harvard.seas.pl.formulog.symbols.TypeSymbol;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.BuiltInConstructorSymbolBase;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.ParameterizedConstructorSymbol;
 import edu.harvard.seas.pl.formulog.types.FunctorType;
 import edu.harvard.seas.pl.formulog.types.TypeChecker;
 import edu.harvard.seas.pl.formulog.types.Types;
@@ -93,6 +96,17 @@ public class SmtLibShim {
 	private SymbolManager symbolManager;
 	private final List<String> declarations = new ArrayList<>();
 
+	private static final boolean shareTerms = Configuration.smtShareTerms;
+	// Subterms that have been given a name with define-fun, and (shareable)
+	// subterms that have already been printed in full; both are scoped like
+	// declared symbols.
+	private final Map<SmtLibTerm, String> sharedTerms = new HashMap<>();
+	private final Set<SmtLibTerm> printedTerms = new HashSet<>();
+	private final Deque<Set<SmtLibTerm>> sharedTermsByStackPos = new ArrayDeque<>();
+	private final Deque<Set<SmtLibTerm>> printedTermsByStackPos = new ArrayDeque<>();
+	private int sharedTermCnt;
+	private int binderDepth;
+
 	public SmtLibShim(Reader in, Writer out) {
 		this(in, out, null);
 	}
@@ -102,6 +116,8 @@ public class SmtLibShim {
 		this.out = new PrintWriter(out);
 		this.log = log != null ? new PrintWriter(log) : null;
 		symbolsByStackPos.add(new HashSet<>());
+		sharedTermsByStackPos.add(new HashSet<>());
+		printedTermsByStackPos.add(new HashSet<>());
 	}
 
 	public void initialize(Program<?, ?> prog, boolean declareAdts) {
@@ -147,14 +163,18 @@ public class SmtLibShim {
 			Configuration.recordSmtDeclTime(end - start);
 			start = end;
 		}
-		typeAnnotations = new MiniTypeInferer().inferTypes(assertion).iterator();
+		MiniTypeInferer inferer = new MiniTypeInferer();
+		typeAnnotations = inferer.inferTypes(assertion).iterator();
 		if (recordTime) {
 			end = System.nanoTime();
 			Configuration.recordSmtInferTime(end - start);
 			start = end;
 		}
+		if (shareTerms) {
+			defineSharedTerms(assertion, inferer);
+		}
 		print("(assert ");
-		assertion.toSmtLib(this);
+		print(assertion);
 		println(")");
 		checkSuccess();
 		if (recordTime) {
@@ -169,6 +189,12 @@ public class SmtLibShim {
 		symbolLookup.clear();
 		symbolsByStackPos.clear();
 		symbolsByStackPos.add(new HashSet<>());
+		sharedTerms.clear();
+		printedTerms.clear();
+		sharedTermsByStackPos.clear();
+		sharedTermsByStackPos.add(new HashSet<>());
+		printedTermsByStackPos.clear();
+		printedTermsByStackPos.add(new HashSet<>());
 		println("(reset)");
 		checkSuccess();
 	}
@@ -183,6 +209,8 @@ public class SmtLibShim {
 		println("(push 1)");
 		checkSuccess();
 		symbolsByStackPos.addLast(new HashSet<>());
+		sharedTermsByStackPos.addLast(new HashSet<>());
+		printedTermsByStackPos.addLast(new HashSet<>());
 	}
 
 	public void pop() throws EvaluationException {
@@ -197,6 +225,12 @@ public class SmtLibShim {
 				String s = declaredSymbols.remove(x);
 				symbolLookup.remove(s);
 			}
+			for (SmtLibTerm t : sharedTermsByStackPos.removeLast()) {
+				sharedTerms.remove(t);
+			}
+			for (SmtLibTerm t : printedTermsByStackPos.removeLast()) {
+				printedTerms.remove(t);
+			}
 		}
 	}
 
@@ -307,6 +341,110 @@ public class SmtLibShim {
 		print(s);
 	}
 
+	/**
+	 * Prints a (sub)term of an assertion, referring to it by name if it has been
+	 * defined as a shared term.
+	 */
+	public void print(SmtLibTerm t) {
+		String name = binderDepth == 0 ? sharedTerms.get(t) : null;
+		if (name != null) {
+			print(name);
+			return;
+		}
+		// Shared terms are defined outside of any binder, so they cannot be used
+		// where a bound variable might shadow one of their free variables.
+		boolean binder = isBinder(t);
+		if (binder) {
+			binderDepth++;
+		}
+		t.toSmtLib(this);
+		if (binder) {
+			binderDepth--;
+		}
+	}
+
+	private static boolean isBinder(Term t) {
+		if (!(t instanceof Constructor)) {
+			return false;
+		}
+		ConstructorSymbol sym = ((Constructor) t).getSymbol();
+		if (sym instanceof ParameterizedConstructorSymbol) {
+			return ((ParameterizedConstructorSymbol) sym).getBase().equals(BuiltInConstructorSymbolBase.SMT_LET);
+		}
+		return sym.equals(BuiltInConstructorSymbol.SMT_FORALL) || sym.equals(BuiltInConstructorSymbol.SMT_EXISTS);
+	}
+
+	/**
+	 * Gives a name (with define-fun) to every shareable subterm of the assertion
+	 * that occurs more than once in it, or that has already been printed in full
+	 * for an earlier assertion. A subterm is shareable if it is not a variable,
+	 * is not under a binder, and does not need any type annotations, so that
+	 * printing it by name does not change which annotations are consumed.
+	 */
+	private void defineSharedTerms(SmtLibTerm assertion, MiniTypeInferer inferer) throws EvaluationException {
+		Map<Term, Integer> counts = new HashMap<>();
+		Map<Term, Boolean> shareable = new HashMap<>();
+		List<SmtLibTerm> candidates = new ArrayList<>();
+		findShareableTerms(assertion, counts, shareable, candidates);
+		for (SmtLibTerm t : candidates) {
+			if (sharedTerms.containsKey(t)) {
+				continue;
+			}
+			if (counts.get(t) == 1 && !printedTerms.contains(t)) {
+				printedTerms.add(t);
+				printedTermsByStackPos.getLast().add(t);
+				continue;
+			}
+			Type type = inferer.getType(t);
+			if (type == null || !Types.getTypeVars(type).isEmpty()) {
+				continue;
+			}
+			String sort = stringifyType(type);
+			if (sort == null) {
+				continue;
+			}
+			// Candidates come in post order, so the subterms of a term are defined
+			// before it is.
+			String name = "t_" + sharedTermCnt++;
+			print("(define-fun " + name + " () " + sort + " ");
+			t.toSmtLib(this);
+			println(")");
+			checkSuccess();
+			sharedTerms.put(t, name);
+			sharedTermsByStackPos.getLast().add(t);
+		}
+	}
+
+	private boolean findShareableTerms(Term t, Map<Term, Integer> counts, Map<Term, Boolean> shareable,
+			List<SmtLibTerm> candidates) {
+		if (!(t instanceof Constructor)) {
+			return true;
+		}
+		Integer n = counts.get(t);
+		if (n != null) {
+			counts.put(t, n + 1);
+			return shareable.get(t);
+		}
+		counts.put(t, 1);
+		if (sharedTerms.containsKey(t)) {
+			// Its subterms will not be printed.
+			shareable.put(t, true);
+			return true;
+		}
+		Constructor c = (Constructor) t;
+		boolean ok = !needsTypeAnnotation(c.getSymbol()) && !isBinder(c);
+		if (ok && !(c instanceof SolverVariable)) {
+			for (Term arg : c.getArgs()) {
+				ok &= findShareableTerms(arg, counts, shareable, candidates);
+			}
+			if (ok && c.getSymbol().getArity() > 0) {
+				candidates.add((SmtLibTerm) c);
+			}
+		}
+		shareable.put(t, ok);
+		return ok;
+	}
+
 	public void print(Symbol sym) {
 		print(stringifySymbol(sym));
 	}
@@ -372,6 +510,14 @@ public class SmtLibShim {
 		}, null);
 	}
 
+	/**
+	 * Returns the declarations (of sorts, algebraic data types, and uninterpreted
+	 * functions) gathered by {@link #initialize}.
+	 */
+	public List<String> getDeclarations() {
+		return Collections.unmodifiableList(declarations);
+	}
+
 	public void makeDeclarations() {
 		long start = 0;
 		if (Configuration.timeSmt) {
@@ -686,6 +832,19 @@ public class SmtLibShim {
 
 		private final Deque<Pair<Type, Type>> constraints = new ArrayDeque<>();
 		private final Map<TypeVar, Type> subst = new HashMap<>();
+		private final Map<Term, Type> termTypes = shareTerms ? new HashMap<>() : null;
+
+		/**
+		 * Returns the type inferred for a constructor subterm of the last term given
+		 * to <code>inferTypes</code>.
+		 */
+		public Type getType(Term t) {
+			Type ty = termTypes.get(t);
+			if (ty == null) {
+				return null;
+			}
+			return TypeChecker.simplify(ty.applySubst(subst));
+		}
 
 		public List<Pair<ConstructorSymbol, Type>> inferTypes(Term t) {
 			constraints.clear();
@@ -713,6 +872,9 @@ public class SmtLibShim {
 					ConstructorSymbol sym = c.getSymbol();
 					FunctorType ft = sym.getCompileTimeType().freshen();
 					Type ty = ft.getRetType();
+					if (termTypes != null) {
+						termTypes.putIfAbsent(c, ty);
+					}
 					if (needsTypeAnnotation(sym)) {
 						types.add(new Pair<>(sym, ty));
 					}
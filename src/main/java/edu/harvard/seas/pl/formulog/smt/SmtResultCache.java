@@ -0,0 +1,243 @@
+package edu.harvard.seas.pl.formulog.smt;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import edu.harvard.seas.pl.formulog.util.ExceptionalFunction;
+
+/**
+ * A cache of SMT results. If it is given a positive capacity, it evicts entries
+ * (according to its eviction policy) once it grows past that capacity. It can
+ * also be set to only remember the status of a query, and not its model; a
+ * query that wants a model for a satisfiable formula will then go to the
+ * solver again.
+ */
+public class SmtResultCache<K> {
+
+	public enum Policy {
+		LRU,
+
+		LFU,
+
+		;
+	}
+
+	private final Map<K, Entry> m = new ConcurrentHashMap<>();
+	// The entries that can be evicted, grouped by use count (which is always 1
+	// under LRU) and, within a group, ordered from least to most recently used.
+	// Only maintained if there is a capacity; guarded by itself.
+	private final TreeMap<Integer, LinkedHashSet<Entry>> evictionOrder = new TreeMap<>();
+	private int tracked;
+	private final int capacity;
+	private final Policy policy;
+	private final boolean keepModels;
+
+	public SmtResultCache(int capacity, Policy policy, boolean keepModels) {
+		this.capacity = capacity;
+		this.policy = policy;
+		this.keepModels = keepModels;
+	}
+
+	public SmtResult lookupOrCompute(K key, boolean getModel, ExceptionalFunction<K, SmtResult, EvaluationException> f)
+			throws EvaluationException {
+		Entry e = m.get(key);
+		if (e == null) {
+			Entry e2 = new Entry(key);
+			e = m.putIfAbsent(key, e2);
+			if (e == null) {
+				if (Configuration.timeSmt) {
+					Configuration.recordSmtMemoMiss();
+				}
+				track(e2);
+				return compute(key, e2, f);
+			}
+		}
+		touch(e);
+		SmtResult res = await(e);
+		if (getModel && res.model == null && res.status.equals(SmtStatus.SATISFIABLE)) {
+			// Only the status was remembered, so the solver has to be asked again.
+			if (Configuration.timeSmt) {
+				Configuration.recordSmtMemoMiss();
+			}
+			return f.apply(key);
+		}
+		if (Configuration.timeSmt) {
+			Configuration.recordSmtMemoHit();
+		}
+		return res;
+	}
+
+	private SmtResult compute(K key, Entry e, ExceptionalFunction<K, SmtResult, EvaluationException> f)
+			throws EvaluationException {
+		SmtResult res;
+		try {
+			res = f.apply(key);
+		} catch (EvaluationException | RuntimeException exn) {
+			// Do not leave anyone waiting on a result that will never come.
+			m.remove(key, e);
+			untrack(e);
+			e.fut.completeExceptionally(exn);
+			throw exn;
+		}
+		if (keepModels || res.model == null) {
+			e.fut.complete(res);
+		} else {
+			e.fut.complete(new SmtResult(res.status, null, res.solverId, res.taskId));
+		}
+		return res;
+	}
+
+	private SmtResult await(Entry e) throws EvaluationException {
+		long waitStart = 0;
+		if (Configuration.timeSmt) {
+			waitStart = System.nanoTime();
+		}
+		try {
+			return e.fut.get();
+		} catch (InterruptedException | ExecutionException exn) {
+			throw new EvaluationException(exn);
+		} finally {
+			if (Configuration.timeSmt) {
+				Configuration.recordSmtWaitTime(System.nanoTime() - waitStart);
+			}
+		}
+	}
+
+	private void track(Entry e) {
+		if (capacity <= 0) {
+			return;
+		}
+		synchronized (evictionOrder) {
+			e.uses = 1;
+			bucket(1).add(e);
+			tracked++;
+			if (tracked > capacity) {
+				evict();
+			}
+		}
+	}
+
+	private void touch(Entry e) {
+		if (capacity <= 0) {
+			return;
+		}
+		synchronized (evictionOrder) {
+			if (e.uses == 0) {
+				// Already evicted
+				return;
+			}
+			removeFromBucket(e);
+			if (policy.equals(Policy.LFU)) {
+				e.uses++;
+			}
+			bucket(e.uses).add(e);
+		}
+	}
+
+	private void untrack(Entry e) {
+		if (capacity <= 0) {
+			return;
+		}
+		synchronized (evictionOrder) {
+			if (e.uses != 0) {
+				removeFromBucket(e);
+				e.uses = 0;
+				tracked--;
+			}
+		}
+	}
+
+	private LinkedHashSet<Entry> bucket(int uses) {
+		LinkedHashSet<Entry> b = evictionOrder.get(uses);
+		if (b == null) {
+			b = new LinkedHashSet<>();
+			evictionOrder.put(uses, b);
+		}
+		return b;
+	}
+
+	private void removeFromBucket(Entry e) {
+		LinkedHashSet<Entry> b = evictionOrder.get(e.uses);
+		b.remove(e);
+		if (b.isEmpty()) {
+			evictionOrder.remove(e.uses);
+		}
+	}
+
+	/*
+	 * Evicts down to 90% of capacity, so that evictions are batched. Entries that
+	 * are still being computed are skipped, since other threads might be waiting
+	 * on them. Must be called while holding the lock on evictionOrder.
+	 */
+	private void evict() {
+		int target = capacity - capacity / 10;
+		int evicted = 0;
+		Iterator<LinkedHashSet<Entry>> buckets = evictionOrder.values().iterator();
+		while (tracked > target && buckets.hasNext()) {
+			LinkedHashSet<Entry> b = buckets.next();
+			for (Iterator<Entry> it = b.iterator(); tracked > target && it.hasNext();) {
+				Entry e = it.next();
+				if (!e.fut.isDone()) {
+					continue;
+				}
+				it.remove();
+				e.uses = 0;
+				tracked--;
+				if (m.remove(e.key, e)) {
+					evicted++;
+				}
+			}
+			if (b.isEmpty()) {
+				buckets.remove();
+			}
+		}
+		if (Configuration.timeSmt) {
+			Configuration.recordSmtMemoEvictions(evicted);
+		}
+	}
+
+	public int size() {
+		return m.size();
+	}
+
+	private class Entry {
+
+		final K key;
+		final CompletableFuture<SmtResult> fut = new CompletableFuture<>();
+		// Guarded by the lock on evictionOrder; 0 if the entry is not tracked.
+		int uses;
+
+		Entry(K key) {
+			this.key = key;
+		}
+
+	}
+
+}
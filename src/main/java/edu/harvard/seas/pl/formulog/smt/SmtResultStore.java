@@ -0,0 +1,273 @@
+package edu.harvard.seas.pl.formulog.smt;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.Constructor;
+import edu.harvard.seas.pl.formulog.ast.Primitive;
+import edu.harvard.seas.pl.formulog.ast.Program;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.ast.StringTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+
+/**
+ * A file-backed store of the statuses of SMT queries, so that they can be
+ * reused across runs. Each line of the file holds the digest of a query and its
+ * status. A query is identified by a canonical serialization of its conjuncts,
+ * its timeout, the solver and logic in use, and the declarations (of sorts,
+ * algebraic data types, and uninterpreted functions) that the program makes to
+ * the solver. Only definite (sat or unsat) answers are stored; models are not.
+ */
+public class SmtResultStore {
+
+	private final Map<String, SmtStatus> m = new ConcurrentHashMap<>();
+	private final BufferedWriter out;
+	private final byte[] declsDigest;
+
+	private SmtResultStore(BufferedWriter out, byte[] declsDigest) {
+		this.out = out;
+		this.declsDigest = declsDigest;
+	}
+
+	public static SmtResultStore open(Path file, Program<?, ?> prog) throws IOException {
+		Map<String, SmtStatus> m = new ConcurrentHashMap<>();
+		if (Files.exists(file)) {
+			dropIncompleteLine(file);
+			try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = br.readLine()) != null) {
+					String[] parts = line.split(" ");
+					if (parts.length != 2) {
+						throw new IOException("Malformed line in SMT memo file " + file + ": " + line);
+					}
+					m.put(parts[0], parseStatus(parts[1]));
+				}
+			}
+		}
+		BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+		SmtResultStore store = new SmtResultStore(out, digestDeclarations(prog));
+		store.m.putAll(m);
+		return store;
+	}
+
+	/**
+	 * Truncates the file after its last newline. Every record ends with a newline,
+	 * so anything after it is a record that was cut off (say, because an earlier
+	 * run was killed while writing it).
+	 */
+	private static void dropIncompleteLine(Path file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			long len = raf.length();
+			long end = len;
+			while (end > 0) {
+				raf.seek(end - 1);
+				if (raf.read() == '\n') {
+					break;
+				}
+				end--;
+			}
+			if (end < len) {
+				raf.setLength(end);
+			}
+		}
+	}
+
+	private static byte[] digestDeclarations(Program<?, ?> prog) {
+		SmtLibShim shim = new SmtLibShim(null, new StringWriter());
+		shim.initialize(prog, Configuration.smtDeclareAdts);
+		List<String> decls = new ArrayList<>();
+		for (String decl : shim.getDeclarations()) {
+			decls.add(canonicalize(decl));
+		}
+		Collections.sort(decls);
+		MessageDigest md = newDigest();
+		for (String decl : decls) {
+			putString(md, decl);
+		}
+		return md.digest();
+	}
+
+	private static final Pattern typeVar = Pattern.compile("\\|'_[0-9]+\\|");
+	private static final Pattern trailingParens = Pattern.compile("[)\\s]+$");
+
+	/**
+	 * Declarations come out in the iteration order of sets of symbols, and type
+	 * variables get fresh names, so neither is the same from run to run. This
+	 * renumbers the type variables and sorts the lines of the declaration (each
+	 * constructor of an algebraic data type is on its own line).
+	 */
+	private static String canonicalize(String decl) {
+		Map<String, String> renaming = new HashMap<>();
+		Matcher m = typeVar.matcher(decl);
+		StringBuffer sb = new StringBuffer();
+		while (m.find()) {
+			String x = renaming.computeIfAbsent(m.group(), k -> "|'_" + renaming.size() + "|");
+			m.appendReplacement(sb, Matcher.quoteReplacement(x));
+		}
+		m.appendTail(sb);
+		String[] lines = sb.toString().split("\\n");
+		for (int i = 0; i < lines.length; ++i) {
+			// The parentheses that close the declaration follow whichever line
+			// comes last.
+			lines[i] = trailingParens.matcher(lines[i]).replaceFirst("");
+		}
+		Arrays.sort(lines);
+		return String.join("\n", lines);
+	}
+
+	private static SmtStatus parseStatus(String s) throws IOException {
+		switch (s) {
+		case "sat":
+			return SmtStatus.SATISFIABLE;
+		case "unsat":
+			return SmtStatus.UNSATISFIABLE;
+		}
+		throw new IOException("Unexpected SMT status in SMT memo file: " + s);
+	}
+
+	/**
+	 * Returns the key of a query, or null if the query contains a term that has no
+	 * canonical serialization.
+	 */
+	public String makeKey(Collection<SmtLibTerm> conjuncts, int timeout) {
+		MessageDigest md = newDigest();
+		md.update(declsDigest);
+		putString(md, Configuration.smtSolver);
+		putString(md, String.valueOf(Configuration.smtLogic));
+		putInt(md, timeout);
+		putInt(md, conjuncts.size());
+		// Subterms are numbered in the order they are first reached, so that a
+		// subterm that occurs many times is serialized once.
+		Map<Integer, Integer> seen = new HashMap<>();
+		for (SmtLibTerm conjunct : conjuncts) {
+			if (!serialize(conjunct, md, seen)) {
+				return null;
+			}
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : md.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	private static boolean serialize(Term t, MessageDigest md, Map<Integer, Integer> seen) {
+		Integer n = seen.get(t.getId());
+		if (n != null) {
+			md.update((byte) 'r');
+			putInt(md, n);
+			return true;
+		}
+		if (t instanceof StringTerm) {
+			md.update((byte) 's');
+			putString(md, ((StringTerm) t).getVal());
+		} else if (t instanceof Primitive) {
+			md.update((byte) 'p');
+			putString(md, t.getClass().getSimpleName());
+			putString(md, t.toString());
+		} else if (t instanceof Constructor) {
+			Constructor c = (Constructor) t;
+			Term[] args = c.getArgs();
+			md.update((byte) 'c');
+			putString(md, c.getSymbol().toString());
+			putInt(md, args.length);
+			for (Term arg : args) {
+				if (!serialize(arg, md, seen)) {
+					return false;
+				}
+			}
+		} else {
+			return false;
+		}
+		seen.put(t.getId(), seen.size());
+		return true;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static void putInt(MessageDigest md, int n) {
+		md.update((byte) (n >>> 24));
+		md.update((byte) (n >>> 16));
+		md.update((byte) (n >>> 8));
+		md.update((byte) n);
+	}
+
+	private static void putString(MessageDigest md, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		putInt(md, bytes.length);
+		md.update(bytes);
+	}
+
+	public SmtStatus lookup(String key) {
+		return m.get(key);
+	}
+
+	public void record(String key, SmtStatus status) throws IOException {
+		String s;
+		switch (status) {
+		case SATISFIABLE:
+			s = "sat";
+			break;
+		case UNSATISFIABLE:
+			s = "unsat";
+			break;
+		default:
+			return;
+		}
+		if (m.putIfAbsent(key, status) == null) {
+			synchronized (out) {
+				out.write(key + " " + s);
+				out.newLine();
+				out.flush();
+			}
+		}
+	}
+
+}
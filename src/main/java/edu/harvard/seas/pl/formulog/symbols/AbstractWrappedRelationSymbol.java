@@ -65,6 +65,11 @@ public abstract class AbstractWrappedRelationSymbol<R extends RelationSymbol> im
 	public boolean isExternal() {
 		return false;
 	}
+
+	@Override
+	public LatticeType getLattice() {
+		return baseSymbol.getLattice();
+	}
 	
 	@Override
 	public int hashCode() {
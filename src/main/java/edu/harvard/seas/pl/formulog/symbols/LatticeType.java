@@ -0,0 +1,52 @@
+package edu.harvard.seas.pl.formulog.symbols;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.formulog.ast.Primitive;
+import edu.harvard.seas.pl.formulog.ast.Term;
+
+/**
+ * How a relation whose last column is a lattice value combines the values it
+ * derives for the same key (i.e., the same values in the other columns): the
+ * relation only keeps the least (or greatest) value it has seen for each key.
+ */
+public enum LatticeType {
+
+	MIN,
+
+	MAX;
+
+	/**
+	 * Returns whether the lattice value <code>x</code> is strictly better than the
+	 * lattice value <code>y</code>.
+	 */
+	public boolean improves(Term x, Term y) {
+		int c = compare(x, y);
+		return this == MIN ? c < 0 : c > 0;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compare(Term x, Term y) {
+		Comparable v = (Comparable) ((Primitive<?>) x).getVal();
+		return v.compareTo(((Primitive<?>) y).getVal());
+	}
+
+}
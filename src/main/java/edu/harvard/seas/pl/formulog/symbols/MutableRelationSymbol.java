@@ -28,5 +28,7 @@ public interface MutableRelationSymbol extends RelationSymbol {
 	void setBottomUp();
 	
 	void setExternal();
+
+	void setLattice(LatticeType lattice);
 	
 }
@@ -34,5 +34,13 @@ public interface RelationSymbol extends TypedSymbol {
 	boolean isBottomUp();
 
 	boolean isTopDown();
+
+	/**
+	 * Returns how the last column of this relation is merged across tuples with
+	 * the same key, or null if the relation is an ordinary set of tuples.
+	 */
+	default LatticeType getLattice() {
+		return null;
+	}
 	
 }
@@ -182,6 +182,7 @@ public class SymbolManager {
 		private boolean bottomUp;
 		private boolean topDown;
 		private boolean external;
+		private LatticeType lattice;
 
 		public RelationSymbolImpl(String name, int arity, boolean isIdb, FunctorType type) {
 			super(name, arity, type);
@@ -230,6 +231,19 @@ public class SymbolManager {
 			external = true;
 		}
 
+		@Override
+		public synchronized LatticeType getLattice() {
+			return lattice;
+		}
+
+		@Override
+		public synchronized void setLattice(LatticeType lattice) {
+			if (this.lattice != null) {
+				throw new IllegalStateException("Relation cannot have more than one lattice annotation");
+			}
+			this.lattice = lattice;
+		}
+
 	}
 
 	public void registerSymbol(Symbol sym) {
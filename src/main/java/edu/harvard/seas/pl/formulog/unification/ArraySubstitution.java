@@ -0,0 +1,124 @@
+package edu.harvard.seas.pl.formulog.unification;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.harvard.seas.pl.formulog.ast.SlotVar;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Var;
+
+/**
+ * A substitution that stores the bindings of slot variables in an array indexed
+ * by slot. Any other variable (e.g., one bound by a match pattern) is kept in a
+ * map that is only created when needed.
+ */
+public class ArraySubstitution implements Substitution {
+
+	private final Term[] vals;
+	private final SlotVar[] keys;
+	private Map<Var, Term> others;
+
+	public ArraySubstitution(int size) {
+		this(new Term[size], new SlotVar[size], null);
+	}
+
+	private ArraySubstitution(Term[] vals, SlotVar[] keys, Map<Var, Term> others) {
+		this.vals = vals;
+		this.keys = keys;
+		this.others = others;
+	}
+
+	public Term get(int slot) {
+		return vals[slot];
+	}
+
+	@Override
+	public void put(Var v, Term t) {
+		if (v instanceof SlotVar) {
+			int slot = ((SlotVar) v).getSlot();
+			vals[slot] = t;
+			keys[slot] = (SlotVar) v;
+		} else {
+			if (others == null) {
+				others = new HashMap<>();
+			}
+			others.put(v, t);
+		}
+	}
+
+	@Override
+	public Term get(Var v) {
+		Term t;
+		if (v instanceof SlotVar) {
+			t = vals[((SlotVar) v).getSlot()];
+		} else {
+			t = others == null ? null : others.get(v);
+		}
+		assert t != null;
+		return t;
+	}
+
+	@Override
+	public boolean containsKey(Var v) {
+		if (v instanceof SlotVar) {
+			return vals[((SlotVar) v).getSlot()] != null;
+		}
+		return others != null && others.containsKey(v);
+	}
+
+	@Override
+	public Iterable<Var> iterateKeys() {
+		List<Var> l = new ArrayList<>();
+		for (int i = 0; i < vals.length; ++i) {
+			if (vals[i] != null) {
+				l.add(keys[i]);
+			}
+		}
+		if (others != null) {
+			l.addAll(others.keySet());
+		}
+		return l;
+	}
+
+	public ArraySubstitution copy() {
+		Map<Var, Term> m = others == null ? null : new HashMap<>(others);
+		return new ArraySubstitution(Arrays.copyOf(vals, vals.length), Arrays.copyOf(keys, keys.length), m);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (Var x : iterateKeys()) {
+			sb.append(x);
+			sb.append(" -> ");
+			sb.append(get(x));
+			sb.append(" ");
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+
+}
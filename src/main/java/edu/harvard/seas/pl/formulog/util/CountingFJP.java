@@ -31,6 +31,12 @@ public interface CountingFJP {
 	
 	void reportTaskCompletion();
 
+	/**
+	 * Registers a unit of work that is being done outside of the pool, so that
+	 * the pool is not considered finished until that work reports its completion.
+	 */
+	void reportTaskStart();
+
 	void blockUntilFinished();
 
 	void shutdown();
@@ -42,5 +48,12 @@ public interface CountingFJP {
 	EvaluationException getFailureCause();
 	
 	long getStealCount();
+
+	/**
+	 * Returns a pool that shares this pool's threads, but keeps its own count of
+	 * outstanding tasks, so that it can be waited on independently. A failure in
+	 * the new pool is also a failure of this one.
+	 */
+	CountingFJP newScope();
 	
 }
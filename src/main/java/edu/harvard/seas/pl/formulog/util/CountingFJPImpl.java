@@ -21,6 +21,8 @@ package edu.harvard.seas.pl.formulog.util;
  */
 
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.ForkJoinWorkerThread;
@@ -33,11 +35,13 @@ import edu.harvard.seas.pl.formulog.eval.EvaluationException;
 public class CountingFJPImpl implements CountingFJP {
 
 	private final ForkJoinPool exec;
+	private final CountingFJPImpl parent;
+	private final List<CountingFJPImpl> scopes = new CopyOnWriteArrayList<>();
 	private final AtomicInteger taskCount = new AtomicInteger();
 	private volatile EvaluationException failureCause;
 
 	public CountingFJPImpl(int parallelism) {
-		this.exec = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+		this(new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
 				new Thread.UncaughtExceptionHandler() {
 
 					@Override
@@ -45,7 +49,12 @@ public class CountingFJPImpl implements CountingFJP {
 						System.err.println(e);
 					}
 
-				}, false);
+				}, false), null);
+	}
+
+	private CountingFJPImpl(ForkJoinPool exec, CountingFJPImpl parent) {
+		this.exec = exec;
+		this.parent = parent;
 	}
 
 	public void externallyAddTask(AbstractFJPTask w) {
@@ -67,6 +76,10 @@ public class CountingFJPImpl implements CountingFJP {
 		}
 	}
 
+	public void reportTaskStart() {
+		taskCount.incrementAndGet();
+	}
+
 	public void reportTaskCompletion() {
 		if (taskCount.decrementAndGet() == 0) {
 			synchronized (taskCount) {
@@ -88,6 +101,10 @@ public class CountingFJPImpl implements CountingFJP {
 	}
 
 	public final void shutdown() {
+		if (parent != null) {
+			// The threads belong to the parent.
+			return;
+		}
 		exec.shutdown();
 		while (!exec.isTerminated()) {
 			try {
@@ -100,18 +117,41 @@ public class CountingFJPImpl implements CountingFJP {
 
 	public final void fail(EvaluationException cause) {
 		failureCause = cause;
-		exec.shutdownNow();
+		if (parent != null) {
+			parent.fail(cause);
+		} else {
+			exec.shutdownNow();
+		}
+		wakeUp();
+	}
+
+	// Once the threads are gone, tasks of other scopes will never complete.
+	private void wakeUp() {
 		synchronized (taskCount) {
 			taskCount.notify();
 		}
+		for (CountingFJPImpl scope : scopes) {
+			scope.wakeUp();
+		}
 	}
 
 	public final boolean hasFailed() {
-		return failureCause != null;
+		return getFailureCause() != null;
 	}
 
 	public final EvaluationException getFailureCause() {
-		return failureCause;
+		EvaluationException cause = failureCause;
+		if (cause == null && parent != null) {
+			cause = parent.getFailureCause();
+		}
+		return cause;
+	}
+
+	@Override
+	public CountingFJP newScope() {
+		CountingFJPImpl scope = new CountingFJPImpl(exec, this);
+		scopes.add(scope);
+		return scope;
 	}
 
 	@Override
@@ -22,8 +22,6 @@ package edu.harvard.seas.pl.formulog.util;
 
 
 import java.util.Arrays;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 import edu.harvard.seas.pl.formulog.ast.Term;
@@ -76,23 +74,18 @@ public final class FunctorUtil {
 
 	public static class Memoizer<T extends Term> {
 
-		private final Map<Key, T> memo = new ConcurrentHashMap<>();
-		
+		private final InternTable<Key, T> memo;
+
+		public Memoizer(String name) {
+			memo = new InternTable<>(name);
+		}
+
 		public T lookupOrCreate(Symbol sym, Term[] args, Supplier<T> constructor) {
 			if (sym.getArity() != args.length) {
 				throw new IllegalArgumentException("Symbol " + sym + " has arity " + sym.getArity() + " but args "
 						+ Arrays.toString(args) + " have arity " + args.length);
 			}
-			Key key = new Key(sym, args);
-			T f = memo.get(key);
-			if (f == null) {
-				f = constructor.get();
-				T f2 = memo.putIfAbsent(key, f);
-				if (f2 != null) {
-					f = f2;
-				}
-			}
-			return f;
+			return memo.lookupOrCreate(new Key(sym, args), constructor);
 		}
 
 		private static class Key {
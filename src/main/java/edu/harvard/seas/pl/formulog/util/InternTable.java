@@ -0,0 +1,152 @@
+package edu.harvard.seas.pl.formulog.util;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.PrintStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+
+/**
+ * A table for hash-consing values. If the <code>weakTermTables</code> option is
+ * set, values are only weakly held, so that a value that is no longer
+ * referenced anywhere else can be garbage collected (and its entry dropped);
+ * otherwise, values live as long as the table does.
+ */
+public class InternTable<K, V> {
+
+	private static final boolean weak = Configuration.weakTermTables;
+	private static final boolean recordStats = Configuration.recordTermTableStats;
+	private static final List<InternTable<?, ?>> tables = new CopyOnWriteArrayList<>();
+
+	private final String name;
+	private final Map<K, Object> m = new ConcurrentHashMap<>();
+	private final ReferenceQueue<V> queue = weak ? new ReferenceQueue<>() : null;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public InternTable(String name) {
+		this.name = name;
+		if (recordStats) {
+			tables.add(this);
+		}
+	}
+
+	public V lookupOrCreate(K k, Supplier<V> cnstr) {
+		Object o = m.get(k);
+		V v = unwrap(o);
+		if (v != null) {
+			if (recordStats) {
+				hits.increment();
+			}
+			return v;
+		}
+		if (recordStats) {
+			misses.increment();
+		}
+		if (weak) {
+			expungeStaleEntries();
+		}
+		v = cnstr.get();
+		Object w = wrap(k, v);
+		while (true) {
+			Object cur = m.putIfAbsent(k, w);
+			if (cur == null) {
+				return v;
+			}
+			V u = unwrap(cur);
+			if (u != null) {
+				return u;
+			}
+			// The existing entry has been cleared, but not yet expunged.
+			if (m.replace(k, cur, w)) {
+				return v;
+			}
+		}
+	}
+
+	private Object wrap(K k, V v) {
+		return weak ? new WeakValue<>(k, v, queue) : v;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V unwrap(Object o) {
+		if (o instanceof WeakValue) {
+			return ((WeakValue<K, V>) o).get();
+		}
+		return (V) o;
+	}
+
+	private void expungeStaleEntries() {
+		Reference<? extends V> r;
+		while ((r = queue.poll()) != null) {
+			m.remove(((WeakValue<?, ?>) r).key, r);
+		}
+	}
+
+	public int size() {
+		if (weak) {
+			expungeStaleEntries();
+		}
+		return m.size();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public static void printStats(PrintStream out) {
+		for (InternTable<?, ?> t : tables) {
+			long h = t.getHits();
+			long total = h + t.getMisses();
+			double rate = total == 0 ? 0 : (double) h / total;
+			out.printf("[TERM TABLE] %s: size=%d, lookups=%d, hit rate=%1.3f%n", t.getName(), t.size(), total, rate);
+		}
+	}
+
+	private static class WeakValue<K, V> extends WeakReference<V> {
+
+		final K key;
+
+		public WeakValue(K key, V referent, ReferenceQueue<? super V> q) {
+			super(referent, q);
+			this.key = key;
+		}
+
+	}
+
+}
@@ -68,9 +68,19 @@ public class MockCountingFJP implements CountingFJP {
 		
 	}
 
+	@Override
+	public synchronized void reportTaskStart() {
+
+	}
+
 	@Override
 	public long getStealCount() {
 		return 0;
 	}
 
+	@Override
+	public CountingFJP newScope() {
+		return new MockCountingFJP();
+	}
+
 }
@@ -23,8 +23,10 @@ package edu.harvard.seas.pl.formulog.validating;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -94,6 +96,7 @@ public class Stratifier {
 		TopologicalOrderIterator<Graph<RelationSymbol, DependencyTypeWrapper>, DefaultEdge> topo = new TopologicalOrderIterator<>(
 				condensation);
 		List<Stratum> strata = new ArrayList<>();
+		Map<Graph<RelationSymbol, DependencyTypeWrapper>, Stratum> strataByComponent = new IdentityHashMap<>();
 		int rank = 0;
 		while (topo.hasNext()) {
 			boolean hasRecursiveNegationOrAggregation = false;
@@ -113,7 +116,16 @@ public class Stratifier {
 				}
 				hasRecursiveNegationOrAggregation |= d.equals(DependencyType.NEG_OR_AGG_IN_REL);
 			}
-			strata.add(new Stratum(rank, component.vertexSet(), hasRecursiveNegationOrAggregation));
+			Set<Stratum> dependencies = new HashSet<>();
+			for (DefaultEdge e : condensation.incomingEdgesOf(component)) {
+				Stratum pred = strataByComponent.get(condensation.getEdgeSource(e));
+				if (pred != null) {
+					dependencies.add(pred);
+				}
+			}
+			Stratum stratum = new Stratum(rank, component.vertexSet(), hasRecursiveNegationOrAggregation, dependencies);
+			strataByComponent.put(component, stratum);
+			strata.add(stratum);
 			rank++;
 		}
 		return strata;
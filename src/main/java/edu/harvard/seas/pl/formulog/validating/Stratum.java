@@ -30,11 +30,14 @@ public class Stratum {
 	private final int rank;
 	private final Set<RelationSymbol> predicateSyms;
 	private final boolean hasRecursiveNegationOrAggregation;
+	private final Set<Stratum> dependencies;
 
-	public Stratum(int rank, Set<RelationSymbol> predicateSyms, boolean hasRecursiveNegationOrAggregation) {
+	public Stratum(int rank, Set<RelationSymbol> predicateSyms, boolean hasRecursiveNegationOrAggregation,
+			Set<Stratum> dependencies) {
 		this.rank = rank;
 		this.predicateSyms = predicateSyms;
 		this.hasRecursiveNegationOrAggregation = hasRecursiveNegationOrAggregation;
+		this.dependencies = dependencies;
 	}
 
 	public int getRank() {
@@ -49,6 +52,13 @@ public class Stratum {
 		return hasRecursiveNegationOrAggregation;
 	}
 
+	/**
+	 * Returns the (lower) strata that define relations this stratum depends on.
+	 */
+	public Set<Stratum> getDependencies() {
+		return dependencies;
+	}
+
 	@Override
 	public String toString() {
 		return "Stratum [rank=" + rank + ", predicateSyms=" + predicateSyms + ", hasRecursiveNegationOrAggregation="
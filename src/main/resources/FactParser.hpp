@@ -1,6 +1,9 @@
 #pragma once
 
+#include <array>
 #include <cmath>
+#include <cstdlib>
+#include <cstring>
 #include <iostream>
 #include <limits>
 #include <string>
@@ -22,9 +25,13 @@ namespace flg {
 using namespace std;
 using namespace antlr4;
 
+// The kinds of the columns of a relation, as far as loading facts goes.
+enum class FactColumn { i32, i64, fp32, fp64, boolean, string, term };
+
 class TermParser : private FormulogBaseVisitor {
   public:
   term_ptr parse(FormulogParser::TermContext* ctx);
+  term_ptr parse(const string& s);
 
   private:
   term_ptr* parse(vector<FormulogParser::TermContext*> ctxs);
@@ -237,45 +244,208 @@ term_ptr TermParser::parse(FormulogParser::TermContext* ctx) {
   return res;
 }
 
-template <typename T>
+term_ptr TermParser::parse(const string& s) {
+  ANTLRInputStream input(s);
+  FormulogLexer lexer(&input);
+  BufferedTokenStream tokens(&lexer);
+  FormulogParser parser(&tokens);
+  return parse(parser.term());
+}
+
+// Parses the lines of a fact file (or a chunk of one that ends at a line
+// boundary). Cells of primitive columns that are written in the usual way
+// (decimal integers, floating point numbers without special values, and
+// strings) are parsed by hand; anything else goes through the ANTLR parser.
+template <typename T, FactColumn... Columns>
 struct FactParser {
-  void parse(const string& file, T& rel);
+  void parse(const char* begin, const char* end, T& rel);
 
   private:
+  static constexpr array<FactColumn, sizeof...(Columns)> columns{{Columns...}};
   TermParser term_parser;
-  void parse(FormulogParser::TabSeparatedTermLineContext* line, T& rel);
-};
+  vector<pair<const char*, const char*>> cells;
 
+  void split(const char* begin, const char* end);
+  term_ptr parse(FactColumn column, const char* begin, const char* end);
+  static bool parse_int(const char* begin, const char* end, int64_t& val);
+  static bool is_fp(const char* begin, const char* end, bool need_point);
+};
 
-template <typename T>
-void FactParser<T>::parse(const string& file, T& rel) {
-  ifstream stream;
-  stream.open(file);
+template <typename T, FactColumn... Columns>
+void FactParser<T, Columns...>::parse(const char* begin, const char* end, T& rel) {
+  while (begin < end) {
+    auto eol = static_cast<const char*>(memchr(begin, '\n', end - begin));
+    auto next = eol ? eol + 1 : end;
+    if (!eol) {
+      eol = end;
+    }
+    if (eol > begin && eol[-1] == '\r') {
+      eol--;
+    }
+    split(begin, eol);
+    if (cells.size() != T::arity) {
+      cerr << "Wrong number of terms" << endl;
+      abort();
+    }
+    Tuple<T::arity> tup;
+    for (size_t i = 0; i < T::arity; ++i) {
+      tup[i] = parse(columns[i], cells[i].first, cells[i].second);
+    }
+    rel.insert(tup);
+    begin = next;
+  }
+}
 
-  ANTLRInputStream input(stream);
-  FormulogLexer lexer(&input);
-  BufferedTokenStream tokens(&lexer);
-  FormulogParser parser(&tokens);
+// Splits a line at the tabs that are not in string literals.
+template <typename T, FactColumn... Columns>
+void FactParser<T, Columns...>::split(const char* begin, const char* end) {
+  cells.clear();
+  if (begin == end) {
+    return;
+  }
+  bool in_string{false};
+  auto start = begin;
+  for (auto p = begin; p < end; ++p) {
+    if (in_string) {
+      if (*p == '\\') {
+        p++;
+      } else if (*p == '"') {
+        in_string = false;
+      }
+    } else if (*p == '"') {
+      in_string = true;
+    } else if (*p == '\t') {
+      cells.emplace_back(start, p);
+      start = p + 1;
+    }
+  }
+  cells.emplace_back(start, end);
+}
 
-  FormulogParser::TsvFileContext* tree = parser.tsvFile();
-  for (auto& line : tree->tabSeparatedTermLine()) {
-    parse(line, rel);
+template <typename T, FactColumn... Columns>
+term_ptr FactParser<T, Columns...>::parse(FactColumn column, const char* begin, const char* end) {
+  while (begin < end && *begin == ' ') {
+    begin++;
+  }
+  while (end > begin && end[-1] == ' ') {
+    end--;
+  }
+  size_t len = end - begin;
+  switch (column) {
+    case FactColumn::i32: {
+      int64_t val;
+      if (parse_int(begin, end, val) && val >= numeric_limits<int32_t>::min()
+          && val <= numeric_limits<int32_t>::max()) {
+        return Term::make<int32_t>(val);
+      }
+      break;
+    }
+    case FactColumn::i64: {
+      int64_t val;
+      if (len > 0 && (end[-1] == 'L' || end[-1] == 'l') && parse_int(begin, end - 1, val)) {
+        return Term::make<int64_t>(val);
+      }
+      break;
+    }
+    case FactColumn::fp32: {
+      if (len > 0 && (end[-1] == 'F' || end[-1] == 'f') && is_fp(begin, end - 1, false)) {
+        return Term::make<float>(strtof(string(begin, end - 1).c_str(), nullptr));
+      }
+      break;
+    }
+    case FactColumn::fp64: {
+      bool suffix = len > 0 && (end[-1] == 'D' || end[-1] == 'd');
+      auto e = suffix ? end - 1 : end;
+      if (is_fp(begin, e, !suffix)) {
+        return Term::make<double>(strtod(string(begin, e).c_str(), nullptr));
+      }
+      break;
+    }
+    case FactColumn::boolean: {
+      if (len == 4 && !memcmp(begin, "true", 4)) {
+        return Term::make<bool>(true);
+      }
+      if (len == 5 && !memcmp(begin, "false", 5)) {
+        return Term::make<bool>(false);
+      }
+      break;
+    }
+    case FactColumn::string: {
+      if (len >= 2 && *begin == '"' && end[-1] == '"'
+          && find_if(begin + 1, end - 1,
+            [](char c) { return c == '"' || c == '\\' || c == '\r'; }) == end - 1) {
+        return Term::make<string>(string(begin + 1, end - 1));
+      }
+      break;
+    }
+    case FactColumn::term:
+      break;
   }
+  return term_parser.parse(string(begin, end));
 }
 
-template <typename T>
-void FactParser<T>::parse(FormulogParser::TabSeparatedTermLineContext* line, T& rel) {
-  Tuple<T::arity> tup;
-  auto terms = line->term();
-  if (terms.size() != T::arity) {
-    cerr << "Wrong number of terms" << endl;
-    abort();
+// Parses a decimal integer. Other forms (like hexadecimal and octal ones) and
+// integers that might overflow are left to the ANTLR parser.
+template <typename T, FactColumn... Columns>
+bool FactParser<T, Columns...>::parse_int(const char* begin, const char* end, int64_t& val) {
+  bool neg{false};
+  if (begin < end && (*begin == '-' || *begin == '+')) {
+    neg = *begin == '-';
+    begin++;
   }
-  size_t i{0};
-  for (auto& term_ctx : terms) {
-    tup[i++] = term_parser.parse(term_ctx);
+  size_t len = end - begin;
+  if (len == 0 || len > 18 || (*begin == '0' && len > 1)) {
+    return false;
+  }
+  int64_t n{0};
+  for (auto p = begin; p < end; ++p) {
+    if (*p < '0' || *p > '9') {
+      return false;
+    }
+    n = n * 10 + (*p - '0');
+  }
+  val = neg ? -n : n;
+  return true;
+}
+
+// Checks that the text is a floating point literal of the form
+// [+-]digits[.digits][(e|E)[+-]digits]; if need_point is set, it must have a
+// decimal point or an exponent (otherwise it would be an integer literal).
+template <typename T, FactColumn... Columns>
+bool FactParser<T, Columns...>::is_fp(const char* begin, const char* end, bool need_point) {
+  auto p = begin;
+  auto digits = [&p, end]() {
+    auto start = p;
+    while (p < end && *p >= '0' && *p <= '9') {
+      p++;
+    }
+    return p > start;
+  };
+  if (p < end && (*p == '-' || *p == '+')) {
+    p++;
+  }
+  if (!digits()) {
+    return false;
+  }
+  bool point{false};
+  if (p < end && *p == '.') {
+    p++;
+    if (!digits()) {
+      return false;
+    }
+    point = true;
+  }
+  if (p < end && (*p == 'e' || *p == 'E')) {
+    p++;
+    if (p < end && (*p == '-' || *p == '+')) {
+      p++;
+    }
+    if (!digits()) {
+      return false;
+    }
+    point = true;
   }
-  rel.insert(tup);
+  return p == end && (point || !need_point);
 }
 
 } // namespace flg
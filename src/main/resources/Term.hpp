@@ -1,12 +1,17 @@
 #pragma once
 
 #include <algorithm>
+#include <array>
+#include <atomic>
 #include <cassert>
 #include <cmath>
 #include <cstdint>
+#include <cstring>
+#include <functional>
 #include <limits>
-#include <memory>
-#include <stack>
+#include <mutex>
+#include <shared_mutex>
+#include <unordered_set>
 #include <utility>
 #include <vector>
 
@@ -18,23 +23,36 @@ using namespace std;
 
 struct Term;
 
-typedef shared_ptr<Term> term_ptr;
+// Terms are hash-consed and never freed, so they can be passed around as plain
+// pointers and two terms are equal exactly when they are the same object.
+typedef Term* term_ptr;
 
 template <typename T> struct BaseTerm;
 struct ComplexTerm;
 
 struct Term {
   Symbol sym;
+  // Assigned when the term is interned; orders terms by creation.
+  uint64_t id;
 
-  Term(Symbol sym_) : sym{sym_} {}
+  Term(Symbol sym_) : sym{sym_}, id{0} {}
+  Term(Symbol sym_, uint64_t id_) : sym{sym_}, id{id_} {}
 
   template<typename T> inline const BaseTerm<T>& as_base() const;
   inline const ComplexTerm& as_complex() const;
 
-  static int compare(const Term* t1, const Term* t2);
+  inline static int compare(const Term* t1, const Term* t2);
   template<typename T> inline static term_ptr make(T val);
   inline static term_ptr make(Symbol sym, size_t arity, term_ptr* val);
   static vector<term_ptr> vectorizeListTerm(const Term *t);
+
+  struct Hash {
+    size_t operator()(const Term* t) const;
+  };
+
+  struct Equal {
+    bool operator()(const Term* t1, const Term* t2) const;
+  };
 };
 
 struct ComplexTerm : public Term {
@@ -43,27 +61,6 @@ struct ComplexTerm : public Term {
 
   ComplexTerm(Symbol sym_, size_t arity_, term_ptr* val_) :
     Term{sym_}, arity{arity_}, val{val_} {}
-
-  ComplexTerm(const ComplexTerm& t) :
-    Term{t.sym}, arity{t.arity}, val{new term_ptr[t.arity]} {
-    copy(t.val, t.val + t.arity, val);
-  }
-
-  ComplexTerm& operator=(const ComplexTerm& t) {
-    if (this != &t) {
-      term_ptr* new_val = new term_ptr[t.arity];
-      copy(t.val, t.val + t.arity, new_val);
-      delete[] val;
-      sym = t.sym;
-      arity = t.arity;
-      val = new_val;
-    }
-    return *this;
-  }
-
-  ~ComplexTerm() {
-    delete[] val;
-  }
 };
 
 template<typename T>
@@ -71,18 +68,118 @@ struct BaseTerm : public Term {
   T val;
 
   BaseTerm(Symbol sym_, T val_) : Term{sym_}, val(val_) {}
+};
+
+// Floating point terms are keyed on their bits (with a single NaN), like the
+// Java boxed types: NaN is equal to itself, and 0.0 and -0.0 are different.
+inline uint32_t fp_bits(float val) {
+  uint32_t bits;
+  float x = isnan(val) ? numeric_limits<float>::quiet_NaN() : val;
+  memcpy(&bits, &x, sizeof(bits));
+  return bits;
+}
 
-  inline static int compare(BaseTerm<T> t1, BaseTerm<T> t2) {
-    if (t1.val < t2.val) {
-      return -1;
-    } else if (t1.val > t2.val) {
-      return 1;
-    } else {
-      return 0;
+inline uint64_t fp_bits(double val) {
+  uint64_t bits;
+  double x = isnan(val) ? numeric_limits<double>::quiet_NaN() : val;
+  memcpy(&bits, &x, sizeof(bits));
+  return bits;
+}
+
+size_t Term::Hash::operator()(const Term* t) const {
+  size_t h = static_cast<size_t>(t->sym);
+  switch (t->sym) {
+    case Symbol::boxed_bool:
+      return h * 31 + hash<bool>{}(t->as_base<bool>().val);
+    case Symbol::boxed_i32:
+      return h * 31 + hash<int32_t>{}(t->as_base<int32_t>().val);
+    case Symbol::boxed_i64:
+      return h * 31 + hash<int64_t>{}(t->as_base<int64_t>().val);
+    case Symbol::boxed_fp32:
+      return h * 31 + hash<uint32_t>{}(fp_bits(t->as_base<float>().val));
+    case Symbol::boxed_fp64:
+      return h * 31 + hash<uint64_t>{}(fp_bits(t->as_base<double>().val));
+    case Symbol::boxed_string:
+      return h * 31 + hash<string>{}(t->as_base<string>().val);
+    default: {
+      // The arguments are already interned, so hashing (and comparing) them
+      // by id is enough.
+      auto& x = t->as_complex();
+      for (size_t i = 0; i < x.arity; ++i) {
+        h = h * 31 + hash<uint64_t>{}(x.val[i]->id);
+      }
+      return h;
     }
   }
+}
+
+bool Term::Equal::operator()(const Term* t1, const Term* t2) const {
+  if (t1->sym != t2->sym) {
+    return false;
+  }
+  switch (t1->sym) {
+    case Symbol::boxed_bool:
+      return t1->as_base<bool>().val == t2->as_base<bool>().val;
+    case Symbol::boxed_i32:
+      return t1->as_base<int32_t>().val == t2->as_base<int32_t>().val;
+    case Symbol::boxed_i64:
+      return t1->as_base<int64_t>().val == t2->as_base<int64_t>().val;
+    case Symbol::boxed_fp32:
+      return fp_bits(t1->as_base<float>().val) == fp_bits(t2->as_base<float>().val);
+    case Symbol::boxed_fp64:
+      return fp_bits(t1->as_base<double>().val) == fp_bits(t2->as_base<double>().val);
+    case Symbol::boxed_string:
+      return t1->as_base<string>().val == t2->as_base<string>().val;
+    default: {
+      auto& x = t1->as_complex();
+      auto& y = t2->as_complex();
+      return x.arity == y.arity && equal(x.val, x.val + x.arity, y.val);
+    }
+  }
+}
+
+// A concurrent hash-cons table. It is split into shards, each guarded by its
+// own lock, so that threads interning unrelated terms rarely contend.
+class TermTable {
+  static constexpr size_t num_shards = 64;
+
+  struct Shard {
+    shared_mutex mutex;
+    unordered_set<Term*, Term::Hash, Term::Equal> terms;
+  };
+
+  array<Shard, num_shards> shards;
+  // Id 0 is reserved for min_term.
+  atomic<uint64_t> next_id{1};
+
+  public:
+  // Returns the interned term equal to probe, creating it (as a copy of probe)
+  // if there is none.
+  template<typename T>
+  term_ptr intern(const T& probe) {
+    Term* key = const_cast<T*>(&probe);
+    auto& shard = shards[Term::Hash{}(key) % num_shards];
+    {
+      shared_lock<shared_mutex> lock{shard.mutex};
+      auto it = shard.terms.find(key);
+      if (it != shard.terms.end()) {
+        return *it;
+      }
+    }
+    unique_lock<shared_mutex> lock{shard.mutex};
+    auto it = shard.terms.find(key);
+    if (it != shard.terms.end()) {
+      return *it;
+    }
+    T* t = new T(probe);
+    t->id = next_id++;
+    shard.terms.insert(t);
+    return t;
+  }
 };
 
+TermTable term_table;
+
 ostream& operator<<(ostream& out, const Term& t) {
 	switch (t.sym) {
 	  case Symbol::boxed_bool: {
@@ -134,7 +231,7 @@ ostream& operator<<(ostream& out, const Term& t) {
       if (n > 0) {
         out << "(";
         for (size_t i = 0; i < n; ++i) {
-          out << *x.val[i].get();
+          out << *x.val[i];
           if (i < n - 1) {
             out << ", ";
           }
@@ -147,125 +244,54 @@ ostream& operator<<(ostream& out, const Term& t) {
 }
 
 int Term::compare(const Term* t1, const Term* t2) {
-  stack<pair<const Term*, const Term*>> w;
-  w.emplace(t1, t2);
-  while (!w.empty()) {
-    auto p = w.top();
-    w.pop();
-    t1 = p.first;
-    t2 = p.second;
-    if (t1 == t2) {
-      continue;
-    }
-    if (t1->sym < t2->sym) {
-      return -1;
-    }
-    if (t1->sym > t2->sym) {
-      return 1;
-    }
-    switch (t1->sym) {
-      case Symbol::boxed_bool: {
-        auto x = t1->as_base<bool>();
-        auto y = t2->as_base<bool>();
-        int cmp = BaseTerm<bool>::compare(x, y);
-        if (cmp != 0) {
-          return cmp;
-        }
-        break;
-      }
-      case Symbol::boxed_i32: {
-        auto x = t1->as_base<int32_t>();
-        auto y = t2->as_base<int32_t>();
-        int cmp = BaseTerm<int32_t>::compare(x, y);
-        if (cmp != 0) {
-          return cmp;
-        }
-        break;
-      }
-      case Symbol::boxed_i64: {
-        auto x = t1->as_base<int64_t>();
-        auto y = t2->as_base<int64_t>();
-        int cmp = BaseTerm<int64_t>::compare(x, y);
-        if (cmp != 0) {
-          return cmp;
-        }
-        break;
-      }
-      case Symbol::boxed_fp32: {
-        auto x = t1->as_base<float>();
-        auto y = t2->as_base<float>();
-        int cmp = BaseTerm<float>::compare(x, y);
-        if (cmp != 0) {
-          return cmp;
-        }
-        break;
-      }
-      case Symbol::boxed_fp64: {
-        auto x = t1->as_base<double>();
-        auto y = t2->as_base<double>();
-        int cmp = BaseTerm<double>::compare(x, y);
-        if (cmp != 0) {
-          return cmp;
-        }
-        break;
-      }
-      case Symbol::boxed_string: {
-        auto x = t1->as_base<string>();
-        auto y = t2->as_base<string>();
-        int cmp = BaseTerm<string>::compare(x, y);
-        if (cmp != 0) {
-          return cmp;
-        }
-        break;
-      }
-      default: {
-        auto x = t1->as_complex();
-        auto y = t2->as_complex();
-        size_t n = x.arity;
-        for (size_t i = 0; i < n; ++i) {
-          w.emplace(x.val[i].get(), y.val[i].get()); 
-        }
-      }
-    }
+  if (t1->id < t2->id) {
+    return -1;
+  } else if (t1->id > t2->id) {
+    return 1;
+  } else {
+    return 0;
   }
-  return 0;
 }
 
-term_ptr min_term = make_shared<Term>(Symbol::min_term);
-term_ptr max_term = make_shared<Term>(Symbol::max_term);
+term_ptr min_term = new Term(Symbol::min_term, 0);
+term_ptr max_term = new Term(Symbol::max_term, numeric_limits<uint64_t>::max());
 
 template<>
 term_ptr Term::make<bool>(bool val) {
-  return make_shared<BaseTerm<bool>>(Symbol::boxed_bool, val);
+  return term_table.intern(BaseTerm<bool>(Symbol::boxed_bool, val));
 }
 
 template<>
 term_ptr Term::make<int32_t>(int32_t val) {
-  return make_shared<BaseTerm<int32_t>>(Symbol::boxed_i32, val);
+  return term_table.intern(BaseTerm<int32_t>(Symbol::boxed_i32, val));
 }
 
 template<>
 term_ptr Term::make<int64_t>(int64_t val) {
-  return make_shared<BaseTerm<int64_t>>(Symbol::boxed_i64, val);
+  return term_table.intern(BaseTerm<int64_t>(Symbol::boxed_i64, val));
 }
 
 template<>
 term_ptr Term::make<float>(float val) {
-  return make_shared<BaseTerm<float>>(Symbol::boxed_fp32, val);
+  return term_table.intern(BaseTerm<float>(Symbol::boxed_fp32, val));
 }
 
 template<>
 term_ptr Term::make<double>(double val) {
-  return make_shared<BaseTerm<double>>(Symbol::boxed_fp64, val);
+  return term_table.intern(BaseTerm<double>(Symbol::boxed_fp64, val));
 }
 
 template<>
 term_ptr Term::make<string>(string val) {
-  return make_shared<BaseTerm<string>>(Symbol::boxed_string, val);
+  return term_table.intern(BaseTerm<string>(Symbol::boxed_string, move(val)));
 }
 
 term_ptr Term::make(Symbol sym, size_t arity, term_ptr* val) {
-  return make_shared<ComplexTerm>(sym, arity, val);
+  auto t = term_table.intern(ComplexTerm(sym, arity, val));
+  if (t->as_complex().val != val) {
+    delete[] val;
+  }
+  return t;
 }
 
 template<typename T>
@@ -288,7 +314,7 @@ vector<term_ptr> Term::vectorizeListTerm(const Term *t) {
   while (t->sym == Symbol::cons) {
     auto x = t->as_complex();
     v.push_back(x.val[0]);
-    t = x.val[1].get();
+    t = x.val[1];
   }
   assert(t->sym == Symbol::nil);
   return v;
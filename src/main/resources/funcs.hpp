@@ -22,11 +22,11 @@ term_ptr __access(const term_ptr& t1) {
 }
 
 term_ptr beq(const term_ptr& t1, const term_ptr& t2) {
-  return Term::make<bool>(!Term::compare(t1.get(), t2.get()));
+  return Term::make<bool>(t1 == t2);
 }
 
 term_ptr bneq(const term_ptr& t1, const term_ptr& t2) {
-  return Term::make<bool>(Term::compare(t1.get(), t2.get()));
+  return Term::make<bool>(t1 != t2);
 }
 
 term_ptr bnot(const term_ptr& t1) {
@@ -151,12 +151,12 @@ term_ptr to_string(const term_ptr& t1) {
 
 template <typename S, typename T>
 term_ptr __conv(const term_ptr& t1) {
-  auto x = reinterpret_cast<BaseTerm<S>*>(t1.get());
+  auto x = reinterpret_cast<BaseTerm<S>*>(t1);
   return Term::make<T>(x->val);
 }
 
 term_ptr is_sat(const term_ptr& t1) {
-  switch (smt_shim.check(t1, numeric_limits<int>::max())) {
+  switch (smt_check(t1, numeric_limits<int>::max())) {
     case SmtStatus::sat: return Term::make<bool>(true);
     case SmtStatus::unsat: return Term::make<bool>(false);
     case SmtStatus::unknown: abort();
@@ -169,7 +169,7 @@ term_ptr _make_smt_not(const term_ptr& t) {
 }
 
 term_ptr is_valid(const term_ptr& t1) {
-  switch (smt_shim.check(_make_smt_not(t1), numeric_limits<int>::max())) {
+  switch (smt_check(_make_smt_not(t1), numeric_limits<int>::max())) {
     case SmtStatus::sat: return Term::make<bool>(false);
     case SmtStatus::unsat: return Term::make<bool>(true);
     case SmtStatus::unknown: abort();
@@ -196,7 +196,7 @@ int _extract_timeout_from_option(const term_ptr& o) {
 
 term_ptr is_sat_opt(const term_ptr& t1, const term_ptr& t2) {
   int timeout = _extract_timeout_from_option(t2);
-  switch (smt_shim.check(t1, timeout)) {
+  switch (smt_check(t1, timeout)) {
     case SmtStatus::sat: return _make_some(Term::make<bool>(true));
     case SmtStatus::unsat: return _make_some(Term::make<bool>(false));
     case SmtStatus::unknown: return _make_none();
@@ -206,7 +206,7 @@ term_ptr is_sat_opt(const term_ptr& t1, const term_ptr& t2) {
 
 term_ptr is_valid_opt(const term_ptr& t1, const term_ptr& t2) {
   int timeout = _extract_timeout_from_option(t2);
-  switch (smt_shim.check(_make_smt_not(t1), timeout)) {
+  switch (smt_check(_make_smt_not(t1), timeout)) {
     case SmtStatus::sat: return _make_some(Term::make<bool>(false));
     case SmtStatus::unsat: return _make_some(Term::make<bool>(true));
     case SmtStatus::unknown: return _make_none();
@@ -1,66 +1,169 @@
+#include <algorithm>
+#include <array>
 #include <boost/asio.hpp>
 #include <boost/filesystem.hpp>
 #include <boost/program_options.hpp>
+#include <fcntl.h>
+#include <numeric>
 #include <omp.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <unistd.h>
 
 #include "FactParser.hpp"
 #include "funcs.hpp"
 
+#ifndef PROGRAM_FACT_DIR
+#define PROGRAM_FACT_DIR "facts"
+#endif
+
 using namespace flg;
 using namespace std;
 
 struct ExternalEdbLoader {
-  ExternalEdbLoader(size_t nthreads) : pool(nthreads) {}
+  ExternalEdbLoader(size_t nthreads_) : nthreads{nthreads_}, pool(nthreads_) {}
 
-  void go(const vector<string>& dirs);
+  void go(const vector<string>& dirs, const string& program_fact_dir);
 
   private:
+  static constexpr size_t min_chunk_size = 1 << 20;
+  static constexpr size_t max_chunk_size = 1 << 26;
+
+  size_t nthreads;
   boost::asio::thread_pool pool;
+  // The memory-mapped fact files, which are unmapped once they are loaded.
+  vector<pair<void*, size_t>> mapped;
 
   void loadEdbs(const string& dir);
-  template <typename T>
-    void loadEdbs(const string& dir, const string& file, T& rel);
+  void loadProgramEdbs(const string& dir);
+  template <typename T, FactColumn... Columns>
+    void loadEdbs(const string& dir, const string& file, T& rel, bool required);
 };
 
-void ExternalEdbLoader::go(const vector<string>& dirs) {
+void ExternalEdbLoader::go(const vector<string>& dirs, const string& program_fact_dir) {
+  loadProgramEdbs(program_fact_dir);
   for (auto& dir : dirs) {
     loadEdbs(dir);
   }
   pool.join();
+  for (auto& m : mapped) {
+    munmap(m.first, m.second);
+  }
 }
 
 void ExternalEdbLoader::loadEdbs(const string& dir) {
 /* INSERT 0 */
 }
 
-template <typename T>
-void ExternalEdbLoader::loadEdbs(const string& dir, const string& file, T& rel) {
+void ExternalEdbLoader::loadProgramEdbs(const string& dir) {
+/* INSERT 1 */
+}
+
+// Maps the fact file into memory and splits it into chunks at line
+// boundaries, which are parsed in parallel. A missing file is skipped unless it
+// is required (i.e., it holds facts given in the program).
+template <typename T, FactColumn... Columns>
+void ExternalEdbLoader::loadEdbs(const string& dir, const string& file, T& rel, bool required) {
   boost::filesystem::path path{dir};
   path /= file;
-  auto s = path.string();
-  boost::asio::post(pool,
-      [s, &rel]() {
-        FactParser<T> parser;
-        parser.parse(s, rel);
-      });
+  int fd = open(path.string().c_str(), O_RDONLY);
+  if (fd < 0) {
+    if (required) {
+      cerr << "Could not open program fact file: " << path.string() << endl;
+      cerr << "(use --program-fact-dir to give the location of the facts directory of the generated code)" << endl;
+      abort();
+    }
+    return;
+  }
+  struct stat st;
+  if (fstat(fd, &st) < 0 || st.st_size == 0) {
+    close(fd);
+    return;
+  }
+  size_t size = st.st_size;
+  void* addr = mmap(nullptr, size, PROT_READ, MAP_PRIVATE, fd, 0);
+  close(fd);
+  if (addr == MAP_FAILED) {
+    cerr << "Could not map fact file: " << path.string() << endl;
+    abort();
+  }
+  mapped.emplace_back(addr, size);
+  size_t chunk_size = max(min_chunk_size, min(max_chunk_size, size / (nthreads * 4)));
+  auto begin = static_cast<const char*>(addr);
+  auto end = begin + size;
+  while (begin < end) {
+    auto chunk_end = end;
+    if (static_cast<size_t>(end - begin) > chunk_size) {
+      auto eol = memchr(begin + chunk_size - 1, '\n', end - begin - chunk_size + 1);
+      if (eol) {
+        chunk_end = static_cast<const char*>(eol) + 1;
+      }
+    }
+    boost::asio::post(pool,
+        [begin, chunk_end, &rel]() {
+          FactParser<T, Columns...> parser;
+          parser.parse(begin, chunk_end, rel);
+        });
+    begin = chunk_end;
+  }
 }
 
-void loadEdbs(const vector<string>& dirs, size_t nthreads) {
+void loadEdbs(const vector<string>& dirs, const string& program_fact_dir, size_t nthreads) {
   {
     ExternalEdbLoader edb_loader(nthreads);
-    edb_loader.go(dirs);
+    edb_loader.go(dirs, program_fact_dir);
   }
-/* INSERT 1 */
+/* INSERT 2 */
 }
 
-/* INSERT 2 */
+// Rules whose delta has at least this many tuples are evaluated one at a
+// time, each in parallel over its delta.
+const size_t min_parallel_delta = 1024;
+
+// Evaluates the rules of a stratum after its first round, given the size of
+// the delta relation of each rule. Rules are started in decreasing order of
+// delta size; rules with small deltas are evaluated concurrently as tasks, and
+// rules with empty deltas are skipped.
+template <typename F, typename... Sizes>
+void evalRules(F eval_rule, Sizes... sizes) {
+  constexpr size_t n = sizeof...(Sizes);
+  array<size_t, n> delta_sizes{{static_cast<size_t>(sizes)...}};
+  array<size_t, n> order;
+  iota(order.begin(), order.end(), 0);
+  stable_sort(order.begin(), order.end(), [&](size_t i, size_t j) {
+    return delta_sizes[i] > delta_sizes[j];
+  });
+  size_t start = 0;
+  for (; start < n && delta_sizes[order[start]] >= min_parallel_delta; ++start) {
+    eval_rule(order[start]);
+  }
+  size_t end = start;
+  while (end < n && delta_sizes[order[end]] > 0) {
+    ++end;
+  }
+  if (end - start > 1 && omp_get_max_threads() > 1) {
+    #pragma omp parallel
+    #pragma omp single
+    for (size_t i = start; i < end; ++i) {
+      size_t rule = order[i];
+      #pragma omp task
+      eval_rule(rule);
+    }
+  } else {
+    for (size_t i = start; i < end; ++i) {
+      eval_rule(order[i]);
+    }
+  }
+}
 
-void evaluate() {
 /* INSERT 3 */
+
+void evaluate() {
+/* INSERT 4 */
 }
 
 void printResults() {
-/* INSERT 4 */
+/* INSERT 5 */
 }
 
 int main(int argc, char** argv) {
@@ -72,7 +175,9 @@ int main(int argc, char** argv) {
     ("parallelism,j", po::value<size_t>()->default_value(1),
      "number of threads to use")
     ("fact-dir", po::value<vector<string>>()->default_value({ cwd }),
-     "input directory with external EDBs (can be set multiple times)");
+     "input directory with external EDBs (can be set multiple times)")
+    ("program-fact-dir", po::value<string>()->default_value(PROGRAM_FACT_DIR),
+     "directory with the facts given in the Formulog program");
 
   po::variables_map vm;
   po::store(po::parse_command_line(argc, argv, desc), vm);
@@ -91,7 +196,10 @@ int main(int argc, char** argv) {
 
   initialize_symbols();
   omp_set_num_threads(parallelism);
-  loadEdbs(vm["fact-dir"].as<vector<string>>(), parallelism);
+  // Rules evaluated as tasks should not start parallel regions of their own
+  omp_set_max_active_levels(1);
+  loadEdbs(vm["fact-dir"].as<vector<string>>(), vm["program-fact-dir"].as<string>(),
+      parallelism);
   evaluate();
   printResults();
   return 0;
@@ -1,5 +1,8 @@
 #pragma once
 
+#include <algorithm>
+#include <iostream>
+#include <sstream>
 #include <souffle/CompiledSouffle.h>
 
 #include "Term.hpp"
@@ -26,7 +29,7 @@ ostream& operator<<(ostream& out, const Tuple<N>& tup)
 {
   out << "[";
   for (size_t i = 0; i < N; ++i) {
-    out << *tup[i].get();
+    out << *tup[i];
     if (i < N - 1) {
       out << ", ";
     }
@@ -35,6 +38,31 @@ ostream& operator<<(ostream& out, const Tuple<N>& tup)
   return out;
 }
 
+// Prints the tuples in the order in which the interpreter prints facts, i.e.,
+// sorted by their arguments as text followed by a closing parenthesis. (The
+// order of the indices depends on when terms were created, so it can change
+// from run to run.)
+template <typename T>
+void printSorted(const T& tuples)
+{
+  vector<string> lines;
+  for (auto& tup : tuples) {
+    ostringstream out;
+    for (size_t i = 0; i < tup.val.size(); ++i) {
+      if (i > 0) {
+        out << ", ";
+      }
+      out << *tup[i];
+    }
+    out << ")";
+    lines.push_back(out.str());
+  }
+  sort(lines.begin(), lines.end());
+  for (auto& line : lines) {
+    cout << "[" << line.substr(0, line.size() - 1) << "]" << endl;
+  }
+}
+
 // Inspired by the comparator in souffle/CompiledIndexUtils.h
 template <unsigned... Columns>
 struct Comparator;
@@ -44,20 +72,19 @@ struct Comparator<First, Rest...> {
 
   template <size_t N>
   int operator()(const Tuple<N>& a, const Tuple<N>& b) const {
-		int cmp = Term::compare(a[First].get(), b[First].get());
+		int cmp = Term::compare(a[First], b[First]);
 		return cmp ? cmp : Comparator<Rest...>()(a, b);
   }
 
   template <size_t N>
   bool less(const Tuple<N>& a, const Tuple<N>& b) const {
-		int cmp = Term::compare(a[First].get(), b[First].get());
+		int cmp = Term::compare(a[First], b[First]);
 		return cmp ? cmp < 0 : Comparator<Rest...>().less(a, b);
   }
 
   template <size_t N>
   bool equal(const Tuple<N>& a, const Tuple<N>& b) const {
-		int cmp = Term::compare(a[First].get(), b[First].get());
-		return cmp ? false : Comparator<Rest...>().equal(a, b);
+		return a[First] == b[First] && Comparator<Rest...>().equal(a, b);
   }
 };
 
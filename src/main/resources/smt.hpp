@@ -9,6 +9,8 @@
 #include <iostream>
 #include <limits>
 #include <map>
+#include <shared_mutex>
+#include <unordered_map>
 
 #include "Term.hpp"
 #include "Type.hpp"
@@ -22,8 +24,53 @@ auto declarations = R"_(
 /* INSERT 0 */
 )_";
 
+/* INSERT 1 */
+
 enum class SmtStatus { sat, unsat, unknown };
 
+// Results of SMT queries, shared by all threads. Since terms are hash-consed,
+// a formula can be keyed by its address.
+class SmtResultCache {
+  static constexpr size_t num_shards = 64;
+
+  typedef pair<const Term*, int> key_t;
+
+  struct KeyHash {
+    size_t operator()(const key_t& k) const {
+      return k.first->id * 31 + hash<int>{}(k.second);
+    }
+  };
+
+  struct Shard {
+    shared_mutex mutex;
+    unordered_map<key_t, SmtStatus, KeyHash> results;
+  };
+
+  array<Shard, num_shards> shards;
+
+  Shard& shard(const Term* t) {
+    return shards[t->id % num_shards];
+  }
+
+  public:
+  bool lookup(const Term* t, int timeout, SmtStatus& res) {
+    auto& s = shard(t);
+    shared_lock<shared_mutex> lock{s.mutex};
+    auto it = s.results.find(make_pair(t, timeout));
+    if (it == s.results.end()) {
+      return false;
+    }
+    res = it->second;
+    return true;
+  }
+
+  void record(const Term* t, int timeout, SmtStatus res) {
+    auto& s = shard(t);
+    unique_lock<shared_mutex> lock{s.mutex};
+    s.results.emplace(make_pair(t, timeout), res);
+  }
+};
+
 struct SmtShim {
   SmtShim();
   SmtStatus check(const term_ptr& assertion, int timeout);
@@ -38,11 +85,18 @@ struct SmtShim {
   map<const Term*, string, TermCompare> z3_vars;
   size_t cnt;
   vector<Type>::iterator annotations;
-
+  // In check-sat-assuming mode, the conjuncts asserted so far (each guarded
+  // by an indicator variable) and the names of their indicator variables.
+  unordered_map<const Term*, string> indicator_vars;
+
+  SmtStatus check_sat(int timeout, const vector<string>& assumptions);
+  SmtStatus check_sat_assuming(const vector<const Term*>& conjuncts, int timeout);
+  void break_into_conjuncts(const Term* t, vector<const Term*>& conjuncts);
+  void serialize_assertion(const Term* t);
+  void clear();
   void preprocess(const Term* assertion);
   void visit(const Term* assertion);
   void record_var(const Term* var);
-  void declare_vars(ostream& out);
   string lookup_var(const Term* var);
 
   struct Serializer {
@@ -113,7 +167,7 @@ Type TypeInferer::visit(const Term* t) {
     auto x = t->as_complex();
     if (!SmtShim::is_solver_var(t)) {
       for (size_t i = 0; i < x.arity; ++i) {
-        constraints.push_back(make_pair(visit(x.val[i].get()), ft.first[i]));
+        constraints.push_back(make_pair(visit(x.val[i]), ft.first[i]));
       }
     }
   }
@@ -147,33 +201,107 @@ void TypeInferer::unify(const Type& ty1, const Type& ty2) {
 }
 
 SmtShim::SmtShim() :
-  z3("z3 -in", bp::std_in < z3_in, (bp::std_out & bp::std_err) > z3_out) {
+  z3("z3 -in", bp::std_in < z3_in, (bp::std_out & bp::std_err) > z3_out),
+  cnt{0} {
   z3_in << declarations << endl;
   z3_in << "(push)" << endl;
   z3_in.flush();
 }
 
 SmtStatus SmtShim::check(const term_ptr& assertion, int timeout) {
-  z3_in << "(pop)" << endl;
-  z3_in << "(push)" << endl;
   if (timeout < 0) {
     cerr << "Warning: negative timeout provided to Z3 - ignored" << endl;
     timeout = numeric_limits<int>::max();
   }
-  z3_in << "(set-option :timeout " << timeout << ")" << endl;
-  auto t = assertion.get();
-  preprocess(t);
-  z3_in << "(assert ";
+  vector<const Term*> conjuncts;
+  break_into_conjuncts(assertion, conjuncts);
+  if (smt_check_sat_assuming) {
+    return check_sat_assuming(conjuncts, timeout);
+  }
+  clear();
+  for (auto conjunct : conjuncts) {
+    preprocess(conjunct);
+    z3_in << "(assert ";
+    serialize_assertion(conjunct);
+    z3_in << ")" << endl;
+  }
+  return check_sat(timeout, {});
+}
+
+// Asserts each conjunct once, guarded by an indicator variable, and then
+// checks the conjunction by assuming the indicator variables of its conjuncts;
+// conjuncts shared by queries are only sent to the solver the first time.
+SmtStatus SmtShim::check_sat_assuming(const vector<const Term*>& conjuncts, int timeout) {
+  vector<string> assumptions;
+  for (auto conjunct : conjuncts) {
+    auto it = indicator_vars.find(conjunct);
+    if (it == indicator_vars.end()) {
+      string x = "ind" + to_string(indicator_vars.size());
+      it = indicator_vars.emplace(conjunct, x).first;
+      preprocess(conjunct);
+      z3_in << "(declare-const " << x << " Bool)" << endl;
+      z3_in << "(assert (=> " << x << " ";
+      serialize_assertion(conjunct);
+      z3_in << "))" << endl;
+    }
+    assumptions.push_back(it->second);
+  }
+  auto res = check_sat(timeout, assumptions);
+  if (indicator_vars.size() > smt_cache_size) {
+    clear();
+  }
+  return res;
+}
+
+// The assertion is either a formula or a list of formulas (as given to
+// is_sat_opt).
+void SmtShim::break_into_conjuncts(const Term* t, vector<const Term*>& conjuncts) {
+  switch (t->sym) {
+    case Symbol::nil:
+      break;
+    case Symbol::cons:
+    case Symbol::smt_and: {
+      auto x = t->as_complex();
+      break_into_conjuncts(x.val[0], conjuncts);
+      break_into_conjuncts(x.val[1], conjuncts);
+      break;
+    }
+    default:
+      conjuncts.push_back(t);
+  }
+}
+
+void SmtShim::serialize_assertion(const Term* t) {
   TypeInferer ti;
   auto types = ti.go(t);
   annotations = types.begin();
   Serializer{*this, z3_in}.serialize(t);
   assert(annotations == types.end()); 
-  //annotations = types.begin();
-  //Serializer{*this, cout}.serialize(t);
-  //cout << endl;
-  z3_in << ")" << endl;
-  z3_in << "(check-sat)" << endl;
+}
+
+// Throws away everything asserted since the declarations.
+void SmtShim::clear() {
+  z3_in << "(pop)" << endl;
+  z3_in << "(push)" << endl;
+  z3_vars.clear();
+  cnt = 0;
+  indicator_vars.clear();
+}
+
+SmtStatus SmtShim::check_sat(int timeout, const vector<string>& assumptions) {
+  z3_in << "(set-option :timeout " << timeout << ")" << endl;
+  if (assumptions.empty()) {
+    z3_in << "(check-sat)" << endl;
+  } else {
+    z3_in << "(check-sat-assuming (";
+    for (auto it = assumptions.begin(); it != assumptions.end(); ++it) {
+      if (it != assumptions.begin()) {
+        z3_in << " ";
+      }
+      z3_in << *it;
+    }
+    z3_in << "))" << endl;
+  }
   z3_in.flush();
   string line;
   getline(z3_out, line);
@@ -197,7 +325,7 @@ SmtStatus SmtShim::check(const term_ptr& assertion, int timeout) {
 
 bool SmtShim::is_solver_var(const Term* t) {
   switch (t->sym) {
-/* INSERT 1 */
+/* INSERT 2 */
     default:
       return false;
   }
@@ -219,7 +347,7 @@ void SmtShim::visit(const Term* t) {
     default:
       auto x = t->as_complex();
       for (size_t i = 0; i < x.arity; ++i) {
-        visit(x.val[i].get());
+        visit(x.val[i]);
       }
   }
 }
@@ -229,22 +357,14 @@ void SmtShim::record_var(const Term* t) {
   if (v == z3_vars.end()) {
     string name = "x" + to_string(cnt++);
     z3_vars.emplace(t, name);
+    z3_in << "(declare-const " << name << " " <<
+      Type::lookup(t->sym).second << ")" << endl;
   }
 }
 
+// Declares the variables of the assertion that have not been declared yet.
 void SmtShim::preprocess(const Term* t) {
-  z3_vars.clear();
-  cnt = 0;
   visit(t);
-  declare_vars(z3_in);
-  //declare_vars(cout);
-}
-
-void SmtShim::declare_vars(ostream& out) {
-  for (auto& e : z3_vars) {
-    out << "(declare-const " << e.second << " " <<
-      Type::lookup(e.first->sym).second << ")" << endl;
-  }
 }
 
 string SmtShim::lookup_var(const Term* t) {
@@ -252,7 +372,7 @@ string SmtShim::lookup_var(const Term* t) {
 }
 
 Term* SmtShim::Serializer::arg0(const Term* t) {
-  return t->as_complex().val[0].get();
+  return t->as_complex().val[0];
 }
 
 void SmtShim::Serializer::serialize(const Term* t) {
@@ -281,7 +401,7 @@ void SmtShim::Serializer::serialize(const Term* t) {
       serialize_fp<double, 11, 53>(t);
       break;
     }
-/* INSERT 2 */
+/* INSERT 3 */
     default:
       auto x = t->as_complex();
       stringstream ss;
@@ -301,7 +421,7 @@ void SmtShim::Serializer::serialize(const std::string& repr, const ComplexTerm&
   }
   for (size_t i = 0; i < n; ++i) {
     out << " ";
-    serialize(t.val[i].get());
+    serialize(t.val[i]);
   }
   if (n > 0) {
     out << ")";
@@ -373,11 +493,11 @@ void SmtShim::Serializer::serialize_fp_to_fp(const Term* t) {
 void SmtShim::Serializer::serialize_let(const Term* t) {
   auto x = t->as_complex();
   out << "(let ((";
-  serialize(x.val[0].get());
+  serialize(x.val[0]);
   out << " ";
-  serialize(x.val[1].get());
+  serialize(x.val[1]);
   out << ")) ";
-  serialize(x.val[2].get());
+  serialize(x.val[2]);
   out << ")";
 }
 
@@ -390,10 +510,10 @@ template <bool Exists>
 void SmtShim::Serializer::serialize_quantifier(const Term* t) {
   auto x = t->as_complex();
   out << "(" << (Exists ? "exists (" : "forall (");
-  for (auto& v : Term::vectorizeListTerm(x.val[0].get())) {
+  for (auto& v : Term::vectorizeListTerm(x.val[0])) {
     // Consume annotation for cons
     shim.annotations++;
-    auto var = arg0(v.get());
+    auto var = arg0(v);
     out << "(";
     serialize(var);
     out << " " << Type::lookup(var->sym).second << ")";
@@ -401,25 +521,25 @@ void SmtShim::Serializer::serialize_quantifier(const Term* t) {
   out << ") ";
   // Consume annotation for nil
   shim.annotations++;
-  auto pats = Term::vectorizeListTerm(x.val[2].get());
+  auto pats = Term::vectorizeListTerm(x.val[2]);
   if (!pats.empty()) {
     out << "(! ";
   }
-  serialize(x.val[1].get());
+  serialize(x.val[1]);
   if (!pats.empty()) {
     for (auto& pat : pats) {
       out << " :pattern (";
       // Consume annotation for cons
       shim.annotations++;
       bool first{true};
-      for (auto& sub : Term::vectorizeListTerm(pat.get())) {
+      for (auto& sub : Term::vectorizeListTerm(pat)) {
         if (!first) {
           out << " ";
         }
         first = false;
         // Consume annotation for cons
         shim.annotations++;
-        serialize(arg0(sub.get()));
+        serialize(arg0(sub));
       }
       out << ")";
       // Consume annotation for nil
@@ -434,7 +554,7 @@ void SmtShim::Serializer::serialize_quantifier(const Term* t) {
 
 bool SmtShim::needs_type_annotation(const Symbol& sym) {
   switch (sym) {
-/* INSERT 3 */
+/* INSERT 4 */
     default:
       return false;
   }
@@ -442,7 +562,7 @@ bool SmtShim::needs_type_annotation(const Symbol& sym) {
 
 string SmtShim::Serializer::serialize_sym(const Symbol& sym) {
   switch (sym) {
-/* INSERT 4 */
+/* INSERT 5 */
     default:
       stringstream ss;
       ss << "|" << sym << "|";
@@ -459,4 +579,18 @@ string SmtShim::Serializer::serialize_tester(const Symbol& sym) {
 
 thread_local SmtShim smt_shim;
 
+SmtResultCache smt_results;
+
+SmtStatus smt_check(const term_ptr& assertion, int timeout) {
+  if (!smt_memoize) {
+    return smt_shim.check(assertion, timeout);
+  }
+  SmtStatus res;
+  if (!smt_results.lookup(assertion, timeout, res)) {
+    res = smt_shim.check(assertion, timeout);
+    smt_results.record(assertion, timeout, res);
+  }
+  return res;
+}
+
 } // namespace flg
@@ -0,0 +1,289 @@
+package edu.harvard.seas.pl.formulog.db;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.BasicProgram;
+import edu.harvard.seas.pl.formulog.ast.Constructor;
+import edu.harvard.seas.pl.formulog.ast.Constructors;
+import edu.harvard.seas.pl.formulog.ast.FP32;
+import edu.harvard.seas.pl.formulog.ast.FP64;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.StringTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb.SortedIndexedFactDbBuilder;
+import edu.harvard.seas.pl.formulog.eval.SemiNaiveEvaluation;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbol;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.symbols.SymbolManager;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import edu.harvard.seas.pl.formulog.types.WellTypedProgram;
+
+// Runs in its own surefire execution, with -DfactSnapshots set to the file
+// that testSnapshotAsInput writes.
+public class FactDbSnapshotTest {
+
+	private static final String decls = String.join("\n", //
+			"type tree = | leaf(i32) | node(tree, string, tree).", //
+			"input nested(tree).", //
+			"input long_list(i32 list).", //
+			"input floats(fp64, fp32).", //
+			"input flag.", //
+			"input empty.");
+
+	private static final List<String> rels = Arrays.asList("nested", "long_list", "floats", "flag", "empty");
+
+	private Path file;
+	private BasicProgram prog;
+	private SortedIndexedFactDb db;
+
+	@Before
+	public void setup() throws Exception {
+		file = Files.createTempFile("snapshot", ".bin");
+		prog = new Parser().parse(new StringReader(decls));
+		Set<RelationSymbol> syms = new HashSet<>();
+		for (String rel : rels) {
+			syms.add(lookup(prog.getSymbolManager(), rel));
+		}
+		db = new SortedIndexedFactDbBuilder(syms).build();
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	private static RelationSymbol lookup(SymbolManager sm, String name) {
+		return (RelationSymbol) sm.lookupSymbol(name);
+	}
+
+	private void add(String rel, Term... tup) {
+		db.add(lookup(prog.getSymbolManager(), rel), tup);
+	}
+
+	private void write() throws IOException {
+		List<RelationSymbol> syms = new ArrayList<>();
+		for (String rel : rels) {
+			syms.add(lookup(prog.getSymbolManager(), rel));
+		}
+		FactDbSnapshot.write(file, db, syms);
+	}
+
+	/**
+	 * Reads the snapshot into a freshly parsed program, returning the tuples of
+	 * each relation by name.
+	 */
+	private Map<String, Set<Term[]>> read(String src) throws Exception {
+		SymbolManager sm = new Parser().parse(new StringReader(src)).getSymbolManager();
+		Map<RelationSymbol, Set<Term[]>> accs = new HashMap<>();
+		for (String rel : rels) {
+			if (sm.hasName(rel)) {
+				accs.put(lookup(sm, rel), new HashSet<>());
+			}
+		}
+		Set<RelationSymbol> found = FactDbSnapshot.read(file, sm, accs);
+		assertEquals(accs.keySet(), found);
+		Map<String, Set<Term[]>> m = new HashMap<>();
+		for (Map.Entry<RelationSymbol, Set<Term[]>> e : accs.entrySet()) {
+			m.put(e.getKey().toString(), e.getValue());
+		}
+		return m;
+	}
+
+	private static Set<String> toStrings(Iterable<Term[]> tups) {
+		Set<String> s = new HashSet<>();
+		for (Term[] tup : tups) {
+			s.add(Arrays.toString(tup));
+		}
+		return s;
+	}
+
+	private Term tree(int depth) {
+		SymbolManager sm = prog.getSymbolManager();
+		ConstructorSymbol leaf = (ConstructorSymbol) sm.lookupSymbol("leaf");
+		ConstructorSymbol node = (ConstructorSymbol) sm.lookupSymbol("node");
+		Term t = Constructors.make(leaf, new Term[] { I32.make(0) });
+		for (int i = 1; i <= depth; ++i) {
+			Term l = Constructors.make(leaf, new Term[] { I32.make(-i) });
+			t = Constructors.make(node, new Term[] { t, StringTerm.make("n\"" + i + "\né"), l });
+		}
+		return t;
+	}
+
+	@Test
+	public void testNestedConstructors() throws Exception {
+		add("nested", tree(0));
+		add("nested", tree(30));
+		// Shares its subterms with the previous tree.
+		add("nested", tree(15));
+		write();
+		Set<Term[]> tups = read(decls).get("nested");
+		assertEquals(toStrings(db.getAll(lookup(prog.getSymbolManager(), "nested"))), toStrings(tups));
+	}
+
+	@Test
+	public void testLongList() throws Exception {
+		int n = 100000;
+		Term l = Constructors.nil();
+		for (int i = 0; i < n; ++i) {
+			l = Constructors.cons(I32.make(i), l);
+		}
+		add("long_list", l);
+		write();
+		Set<Term[]> tups = read(decls).get("long_list");
+		assertEquals(1, tups.size());
+		Term t = tups.iterator().next()[0];
+		for (int i = n - 1; i >= 0; --i) {
+			Constructor c = (Constructor) t;
+			assertEquals(I32.make(i), c.getArgs()[0]);
+			t = c.getArgs()[1];
+		}
+		assertEquals(Constructors.nil(), t);
+	}
+
+	@Test
+	public void testSpecialFloats() throws Exception {
+		double[] ds = { Double.NaN, -0.0, 0.0, Double.NEGATIVE_INFINITY, Double.MIN_VALUE };
+		float[] fs = { Float.NaN, -0.0f, 0.0f, Float.POSITIVE_INFINITY, Float.MIN_VALUE };
+		Set<List<Long>> expected = new HashSet<>();
+		for (int i = 0; i < ds.length; ++i) {
+			add("floats", FP64.make(ds[i]), FP32.make(fs[i]));
+			expected.add(Arrays.asList(Double.doubleToLongBits(ds[i]), (long) Float.floatToIntBits(fs[i])));
+		}
+		write();
+		Set<List<Long>> actual = new HashSet<>();
+		for (Term[] tup : read(decls).get("floats")) {
+			double d = ((FP64) tup[0]).getVal();
+			float f = ((FP32) tup[1]).getVal();
+			actual.add(Arrays.asList(Double.doubleToLongBits(d), (long) Float.floatToIntBits(f)));
+		}
+		// In particular, NaN is still NaN, and -0.0 is kept apart from 0.0.
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testNullaryRelations() throws Exception {
+		add("flag");
+		write();
+		Map<String, Set<Term[]>> m = read(decls);
+		assertEquals(1, m.get("flag").size());
+		assertEquals(0, m.get("flag").iterator().next().length);
+		assertTrue(m.get("empty").isEmpty());
+	}
+
+	private void expectError(String src, String msg) throws Exception {
+		try {
+			read(src);
+			fail("Snapshot was read into a program with different types");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(msg));
+		}
+	}
+
+	@Test
+	public void testArityMismatch() throws Exception {
+		add("floats", FP64.make(1.0), FP32.make(1.0f));
+		write();
+		expectError(decls.replace("floats(fp64, fp32)", "floats(fp64)"), "Arity mismatch for relation floats");
+	}
+
+	@Test
+	public void testTypeMismatch() throws Exception {
+		add("floats", FP64.make(1.0), FP32.make(1.0f));
+		write();
+		expectError(decls.replace("floats(fp64, fp32)", "floats(fp32, fp64)"), "Type mismatch for relation floats");
+	}
+
+	@Test
+	public void testConstructorTypeMismatch() throws Exception {
+		add("nested", tree(2));
+		write();
+		expectError(decls.replace("leaf(i32)", "leaf(i64)"), "uses a constructor that is not defined");
+	}
+
+	@Test
+	public void testSnapshotAsInput() throws Exception {
+		assumeFalse(Configuration.factSnapshots.isEmpty());
+		String producer = String.join("\n", //
+				"type tree = | leaf(i32) | node(tree, string, tree).", //
+				"fun build(N:i32) : tree =", //
+				"  if N <= 0 then leaf(0) else node(build(N - 1), to_string(N), leaf(-N)).", //
+				"fun range(N:i32) : i32 list = if N <= 0 then [] else N :: range(N - 1).", //
+				"output t(tree).", //
+				"output xs(i32 list).", //
+				"output ys(fp64).", //
+				"output done.", //
+				"t(T) :- T = build(40).", //
+				"xs(L) :- L = range(100).", //
+				"ys(-0.0).", //
+				"ys(0.0).", //
+				"done.");
+		SemiNaiveEvaluation eval = SemiNaiveEvaluation.setup(typeCheck(producer), 1, false);
+		eval.run();
+		List<RelationSymbol> syms = new ArrayList<>();
+		for (String rel : Arrays.asList("t", "xs", "ys", "done")) {
+			syms.add(lookup(eval.getInputProgram().getSymbolManager(), rel));
+		}
+		FactDbSnapshot.write(Paths.get(Configuration.factSnapshots.get(0)), eval.getDb(), syms);
+
+		String consumer = String.join("\n", //
+				"type tree = | leaf(i32) | node(tree, string, tree).", //
+				"fun size(T:tree) : i32 = match T with leaf(_) => 1 | node(L, _, R) => size(L) + size(R) + 1 end.", //
+				"@external input t(tree).", //
+				"@external input xs(i32 list).", //
+				"@external input ys(fp64).", //
+				"@external input done.", //
+				"output ok.", //
+				"ok :- done, t(T), size(T) = 81, xs(100 :: _), ys(X), ys(Y), X != Y.");
+		eval = SemiNaiveEvaluation.setup(typeCheck(consumer), 1, false);
+		eval.run();
+		RelationSymbol ok = lookup(eval.getInputProgram().getSymbolManager(), "ok");
+		assertTrue(eval.getResult().getAll(ok).iterator().hasNext());
+	}
+
+	private static WellTypedProgram typeCheck(String src) throws Exception {
+		return new TypeChecker(new Parser().parse(new StringReader(src))).typeCheck();
+	}
+
+}
@@ -0,0 +1,219 @@
+package edu.harvard.seas.pl.formulog.db;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.BindingType;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Terms;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb.SortedIndexedFactDbBuilder;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+
+// Runs in its own surefire execution with -DpackedFactDb=true and a small
+// packedFactDbChunkSize, so that relations span many chunks.
+public class PackedFactDbTest {
+
+	private static final int N = 20;
+
+	private RelationSymbol r;
+	private SortedIndexedFactDb db;
+	private int byFirst;
+	private int bySecond;
+	private List<Term[]> model;
+
+	@BeforeClass
+	public static void checkOptions() {
+		assumeTrue(Configuration.packedFactDb && Configuration.packedFactDbChunkSize < 10);
+	}
+
+	@Before
+	public void setup() throws Exception {
+		r = (RelationSymbol) new Parser().parse(new StringReader("input r(i32, i32).")).getSymbolManager()
+				.lookupSymbol("r");
+		SortedIndexedFactDbBuilder dbb = new SortedIndexedFactDbBuilder(Collections.singleton(r));
+		dbb.makeIndex(r, new BindingType[] { BindingType.BOUND, BindingType.FREE });
+		db = dbb.build();
+		byFirst = db.ensureOrderedIndex(r, Arrays.asList(0, 1));
+		bySecond = db.ensureOrderedIndex(r, Arrays.asList(1, 0));
+		model = new ArrayList<>();
+		for (int i = 0; i < N; ++i) {
+			for (int j = 0; j < N; ++j) {
+				model.add(tup(i, j));
+			}
+		}
+		List<Term[]> shuffled = new ArrayList<>(model);
+		Collections.shuffle(shuffled, new Random(0));
+		// Half of the tuples are added one at a time, and the rest in a batch that
+		// also repeats some of the first half.
+		for (Term[] tup : shuffled.subList(0, model.size() / 2)) {
+			assertTrue(db.add(r, tup));
+		}
+		Term[][] batch = shuffled.subList(model.size() / 4, model.size()).toArray(new Term[0][]);
+		for (int n = 0; n < db.numIndices(r); ++n) {
+			db.addAllToIndex(r, n, batch);
+		}
+	}
+
+	private static Term[] tup(int i, int j) {
+		return new Term[] { I32.make(i), I32.make(j) };
+	}
+
+	// Packed indices are ordered by term id.
+	private static Comparator<Term[]> order(int first, int second) {
+		return Comparator.<Term[]>comparingInt(t -> t[first].getId()).thenComparingInt(t -> t[second].getId());
+	}
+
+	private static List<List<Term>> toLists(Iterable<Term[]> tups) {
+		List<List<Term>> l = new ArrayList<>();
+		for (Term[] tup : tups) {
+			l.add(Arrays.asList(tup));
+		}
+		return l;
+	}
+
+	private void checkAgainstModel() {
+		List<Term[]> sorted = new ArrayList<>(model);
+		sorted.sort(order(0, 1));
+		assertEquals(toLists(sorted), toLists(db.getAll(r)));
+		assertEquals(model.size(), db.countDistinct(r));
+		Term[] key = new Term[2];
+		for (int i = 0; i < N; ++i) {
+			key[0] = I32.make(i);
+			List<List<Term>> expected = new ArrayList<>();
+			for (Term[] tup : sorted) {
+				if (tup[0].equals(key[0])) {
+					expected.add(Arrays.asList(tup));
+				}
+			}
+			assertEquals(expected, toLists(db.get(r, key, 0)));
+		}
+		checkCeiling(byFirst, 0, 1);
+		checkCeiling(bySecond, 1, 0);
+	}
+
+	private void checkCeiling(int n, int first, int second) {
+		List<Term[]> sorted = new ArrayList<>(model);
+		Comparator<Term[]> cmp = order(first, second);
+		sorted.sort(cmp);
+		for (int i = -1; i <= N; ++i) {
+			for (int j = -1; j <= N; ++j) {
+				Term[] lower = new Term[2];
+				lower[first] = I32.make(i);
+				lower[second] = I32.make(j);
+				// Ranges that cover a single value of the first column, and ranges
+				// that are open at the top.
+				Term[] upper = new Term[2];
+				upper[first] = I32.make(i);
+				upper[second] = Terms.maxTerm;
+				checkCeiling(n, sorted, cmp, lower, upper);
+				upper[first] = Terms.maxTerm;
+				checkCeiling(n, sorted, cmp, lower, upper);
+			}
+		}
+	}
+
+	private void checkCeiling(int n, List<Term[]> sorted, Comparator<Term[]> cmp, Term[] lower, Term[] upper) {
+		Term[] ceiling = null;
+		Term[] higher = null;
+		for (Term[] tup : sorted) {
+			if (cmp.compare(tup, upper) > 0) {
+				break;
+			}
+			int c = cmp.compare(tup, lower);
+			if (c >= 0 && ceiling == null) {
+				ceiling = tup;
+			}
+			if (c > 0) {
+				higher = tup;
+				break;
+			}
+		}
+		String msg = Arrays.toString(lower) + " to " + Arrays.toString(upper);
+		assertArrayEquals(msg, ceiling, db.ceiling(r, n, lower, upper));
+		assertArrayEquals(msg, higher, db.higher(r, n, lower, upper));
+	}
+
+	@Test
+	public void testChunkBoundaries() {
+		checkAgainstModel();
+	}
+
+	@Test
+	public void testRemove() {
+		List<Term[]> kept = new ArrayList<>();
+		for (Term[] tup : model) {
+			int i = ((I32) tup[0]).getVal();
+			int j = ((I32) tup[1]).getVal();
+			// Removing every tuple with a small first column empties whole chunks.
+			if (i < N / 4 || (i + j) % 3 == 0) {
+				assertTrue(db.remove(r, tup));
+				assertFalse(db.remove(r, tup));
+				assertFalse(db.hasFact(r, tup));
+			} else {
+				kept.add(tup);
+			}
+		}
+		model = kept;
+		checkAgainstModel();
+
+		Term[] tup = tup(0, 0);
+		assertTrue(db.add(r, tup));
+		model.add(tup);
+		checkAgainstModel();
+	}
+
+	@Test
+	public void testClear() {
+		db.clear();
+		assertTrue(db.isEmpty(r));
+		assertNull(db.ceiling(r, byFirst, new Term[] { Terms.minTerm, Terms.minTerm },
+				new Term[] { Terms.maxTerm, Terms.maxTerm }));
+		model = new ArrayList<>();
+		for (int i = 0; i < N; ++i) {
+			Term[] tup = tup(i, N - i);
+			db.add(r, tup);
+			model.add(tup);
+		}
+		checkAgainstModel();
+	}
+
+}
@@ -0,0 +1,107 @@
+package edu.harvard.seas.pl.formulog.eval;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.UserPredicate;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+
+// Runs in its own surefire execution with -DadaptiveJoins=true.
+public class AdaptiveJoinsTest {
+
+	// The body of the rule for out is written in a poor order, and the relations
+	// reach joins on keep growing from round to round.
+	private static final String program = String.join("\n", //
+			"output nat(i32).", //
+			"output big(i32, i32).", //
+			"output small(i32, i32).", //
+			"output edge(i32, i32).", //
+			"output out(i32, i32).", //
+			"output reach(i32, i32).", //
+			"nat(0).", //
+			"nat(N + 1) :- nat(N), N < 299.", //
+			"big(X, Y) :- nat(X), nat(Y), Y < 30.", //
+			"small(1, 3).", //
+			"small(2, 5).", //
+			"small(7, 7).", //
+			"edge(X, X + 1) :- nat(X), X % 3 != 0.", //
+			"edge(X, X + 2) :- nat(X).", //
+			"out(X, Z) :- big(Y, Z), small(X, Y).", //
+			"reach(X, Y) :- small(X, Y).", //
+			"reach(X, Z) :- reach(X, Y), edge(Y, Z), !small(Y, Z).");
+
+	private static final List<String> outputs = Arrays.asList("out", "reach");
+
+	@BeforeClass
+	public static void checkOption() {
+		assumeTrue(Configuration.adaptiveJoins);
+	}
+
+	private static SemiNaiveEvaluation run(int parallelism, boolean eagerEval) throws Exception {
+		SemiNaiveEvaluation eval = SemiNaiveEvaluation
+				.setup(new TypeChecker(new Parser().parse(new StringReader(program))).typeCheck(), parallelism, eagerEval);
+		eval.run();
+		return eval;
+	}
+
+	private static Set<String> facts(SemiNaiveEvaluation eval, String rel) {
+		RelationSymbol sym = (RelationSymbol) eval.getInputProgram().getSymbolManager().lookupSymbol(rel);
+		Set<String> s = new HashSet<>();
+		for (UserPredicate p : eval.getResult().getAll(sym)) {
+			s.add(p.toString());
+		}
+		return s;
+	}
+
+	@Test
+	public void testReplannedResultsMatch() throws Exception {
+		// Eager evaluation never replans rules.
+		SemiNaiveEvaluation expected = run(1, true);
+		assertNull(expected.getPlanner());
+		for (int parallelism : new int[] { 1, 4 }) {
+			SemiNaiveEvaluation eval = run(parallelism, false);
+			assertTrue("No rule was replanned", eval.getPlanner().getNumReplans() > 0);
+			for (String rel : outputs) {
+				Set<String> facts = facts(eval, rel);
+				assertFalse(facts.isEmpty());
+				assertEquals(rel, facts(expected, rel), facts);
+			}
+		}
+	}
+
+}
@@ -815,5 +815,20 @@ public abstract class CommonEvaluationTest<T extends Evaluation> extends Abstrac
 	public void test311() {
 		test("test311_ok.flg");
 	}
+
+	@Test
+	public void test314() {
+		test("test314_ok.flg");
+	}
+
+	@Test
+	public void test315() {
+		test("test315_ok.flg");
+	}
+
+	@Test
+	public void test317() {
+		test("test317_ok.flg", Arrays.asList("test317_input"));
+	}
 	
 }
@@ -0,0 +1,135 @@
+package edu.harvard.seas.pl.formulog.eval;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.UserPredicate;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+
+// Runs in its own surefire execution with -DleapfrogJoins=true.
+public class LeapfrogJoinTest {
+
+	private static final int N = 30;
+
+	private static final String rules = String.join("\n", //
+			"output e(i32, i32).", //
+			"output loop(i32, i32).", //
+			"output triangle(i32, i32, i32).", //
+			"output clique4(i32, i32, i32, i32).", //
+			"output open_triangle(i32, i32, i32).", //
+			"output loop_edge(i32, i32).", //
+			"output reach(i32, i32).", //
+			"triangle(X, Y, Z) :- e(X, Y), e(Y, Z), e(X, Z).", //
+			"clique4(A, B, C, D) :- e(A, B), e(A, C), e(A, D), e(B, C), e(B, D), e(C, D).", //
+			// Neither of these rules can be a leapfrog join.
+			"open_triangle(X, Y, Z) :- e(X, Y), e(Y, Z), !e(X, Z).", //
+			"loop_edge(X, Y) :- loop(X, X), e(X, Y), loop(Y, Y).", //
+			"reach(X, Y) :- e(X, Y).", //
+			"reach(X, Z) :- reach(X, Y), e(Y, Z).");
+
+	private static final List<String> outputs = Arrays.asList("triangle", "clique4", "open_triangle", "loop_edge",
+			"reach");
+
+	private static String program;
+
+	@BeforeClass
+	public static void setup() {
+		assumeTrue(Configuration.leapfrogJoins);
+		StringBuilder sb = new StringBuilder(rules);
+		Random r = new Random(0);
+		for (int i = 0; i < N; ++i) {
+			for (int j = i + 1; j < N; ++j) {
+				if (r.nextInt(10) < 4) {
+					sb.append("\ne(" + i + ", " + j + ").");
+				}
+			}
+			sb.append("\nloop(" + i + ", " + (i % 3 == 0 ? i : i + 1) + ").");
+		}
+		program = sb.toString();
+	}
+
+	private static SemiNaiveEvaluation run(int parallelism, boolean eagerEval) throws Exception {
+		SemiNaiveEvaluation eval = SemiNaiveEvaluation
+				.setup(new TypeChecker(new Parser().parse(new StringReader(program))).typeCheck(), parallelism, eagerEval);
+		eval.run();
+		return eval;
+	}
+
+	private static RelationSymbol lookup(SemiNaiveEvaluation eval, String rel) {
+		return (RelationSymbol) eval.getInputProgram().getSymbolManager().lookupSymbol(rel);
+	}
+
+	private static Set<String> facts(SemiNaiveEvaluation eval, String rel) {
+		Set<String> s = new HashSet<>();
+		for (UserPredicate p : eval.getResult().getAll(lookup(eval, rel))) {
+			s.add(p.toString());
+		}
+		return s;
+	}
+
+	private static LeapfrogJoin plan(SemiNaiveEvaluation eval, String rel) {
+		Set<IndexedRule> rs = eval.getRules(lookup(eval, rel));
+		assertEquals(1, rs.size());
+		return LeapfrogJoin.make(rs.iterator().next(), eval.getDb(), eval.getDeltaDb());
+	}
+
+	@Test
+	public void testPlans() throws Exception {
+		SemiNaiveEvaluation eval = run(1, false);
+		assertNotNull(plan(eval, "triangle"));
+		assertNotNull(plan(eval, "clique4"));
+		assertNull(plan(eval, "open_triangle"));
+		assertNull(plan(eval, "loop_edge"));
+	}
+
+	@Test
+	public void testMatchesDefaultEvaluation() throws Exception {
+		// Eager evaluation does not use leapfrog joins.
+		SemiNaiveEvaluation expected = run(1, true);
+		for (int parallelism : new int[] { 1, 4 }) {
+			SemiNaiveEvaluation eval = run(parallelism, false);
+			for (String rel : outputs) {
+				Set<String> facts = facts(eval, rel);
+				assertFalse(rel, facts.isEmpty());
+				assertEquals(rel, facts(expected, rel), facts);
+			}
+		}
+	}
+
+}
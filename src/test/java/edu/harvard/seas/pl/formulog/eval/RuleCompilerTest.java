@@ -0,0 +1,204 @@
+package edu.harvard.seas.pl.formulog.eval;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.ast.Constructors;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.db.TupleBuffer;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbol;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import edu.harvard.seas.pl.formulog.types.WellTypedProgram;
+import edu.harvard.seas.pl.formulog.util.AbstractFJPTask;
+import edu.harvard.seas.pl.formulog.util.CountingFJP;
+import edu.harvard.seas.pl.formulog.util.CountingFJPImpl;
+
+public class RuleCompilerTest {
+
+	private static final String program = String.join("\n", //
+			"type shape = | circle(i32) | square(i32, i32).", //
+			"@external input edge(i32, i32).", //
+			"@external input shape_of(i32, shape).", //
+			"output two_hop(i32, i32, i32).", //
+			"output one_way(i32, i32).", //
+			"output width(i32, i32).", //
+			"output loop_area(i32, i32).", //
+			"output folded(i32).", //
+			"output partial_out(i32).", //
+			"fun area(S:shape) : i32 = match S with circle(R) => 3 * R * R | square(W, H) => W * H end.", //
+			"fun plus(A:i32, B:i32) : i32 = A + B.", //
+			"fun partial(X:i32) : i32 = match X with 0 => 1 end.", //
+			"two_hop(X, Y, Z) :- edge(X, Y), edge(Y, Z), X < Z.", //
+			"one_way(X, Y) :- edge(X, Y), !edge(Y, X).", //
+			"width(X, W) :- shape_of(X, S), S = square(W, _), W != 7.", //
+			"loop_area(X, A) :- edge(X, X), shape_of(X, S),", //
+			"  A = area(S) + match S with circle(_) => 1 | _ => 0 end.", //
+			"folded(N) :- edge(X, _), N = fold[plus](0, [X, X]).", //
+			"partial_out(Y) :- edge(X, X), X = 290, Y = partial(X).");
+
+	private static final List<String> outputs = Arrays.asList("two_hop", "one_way", "width", "loop_area");
+
+	private WellTypedProgram prog;
+	private SemiNaiveEvaluation eval;
+
+	@Before
+	public void setup() throws Exception {
+		prog = new TypeChecker(new Parser().parse(new StringReader(program))).typeCheck();
+		eval = SemiNaiveEvaluation.setup(prog, 1, false);
+		RelationSymbol edge = lookup("edge");
+		RelationSymbol shapeOf = lookup("shape_of");
+		ConstructorSymbol circle = (ConstructorSymbol) prog.getSymbolManager().lookupSymbol("circle");
+		ConstructorSymbol square = (ConstructorSymbol) prog.getSymbolManager().lookupSymbol("square");
+		// Enough tuples that scans are split into several chunks.
+		for (int i = 0; i < 300; ++i) {
+			addFact(edge, I32.make(i), I32.make((i * 7 + 3) % 300));
+			addFact(edge, I32.make(i), I32.make((i * 11 + 5) % 300));
+			if (i % 10 == 0) {
+				addFact(edge, I32.make(i), I32.make(i));
+			}
+			Term s;
+			if (i % 2 == 0) {
+				s = Constructors.make(circle, new Term[] { I32.make(i) });
+			} else {
+				s = Constructors.make(square, new Term[] { I32.make(i % 13), I32.make(i) });
+			}
+			addFact(shapeOf, I32.make(i), s);
+		}
+	}
+
+	private RelationSymbol lookup(String name) {
+		return (RelationSymbol) prog.getSymbolManager().lookupSymbol(name);
+	}
+
+	private void addFact(RelationSymbol sym, Term... args) {
+		eval.getDb().add(sym, args);
+	}
+
+	private Set<IndexedRule> getRules(String name) {
+		return eval.getRules(lookup(name));
+	}
+
+	/**
+	 * Evaluates the rules once against the database, returning the facts they
+	 * derive (or the error that evaluation raised).
+	 */
+	private Object run(Set<IndexedRule> rules, Function<RoundBasedStratumEvaluator, List<AbstractFJPTask>> tasks) {
+		Set<RelationSymbol> heads = new HashSet<>();
+		for (IndexedRule r : rules) {
+			heads.add(r.getHead().getSymbol());
+		}
+		TupleBuffer buf = new TupleBuffer(heads);
+		CountingFJP exec = new CountingFJPImpl(4);
+		try {
+			RoundBasedStratumEvaluator se = new RoundBasedStratumEvaluator(0, eval.getDb(), eval.getDeltaDb(), buf,
+					rules, exec, Collections.emptySet(), null);
+			for (AbstractFJPTask task : tasks.apply(se)) {
+				exec.externallyAddTask(task);
+			}
+			exec.blockUntilFinished();
+			if (exec.hasFailed()) {
+				return exec.getFailureCause().getMessage();
+			}
+		} finally {
+			exec.shutdown();
+		}
+		Set<List<Term>> facts = new HashSet<>();
+		for (RelationSymbol sym : heads) {
+			for (Term[] tup : buf.toArray(sym)) {
+				facts.add(Arrays.asList(tup));
+			}
+		}
+		return facts;
+	}
+
+	private Object interpret(Set<IndexedRule> rules) {
+		return run(rules, se -> {
+			List<AbstractFJPTask> tasks = new ArrayList<>();
+			for (IndexedRule r : rules) {
+				tasks.add(se.new RulePrefixEvaluator(r));
+			}
+			return tasks;
+		});
+	}
+
+	private Object runCompiled(Set<IndexedRule> rules) {
+		return run(rules, se -> {
+			List<AbstractFJPTask> tasks = new ArrayList<>();
+			for (IndexedRule r : rules) {
+				CompiledRule cr = RuleCompiler.compile(r, se);
+				assertNotNull("Rule was not compiled: " + r, cr);
+				tasks.add(se.new CompiledRuleEvaluator(cr, 0, null, null));
+			}
+			return tasks;
+		});
+	}
+
+	@Test
+	public void testSameFactsAsInterpreter() {
+		for (String name : outputs) {
+			Set<IndexedRule> rules = getRules(name);
+			Object expected = interpret(rules);
+			assertTrue(name + ": " + expected, expected instanceof Set);
+			assertFalse(name, ((Set<?>) expected).isEmpty());
+			assertEquals(name, expected, runCompiled(rules));
+		}
+	}
+
+	@Test
+	public void testSameErrorAsInterpreter() {
+		Set<IndexedRule> rules = getRules("partial_out");
+		Object expected = interpret(rules);
+		assertTrue(expected instanceof String);
+		assertEquals(expected, runCompiled(rules));
+	}
+
+	@Test
+	public void testUnsupported() {
+		Set<IndexedRule> rules = getRules("folded");
+		run(rules, se -> {
+			for (IndexedRule r : rules) {
+				assertNull(RuleCompiler.compile(r, se));
+			}
+			return Collections.emptyList();
+		});
+	}
+
+}
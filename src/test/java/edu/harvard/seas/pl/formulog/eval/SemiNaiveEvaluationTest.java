@@ -20,6 +20,17 @@ package edu.harvard.seas.pl.formulog.eval;
  * #L%
  */
 
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import edu.harvard.seas.pl.formulog.types.WellTypedProgram;
 
 public class SemiNaiveEvaluationTest extends CommonEvaluationTest<SemiNaiveEvaluation> {
 
@@ -27,4 +38,24 @@ public class SemiNaiveEvaluationTest extends CommonEvaluationTest<SemiNaiveEvalu
 		super(new InterpretedSemiNaiveTester(false));
 	}
 
+	@Test
+	public void test312() {
+		test("test312_ok.flg");
+	}
+
+	@Test
+	public void test316() throws Exception {
+		// A match with no clause for the matchee is an error at run time.
+		InputStream is = getClass().getClassLoader().getResourceAsStream("test316_bd.flg");
+		WellTypedProgram prog = new TypeChecker(new Parser().parse(new InputStreamReader(is))).typeCheck();
+		SemiNaiveEvaluation eval = SemiNaiveEvaluation.setup(prog, 2, false);
+		try {
+			eval.run();
+			fail("Evaluation succeeded for a program with a failing match");
+		} catch (EvaluationException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(
+					"No matching pattern for S which normalizes to a complex term with outermost constructor point"));
+		}
+	}
+
 }
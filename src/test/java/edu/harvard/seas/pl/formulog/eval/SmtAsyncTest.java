@@ -0,0 +1,125 @@
+package edu.harvard.seas.pl.formulog.eval;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.BoolTerm;
+import edu.harvard.seas.pl.formulog.ast.Constructor;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.UserPredicate;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.smt.SmtStrategy;
+import edu.harvard.seas.pl.formulog.symbols.BuiltInConstructorSymbol;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+
+// Runs in its own surefire execution with -DsmtAsync=true and fewer solvers
+// than evaluation threads.
+public class SmtAsyncTest {
+
+	private static final int parallelism = 8;
+
+	private static final String program = String.join("\n", //
+			"output nat(i32).", //
+			"output big(i32, bool option).", //
+			"output chain(i32).", //
+			"nat(0).", //
+			"nat(N + 1) :- nat(N), N < 199.", //
+			"big(N, R) :- nat(N), R = is_sat_opt([`#x[i32] #= N`, `bv_sgt(#x[i32], 100)`], none).", //
+			// Each round waits on a solver call before the next one can start.
+			"chain(0).", //
+			"chain(N + 1) :- chain(N), N < 50,", //
+			"  is_sat_opt([`bv_sgt(#y[i32], N)`], none) != some(false).");
+
+	private static final List<String> outputs = Arrays.asList("big", "chain");
+
+	@BeforeClass
+	public static void checkOptions() {
+		assumeTrue(Configuration.smtAsync && Configuration.smtAsyncThreads >= parallelism);
+		SmtStrategy st = Configuration.smtStrategy;
+		assumeTrue(st.getTag() == SmtStrategy.Tag.QUEUE && (int) st.getMetadata() < parallelism);
+	}
+
+	private static SemiNaiveEvaluation run(int parallelism, boolean eagerEval) throws Exception {
+		SemiNaiveEvaluation eval = SemiNaiveEvaluation
+				.setup(new TypeChecker(new Parser().parse(new StringReader(program))).typeCheck(), parallelism, eagerEval);
+		eval.run();
+		return eval;
+	}
+
+	private static Iterable<UserPredicate> getAll(SemiNaiveEvaluation eval, String rel) {
+		return eval.getResult().getAll((RelationSymbol) eval.getInputProgram().getSymbolManager().lookupSymbol(rel));
+	}
+
+	private static Set<String> facts(SemiNaiveEvaluation eval, String rel) {
+		Set<String> s = new HashSet<>();
+		for (UserPredicate p : getAll(eval, rel)) {
+			s.add(p.toString());
+		}
+		return s;
+	}
+
+	@Test(timeout = 60000)
+	public void testMoreThreadsThanSolvers() throws Exception {
+		SemiNaiveEvaluation eval = run(parallelism, false);
+		assertEquals(51, facts(eval, "chain").size());
+		int n = 0;
+		for (UserPredicate p : getAll(eval, "big")) {
+			int x = ((I32) p.getArgs()[0]).getVal();
+			Constructor opt = (Constructor) p.getArgs()[1];
+			// A solver can always give up, but it must not be wrong.
+			if (opt.getSymbol() == BuiltInConstructorSymbol.SOME) {
+				assertEquals(p.toString(), BoolTerm.mk(x > 100), opt.getArgs()[0]);
+			}
+			n++;
+		}
+		assertEquals(200, n);
+
+		// Eager evaluation makes its SMT calls on the evaluation threads.
+		SemiNaiveEvaluation expected = run(1, true);
+		for (String rel : outputs) {
+			assertEquals(rel, facts(expected, rel), facts(eval, rel));
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testRepeatedRuns() throws Exception {
+		// The SMT threads are shared between evaluations.
+		Set<String> first = facts(run(parallelism, false), "big");
+		for (int i = 0; i < 3; ++i) {
+			assertEquals(first, facts(run(parallelism, false), "big"));
+		}
+		assertEquals(200, first.size());
+	}
+
+}
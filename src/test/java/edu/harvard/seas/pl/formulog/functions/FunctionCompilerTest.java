@@ -0,0 +1,180 @@
+package edu.harvard.seas.pl.formulog.functions;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.StringReader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.ast.FunctionCallFactory;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import edu.harvard.seas.pl.formulog.types.WellTypedProgram;
+
+public class FunctionCompilerTest {
+
+	private static final String program = String.join("\n", //
+			"type nat = | z | s(nat).", //
+			"fun to_nat(N:i32) : nat = if N <= 0 then z else s(to_nat(N - 1)).", //
+			"fun add(X:nat, Y:nat) : nat =", //
+			"  match X with", //
+			"  | z => Y", //
+			"  | s(X1) => s(add(X1, Y))", //
+			"  end.", //
+			"fun nat_sum(N:i32) : nat = add(to_nat(N), to_nat(N * 2)).", //
+			"fun fib(N:i32) : i32 = if N < 2 then N else fib(N - 1) + fib(N - 2).", //
+			"fun even(N:i32) : bool = if N = 0 then true else odd(N - 1)", //
+			"and odd(N:i32) : bool = if N = 0 then false else even(N - 1).", //
+			"fun range(N:i32) : i32 list = if N <= 0 then [] else N :: range(N - 1).", //
+			"fun sum(Xs:i32 list) : i32 =", //
+			"  match Xs with", //
+			"  | [] => 0", //
+			"  | X :: Rest => let Y = sum(Rest) in X + Y", //
+			"  end.", //
+			"fun range_sum(N:i32) : i32 = sum(range(N)).", //
+			"fun pairs(N:i32) : (i32 * string) list =", //
+			"  let (A, B) = (N, \"x\") in", //
+			"  match range(A) with", //
+			"  | [] => []", //
+			"  | X :: _ => [(X, B), (-X, B)]", //
+			"  end.", //
+			"fun head(N:i32) : i32 = match range(N) with X :: _ => X end.", //
+			"fun shout(N:i32) : string = string_concat(to_string(N), \"!\").", //
+			"fun plus(Acc:i32, X:i32) : i32 = Acc + X.", //
+			"fun uses_fold(N:i32) : i32 = fold[plus](0, range(N)).");
+
+	private WellTypedProgram prog;
+
+	// Compiling a function records the outcome in its definition, so each test
+	// starts from a fresh program.
+	@Before
+	public void setup() throws Exception {
+		prog = new TypeChecker(new Parser().parse(new StringReader(program))).typeCheck();
+		// None of the functions use the SMT solver.
+		prog.getFunctionCallFactory().getDefManager().loadBuiltInFunctions(null, null);
+	}
+
+	private UserFunctionDef getDef(String name) {
+		FunctionSymbol sym = (FunctionSymbol) prog.getSymbolManager().lookupSymbol(name);
+		return (UserFunctionDef) prog.getDef(sym);
+	}
+
+	private static Term interpret(UserFunctionDef def, Term arg) throws EvaluationException {
+		// The interpreter is used whenever compileFunctions is not set.
+		return def.evaluate(new Term[] { arg });
+	}
+
+	private void testAgainstInterpreter(String name, int... args) throws EvaluationException {
+		UserFunctionDef def = getDef(name);
+		CompiledFunction f = new FunctionCompiler().compile(def);
+		assertNotNull(name + " was not compiled", f);
+		for (int n : args) {
+			Term arg = I32.make(n);
+			assertEquals(name + "(" + n + ")", interpret(def, arg), f.call(new Term[] { arg }));
+		}
+	}
+
+	@Test
+	public void testMatchOnConstructors() throws EvaluationException {
+		testAgainstInterpreter("nat_sum", 0, 1, 5, 20);
+	}
+
+	@Test
+	public void testRecursion() throws EvaluationException {
+		testAgainstInterpreter("fib", 0, 1, 2, 10, 15);
+		testAgainstInterpreter("to_nat", -1, 0, 3);
+	}
+
+	@Test
+	public void testMutualRecursion() throws EvaluationException {
+		testAgainstInterpreter("even", 0, 1, 10, 33);
+		testAgainstInterpreter("odd", 0, 1, 10, 33);
+	}
+
+	@Test
+	public void testLetAndLists() throws EvaluationException {
+		testAgainstInterpreter("range_sum", 0, 1, 100);
+		testAgainstInterpreter("pairs", 0, 1, 7);
+	}
+
+	@Test
+	public void testBuiltInCalls() throws EvaluationException {
+		testAgainstInterpreter("shout", -3, 42);
+	}
+
+	@Test
+	public void testMatchFailure() throws EvaluationException {
+		UserFunctionDef def = getDef("head");
+		CompiledFunction f = new FunctionCompiler().compile(def);
+		assertNotNull(f);
+		assertEquals(I32.make(3), f.call(new Term[] { I32.make(3) }));
+		String expected = null;
+		try {
+			interpret(def, I32.make(0));
+			fail("Interpreter did not raise an error");
+		} catch (EvaluationException e) {
+			expected = e.getMessage();
+		}
+		try {
+			f.call(new Term[] { I32.make(0) });
+			fail("Compiled function did not raise an error");
+		} catch (EvaluationException e) {
+			assertEquals(expected, e.getMessage());
+		}
+	}
+
+	@Test
+	public void testUnsupported() {
+		UserFunctionDef def = getDef("uses_fold");
+		FunctionCompiler compiler = new FunctionCompiler();
+		assertNull(compiler.compile(def));
+		assertNull(compiler.compile(def));
+	}
+
+	@Test
+	public void testDirectCalls() throws EvaluationException {
+		// Calls can only be direct when they are not memoized or traced.
+		FunctionSymbol odd = getDef("odd").getSymbol();
+		assumeFalse(FunctionCallFactory.isInterceptingCalls(odd));
+		UserFunctionDef evenDef = getDef("even");
+		UserFunctionDef oddDef = getDef("odd");
+		FunctionCompiler compiler = new FunctionCompiler();
+		CompiledFunction even = compiler.compile(evenDef);
+		assertNotNull(even);
+		// Compiling a function also compiles the functions that it calls directly.
+		assertNotNull(oddDef.getCompiled());
+		assertSame(oddDef.getCompiled(), compiler.compile(oddDef));
+		assertEquals(interpret(evenDef, I32.make(1001)), even.call(new Term[] { I32.make(1001) }));
+	}
+
+}
@@ -0,0 +1,192 @@
+package edu.harvard.seas.pl.formulog.smt;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.ast.UserPredicate;
+import edu.harvard.seas.pl.formulog.eval.SemiNaiveEvaluation;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import edu.harvard.seas.pl.formulog.types.WellTypedProgram;
+
+// Runs in its own surefire execution with -DsmtCacheSize=4,
+// -DsmtCacheRetain=2, and -DdebugSmt, so that the solver's input is logged.
+public class CheckSatAssumingSolverTest {
+
+	private static final String program = String.join("\n", //
+			"output nat(i32).", //
+			"output phi(i32, bool smt).", //
+			"nat(0).", //
+			"nat(N + 1) :- nat(N), N < 9.", //
+			"phi(N, `#x[i32] #= N`) :- nat(N).");
+
+	private static WellTypedProgram prog;
+	private static Map<Integer, SmtLibTerm> conjuncts;
+
+	private CheckSatAssumingSolver solver;
+	private List<String> events;
+
+	@BeforeClass
+	public static void setupClass() throws Exception {
+		assumeTrue(Configuration.debugSmt && Configuration.smtCacheSize == 4 && Configuration.smtCacheRetain == 2);
+		prog = new TypeChecker(new Parser().parse(new StringReader(program))).typeCheck();
+		SemiNaiveEvaluation eval = SemiNaiveEvaluation.setup(prog, 1, false);
+		eval.run();
+		conjuncts = new HashMap<>();
+		RelationSymbol phi = (RelationSymbol) eval.getInputProgram().getSymbolManager().lookupSymbol("phi");
+		for (UserPredicate p : eval.getResult().getAll(phi)) {
+			conjuncts.put(((I32) p.getArgs()[0]).getVal(), (SmtLibTerm) p.getArgs()[1]);
+		}
+	}
+
+	@Before
+	public void setup() throws Exception {
+		solver = new CheckSatAssumingSolver();
+		solver.start(prog);
+		events = new ArrayList<>();
+		solver.setCacheListener(new CheckSatAssumingSolver.CacheListener() {
+
+			@Override
+			public void cached(SmtLibTerm conjunct) {
+				events.add("cached " + conjunct);
+			}
+
+			@Override
+			public void cleared() {
+				events.add("cleared");
+			}
+
+		});
+	}
+
+	@After
+	public void cleanup() {
+		solver.destroy();
+	}
+
+	private void check(int... ns) throws Exception {
+		List<SmtLibTerm> formula = new ArrayList<>();
+		for (int n : ns) {
+			formula.add(conjuncts.get(n));
+		}
+		solver.check(formula, false, Integer.MAX_VALUE);
+	}
+
+	private Set<SmtLibTerm> get(int... ns) {
+		Set<SmtLibTerm> s = new HashSet<>();
+		for (int n : ns) {
+			s.add(conjuncts.get(n));
+		}
+		return s;
+	}
+
+	private String readLog() throws Exception {
+		Path path = Paths.get(Configuration.debugSmtOutDir).resolve("solver" + solver.solverId + ".log.smt2");
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testRetainsMostRecentlyUsed() throws Exception {
+		check(0);
+		check(1);
+		check(2);
+		check(3);
+		assertEquals(get(0, 1, 2, 3), solver.getCache());
+		// The oldest conjunct is used again...
+		check(0);
+		// ...and one more conjunct pushes the cache past its size, so it is
+		// cleared, keeping the two that have been used most recently.
+		check(4);
+		assertEquals(get(0, 4), solver.getCache());
+
+		int cleared = events.indexOf("cleared");
+		assertEquals(5, cleared);
+		assertEquals(cleared, events.lastIndexOf("cleared"));
+		Set<String> recached = new HashSet<>(events.subList(cleared + 1, events.size()));
+		assertEquals(new HashSet<>(Arrays.asList("cached " + conjuncts.get(0), "cached " + conjuncts.get(4))),
+				recached);
+		assertEquals(8, events.size());
+
+		// A retained conjunct is a cache hit.
+		check(0);
+		assertEquals(8, events.size());
+	}
+
+	@Test
+	public void testRetainedConjunctsAreReasserted() throws Exception {
+		for (int n : new int[] { 0, 1, 2, 3, 0, 4, 0 }) {
+			check(n);
+		}
+		String log = readLog();
+		int scope = log.lastIndexOf("(pop 1)\n(push 1)\n");
+		assertTrue(log, scope >= 0);
+		String after = log.substring(scope);
+		Pattern imp = Pattern.compile("\\(assert \\(=> (\\S+) (.*)\\)\\)\n");
+		Matcher m = imp.matcher(after);
+		Set<String> indicators = new HashSet<>();
+		List<String> bodies = new ArrayList<>();
+		while (m.find()) {
+			String x = m.group(1);
+			// The indicator was declared in the new scope, before it is used.
+			int decl = after.indexOf("(declare-fun " + x + " ");
+			assertTrue(after, decl >= 0 && decl < m.start());
+			indicators.add(x);
+			bodies.add(m.group(2));
+		}
+		assertEquals(after, 2, indicators.size());
+		Collections.sort(bodies);
+		assertTrue(bodies.toString(), bodies.get(0).contains("#x00000000"));
+		assertTrue(bodies.toString(), bodies.get(1).contains("#x00000004"));
+		// The last call only uses the indicator of a retained conjunct.
+		Matcher csa = Pattern.compile("\\(check-sat-assuming \\((\\S+) \\)\\)").matcher(after);
+		assertTrue(after, csa.find());
+		assertTrue(after, indicators.contains(csa.group(1)));
+	}
+
+}
@@ -0,0 +1,241 @@
+package edu.harvard.seas.pl.formulog.smt;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.ast.UserPredicate;
+import edu.harvard.seas.pl.formulog.eval.SemiNaiveEvaluation;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import edu.harvard.seas.pl.formulog.types.WellTypedProgram;
+
+// Runs in its own surefire execution with -DsmtShareTerms=true.
+public class SmtLibShimTest {
+
+	private static final String program = String.join("\n", //
+			"output phi(i32, bool smt).", //
+			"phi(1, F) :- X = #x[i32], M = `bv_mul(X, 3)`, F = `bv_add(M, 1) #= bv_sub(M, 2)`.", //
+			// The quantified variable occurs in a subterm that would otherwise be
+			// shared, and the subterm that is shared outside the binder also occurs
+			// inside it.
+			"phi(2, F) :- X = #x[i32], M = `bv_mul(X, 3)`,", //
+			"  F = `bv_add(M, 1) #= M /\\ (forall #y[i32] . bv_mul(#y[i32], 3) #= bv_add(M, 1))`.", //
+			// Inside the let, X refers to the bound value and not the solver variable.
+			"phi(3, F) :- X = #x[i32], Y = #y[i32],", //
+			"  F = `bv_add(X, Y) #= bv_mul(bv_add(X, Y), (#let X = 42 in bv_add(X, Y)))`.", //
+			"phi(4, F) :- X = #x[i32], F = `bv_mul(X, 7) #= 5`.");
+
+	private static final Pattern name = Pattern.compile("\\bt_\\d+\\b");
+
+	private static WellTypedProgram prog;
+	private static Map<Integer, SmtLibTerm> formulas;
+
+	private StringWriter out;
+	private SmtLibShim shim;
+
+	@BeforeClass
+	public static void setupClass() throws Exception {
+		assumeTrue(Configuration.smtShareTerms);
+		prog = new TypeChecker(new Parser().parse(new StringReader(program))).typeCheck();
+		SemiNaiveEvaluation eval = SemiNaiveEvaluation.setup(prog, 1, false);
+		eval.run();
+		formulas = new HashMap<>();
+		RelationSymbol phi = (RelationSymbol) eval.getInputProgram().getSymbolManager().lookupSymbol("phi");
+		for (UserPredicate p : eval.getResult().getAll(phi)) {
+			formulas.put(((I32) p.getArgs()[0]).getVal(), (SmtLibTerm) p.getArgs()[1]);
+		}
+	}
+
+	@Before
+	public void setup() {
+		out = new StringWriter();
+		shim = new SmtLibShim(null, out);
+		shim.initialize(prog, true);
+	}
+
+	/**
+	 * Checks that every shared term is defined (in a scope that has not been
+	 * popped) before it is used, and never defined twice in the same scope
+	 * chain; returns the commands after the declarations.
+	 */
+	private List<String> check() {
+		Deque<Set<String>> scopes = new ArrayDeque<>();
+		scopes.push(new HashSet<>());
+		List<String> cmds = new ArrayList<>();
+		for (String line : out.toString().split("\n")) {
+			if (line.startsWith("(push ")) {
+				scopes.push(new HashSet<>());
+			} else if (line.startsWith("(pop ")) {
+				int n = Integer.parseInt(line.substring(5, line.length() - 1));
+				for (int i = 0; i < n; ++i) {
+					scopes.pop();
+				}
+			} else if (line.startsWith("(define-fun t_")) {
+				Matcher m = name.matcher(line);
+				m.find();
+				String defined = m.group();
+				assertFalse(line, isDefined(scopes, defined));
+				while (m.find()) {
+					assertTrue(line, isDefined(scopes, m.group()));
+				}
+				scopes.peek().add(defined);
+			} else if (line.startsWith("(assert ")) {
+				Matcher m = name.matcher(line);
+				while (m.find()) {
+					assertTrue(line, isDefined(scopes, m.group()));
+				}
+			} else {
+				continue;
+			}
+			cmds.add(line);
+		}
+		return cmds;
+	}
+
+	private static boolean isDefined(Deque<Set<String>> scopes, String s) {
+		for (Set<String> scope : scopes) {
+			if (scope.contains(s)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int count(String s, String sub) {
+		int n = 0;
+		for (int i = s.indexOf(sub); i >= 0; i = s.indexOf(sub, i + 1)) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the s-expression that starts at the first occurrence of the given
+	 * prefix.
+	 */
+	private static String sexp(String s, String prefix) {
+		int start = s.indexOf(prefix);
+		assertTrue(s, start >= 0);
+		int depth = 0;
+		for (int i = start; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (c == '(') {
+				depth++;
+			} else if (c == ')' && --depth == 0) {
+				return s.substring(start, i + 1);
+			}
+		}
+		throw new AssertionError(s);
+	}
+
+	@Test
+	public void testRepeatedSubterm() throws Exception {
+		shim.makeAssertion(formulas.get(1));
+		List<String> cmds = check();
+		assertEquals(2, cmds.size());
+		assertTrue(cmds.get(0), cmds.get(0).startsWith("(define-fun t_0 () (_ BitVec 32) (bvmul "));
+		assertEquals(2, count(cmds.get(1), "t_0"));
+		assertEquals(1, count(out.toString(), "bvmul"));
+	}
+
+	@Test
+	public void testUnderQuantifier() throws Exception {
+		shim.makeAssertion(formulas.get(2));
+		List<String> cmds = check();
+		String assertion = cmds.get(cmds.size() - 1);
+		String body = sexp(assertion, "(forall");
+		assertFalse(body, name.matcher(body).find());
+		// The shared subterms are still used outside of the quantifier.
+		assertTrue(assertion, name.matcher(assertion.replace(body, "")).find());
+		assertEquals(2, count(body, "bvmul"));
+	}
+
+	@Test
+	public void testUnderLet() throws Exception {
+		shim.makeAssertion(formulas.get(3));
+		List<String> cmds = check();
+		String assertion = cmds.get(cmds.size() - 1);
+		String body = sexp(assertion, "(let");
+		assertFalse(body, name.matcher(body).find());
+		assertEquals(1, count(body, "bvadd"));
+		assertEquals(2, count(assertion.replace(body, ""), "t_0"));
+	}
+
+	/**
+	 * Makes the assertion, checking whether it defines a shared term first, and
+	 * returns the name of the first shared term the assertion itself uses (if
+	 * any).
+	 */
+	private String assertAndGetName(SmtLibTerm t, boolean defines) throws Exception {
+		int start = out.getBuffer().length();
+		shim.makeAssertion(t);
+		String written = out.getBuffer().substring(start);
+		assertEquals(written, defines, written.startsWith("(define-fun"));
+		Matcher m = name.matcher(written.substring(written.indexOf("(assert ")));
+		return m.find() ? m.group() : null;
+	}
+
+	@Test
+	public void testReuseAfterPop() throws Exception {
+		SmtLibTerm t = formulas.get(4);
+		// The first time its subterm is printed in full, and after that it is
+		// given a name.
+		assertEquals(null, assertAndGetName(t, false));
+		shim.push();
+		String popped = assertAndGetName(t, true);
+		shim.pop();
+		// The name went away with the scope it was defined in.
+		String kept = assertAndGetName(t, true);
+		assertFalse(kept.equals(popped));
+		shim.push();
+		shim.push();
+		assertEquals(kept, assertAndGetName(t, false));
+		shim.pop(2);
+		assertEquals(kept, assertAndGetName(t, false));
+		check();
+	}
+
+}
@@ -0,0 +1,139 @@
+package edu.harvard.seas.pl.formulog.smt;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.ast.Constructors;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Terms;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbol;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import edu.harvard.seas.pl.formulog.types.WellTypedProgram;
+
+public class SmtResultStoreTest {
+
+	private static final String program = String.join("\n", //
+			"type tree = | leaf | node(tree, tree).", //
+			"uninterpreted fun foo(bool smt) : bool smt.");
+
+	private Path file;
+	private WellTypedProgram prog;
+
+	@Before
+	public void setup() throws Exception {
+		file = Files.createTempFile("smt_memo", ".txt");
+		Files.delete(file);
+		prog = parse(program);
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	private static WellTypedProgram parse(String src) throws Exception {
+		return new TypeChecker(new Parser().parse(new StringReader(src))).typeCheck();
+	}
+
+	private List<SmtLibTerm> tree(WellTypedProgram p, int depth) {
+		Term t = Constructors.make((ConstructorSymbol) p.getSymbolManager().lookupSymbol("leaf"), Terms.emptyArray());
+		ConstructorSymbol node = (ConstructorSymbol) p.getSymbolManager().lookupSymbol("node");
+		for (int i = 0; i < depth; ++i) {
+			t = Constructors.make(node, new Term[] { t, t });
+		}
+		return Collections.singletonList((SmtLibTerm) t);
+	}
+
+	@Test
+	public void testRecordReopenHit() throws Exception {
+		SmtResultStore store = SmtResultStore.open(file, prog);
+		String sat = store.makeKey(tree(prog, 3), 10);
+		String unsat = store.makeKey(tree(prog, 4), 10);
+		assertNotNull(sat);
+		assertNotEquals(sat, unsat);
+		assertNotEquals(sat, store.makeKey(tree(prog, 3), 20));
+		assertNull(store.lookup(sat));
+		store.record(sat, SmtStatus.SATISFIABLE);
+		store.record(unsat, SmtStatus.UNSATISFIABLE);
+		store.record(store.makeKey(tree(prog, 5), 10), SmtStatus.UNKNOWN);
+
+		// A new run, with a new program object, finds the stored answers.
+		WellTypedProgram prog2 = parse(program);
+		SmtResultStore store2 = SmtResultStore.open(file, prog2);
+		String sat2 = store2.makeKey(tree(prog2, 3), 10);
+		assertEquals(sat, sat2);
+		assertEquals(SmtStatus.SATISFIABLE, store2.lookup(sat2));
+		assertEquals(SmtStatus.UNSATISFIABLE, store2.lookup(store2.makeKey(tree(prog2, 4), 10)));
+		assertNull(store2.lookup(store2.makeKey(tree(prog2, 5), 10)));
+		assertEquals(2, Files.readAllLines(file).size());
+	}
+
+	@Test
+	public void testDeclarationsAreInKey() throws Exception {
+		String key = SmtResultStore.open(file, prog).makeKey(tree(prog, 2), 10);
+		WellTypedProgram other = parse(program.replace("bool smt) : bool smt", "i32 smt) : bool smt"));
+		assertNotEquals(key, SmtResultStore.open(file, other).makeKey(tree(other, 2), 10));
+	}
+
+	@Test
+	public void testSharedSubterms() throws Exception {
+		// Written out as a tree, this term would have 2^200 leaves.
+		SmtResultStore store = SmtResultStore.open(file, prog);
+		assertEquals(store.makeKey(tree(prog, 200), 10), store.makeKey(tree(parse(program), 200), 10));
+	}
+
+	@Test
+	public void testTruncatedLine() throws Exception {
+		SmtResultStore store = SmtResultStore.open(file, prog);
+		String key = store.makeKey(tree(prog, 1), 10);
+		store.record(key, SmtStatus.UNSATISFIABLE);
+		// An earlier run was killed in the middle of writing a record.
+		Files.write(file, "0123abc un".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		store = SmtResultStore.open(file, prog);
+		assertEquals(SmtStatus.UNSATISFIABLE, store.lookup(key));
+		String key2 = store.makeKey(tree(prog, 2), 10);
+		store.record(key2, SmtStatus.SATISFIABLE);
+
+		store = SmtResultStore.open(file, prog);
+		assertEquals(SmtStatus.UNSATISFIABLE, store.lookup(key));
+		assertEquals(SmtStatus.SATISFIABLE, store.lookup(key2));
+	}
+
+}
@@ -0,0 +1,137 @@
+package edu.harvard.seas.pl.formulog.util;
+
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2018 - 2020 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringReader;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.StringTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb.SortedIndexedFactDbBuilder;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+
+// Runs in its own surefire execution with -DweakTermTables=true and
+// -DpackedFactDb=true.
+public class InternTableTest {
+
+	@BeforeClass
+	public static void checkOptions() {
+		assumeTrue(Configuration.weakTermTables);
+	}
+
+	/**
+	 * Runs the garbage collector until the condition holds, giving up after a
+	 * while (the collector makes no promises).
+	 */
+	private static boolean collectUntil(BooleanSupplier cond) throws InterruptedException {
+		for (int i = 0; i < 50; ++i) {
+			if (cond.getAsBoolean()) {
+				return true;
+			}
+			System.gc();
+			Thread.sleep(20);
+		}
+		return cond.getAsBoolean();
+	}
+
+	private static void recreated(String key) {
+		throw new AssertionError("Value for " + key + " was created again");
+	}
+
+	@Test
+	public void testUnreferencedValuesAreDropped() throws InterruptedException {
+		InternTable<String, Object> table = new InternTable<>("test");
+		List<Object> kept = new ArrayList<>();
+		List<String> keptKeys = new ArrayList<>();
+		for (int i = 0; i < 10000; ++i) {
+			String key = "v" + i;
+			Object v = table.lookupOrCreate(key, () -> new Object());
+			if (i % 100 == 0) {
+				kept.add(v);
+				keptKeys.add(key);
+			}
+		}
+		assertEquals(10000, table.size());
+		assertTrue("Table did not shrink", collectUntil(() -> table.size() == kept.size()));
+		for (int i = 0; i < kept.size(); ++i) {
+			String key = keptKeys.get(i);
+			assertSame(kept.get(i), table.lookupOrCreate(key, () -> {
+				recreated(key);
+				return null;
+			}));
+		}
+		// Dropped values are created anew.
+		assertNotNull(table.lookupOrCreate("v1", () -> new Object()));
+		assertEquals(kept.size() + 1, table.size());
+	}
+
+	@Test
+	public void testPackedFactDbKeepsTermsAlive() throws Exception {
+		// Packed indices only store term ids, so their terms must not be dropped
+		// from the hash-consing tables while the database holds them.
+		assumeTrue(Configuration.packedFactDb);
+		RelationSymbol r = (RelationSymbol) new Parser().parse(new StringReader("input r(string)."))
+				.getSymbolManager().lookupSymbol("r");
+		SortedIndexedFactDb db = new SortedIndexedFactDbBuilder(Collections.singleton(r)).build();
+		List<WeakReference<Term>> refs = new ArrayList<>();
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < 100; ++i) {
+			Term t = StringTerm.make("intern table test " + i);
+			db.add(r, new Term[] { t });
+			refs.add(new WeakReference<>(t));
+			ids.add(t.getId());
+		}
+		collectUntil(() -> false);
+		for (int i = 0; i < refs.size(); ++i) {
+			Term t = StringTerm.make("intern table test " + i);
+			assertSame(refs.get(i).get(), t);
+			assertEquals((int) ids.get(i), t.getId());
+			assertTrue(db.hasFact(r, new Term[] { t }));
+		}
+
+		db.clear();
+		assertTrue("Terms were not released", collectUntil(() -> {
+			for (WeakReference<Term> ref : refs) {
+				if (ref.get() != null) {
+					return false;
+				}
+			}
+			return true;
+		}));
+	}
+
+}
@@ -21,6 +21,8 @@ package edu.harvard.seas.pl.formulog.validating;
  */
 
 
+import org.junit.Test;
+
 import edu.harvard.seas.pl.formulog.eval.Evaluation;
 import edu.harvard.seas.pl.formulog.eval.EvaluationException;
 import edu.harvard.seas.pl.formulog.eval.SemiNaiveEvaluation;
@@ -33,4 +35,9 @@ public class SemiNaiveValidatingTest extends ValidatingTest {
 		return SemiNaiveEvaluation.setup(prog, 2, false);
 	}
 
+	@Test
+	public void test313() {
+		test("test313_bd.flg");
+	}
+
 }